@@ -0,0 +1,340 @@
+import java.util.Random;
+import tester.*;
+
+// to represent a board as bitplanes: one bit per cell in long[] words for the mines, the
+// revealed cells and the flagged cells. every row starts on a new word, so the cell at
+// (row, col) is bit col % 64 of word row * stride + col / 64, and the bits past the last
+// column of a row are always 0. the counts of adjacent mines are bit-sliced: bit k of
+// every cell's count is in counts[k]. whole-board work is done 64 cells per word
+// operation: counts come from adding the eight shifted mine planes with a ripple of
+// ANDs and XORs, and win/loss are masked ANDs over the planes.
+class BitBoard {
+  static final int COUNT_BITS = 4; // enough for a count of 8
+
+  int columns;
+  int rows;
+  int stride; // words per row
+  long lastMask; // the bits of a row's last word that hold cells
+  long[] mines;
+  long[] revealed;
+  long[] flagged;
+  long[][] counts = new long[COUNT_BITS][];
+
+  BitBoard(int columns, int rows) {
+    this.columns = columns;
+    this.rows = rows;
+    this.stride = (columns + 63) >>> 6;
+    this.lastMask = -1L >>> (this.stride * 64 - columns);
+    this.mines = new long[rows * this.stride];
+    this.revealed = new long[rows * this.stride];
+    this.flagged = new long[rows * this.stride];
+    for (int k = 0; k < COUNT_BITS; k++) {
+      this.counts[k] = new long[rows * this.stride];
+    }
+  }
+
+  // returns the bitboard holding board's mines, revealed and flagged cells and counts
+  static BitBoard of(FlatBoard board) {
+    board.topology.requireSquare("A bitboard");
+    BitBoard bits = new BitBoard(board.columns, board.rows);
+    for (int i = 0; i < board.size(); i++) {
+      int row = i / board.columns;
+      int col = i - row * board.columns;
+      int word = bits.word(row, col);
+      long bit = 1L << col;
+      int cell = board.cells[i];
+      if ((cell & FlatBoard.MINE) != 0) {
+        bits.mines[word] |= bit;
+      }
+      if ((cell & FlatBoard.REVEALED) != 0) {
+        bits.revealed[word] |= bit;
+      }
+      if ((cell & FlatBoard.FLAGGED) != 0) {
+        bits.flagged[word] |= bit;
+      }
+      int count = (cell & 0xFF) >>> FlatBoard.COUNT_SHIFT;
+      for (int k = 0; k < COUNT_BITS; k++) {
+        if ((count >>> k & 1) != 0) {
+          bits.counts[k][word] |= bit;
+        }
+      }
+    }
+    return bits;
+  }
+
+  // EFFECT: writes every cell of this bitboard, counts included, into board, which must be
+  // the same size, and brings its counters up to date
+  void writeTo(FlatBoard board) {
+    for (int i = 0; i < board.size(); i++) {
+      int row = i / this.columns;
+      int col = i - row * this.columns;
+      int word = this.word(row, col);
+      int cell = (int) (this.mines[word] >>> col & 1) * FlatBoard.MINE
+          | (int) (this.revealed[word] >>> col & 1) * FlatBoard.REVEALED
+          | (int) (this.flagged[word] >>> col & 1) * FlatBoard.FLAGGED;
+      board.cells[i] = (byte) (cell | this.neighboringMines(row, col) << FlatBoard.COUNT_SHIFT);
+    }
+    board.recountState();
+  }
+
+  // returns the index of the word holding the cell at (row, col)
+  int word(int row, int col) {
+    return row * this.stride + (col >>> 6);
+  }
+
+  boolean hasMine(int row, int col) {
+    return (this.mines[this.word(row, col)] >>> col & 1) != 0;
+  }
+
+  boolean isRevealed(int row, int col) {
+    return (this.revealed[this.word(row, col)] >>> col & 1) != 0;
+  }
+
+  boolean isFlagged(int row, int col) {
+    return (this.flagged[this.word(row, col)] >>> col & 1) != 0;
+  }
+
+  // returns the number of mines around (row, col), as of the last computeCounts
+  int neighboringMines(int row, int col) {
+    int word = this.word(row, col);
+    int count = 0;
+    for (int k = 0; k < COUNT_BITS; k++) {
+      count |= (int) (this.counts[k][word] >>> col & 1) << k;
+    }
+    return count;
+  }
+
+  // EFFECT: clears the mines and places the given number of new ones with rand, one bit
+  // test per draw. above half density it picks the safe cells instead, so the expected
+  // number of draws stays below twice the cells it picks. counts must be recomputed.
+  void placeMines(int mines, Random rand) {
+    int size = this.columns * this.rows;
+    boolean pickSafe = mines > size / 2;
+    long[] fill = pickSafe ? this.fullPlane() : new long[this.mines.length];
+    for (int picked = 0; picked < (pickSafe ? size - mines : mines); ) {
+      int i = rand.nextInt(size);
+      int col = i % this.columns;
+      int word = this.word(i / this.columns, col);
+      if ((fill[word] >>> col & 1) != (pickSafe ? 0 : 1)) {
+        fill[word] ^= 1L << col;
+        picked++;
+      }
+    }
+    this.mines = fill;
+  }
+
+  // returns a plane with every cell's bit set and the padding clear
+  long[] fullPlane() {
+    long[] plane = new long[this.mines.length];
+    for (int w = 0; w < plane.length; w++) {
+      plane[w] = w % this.stride == this.stride - 1 ? this.lastMask : -1L;
+    }
+    return plane;
+  }
+
+  // EFFECT: recomputes the bit-sliced count of every cell from the mines. each word of a
+  // row adds eight neighbor planes: the rows above and below as they are, and all three
+  // rows shifted one column each way, carrying the edge bit in from the next word.
+  void computeCounts() {
+    long[] c0 = this.counts[0];
+    long[] c1 = this.counts[1];
+    long[] c2 = this.counts[2];
+    long[] c3 = this.counts[3];
+    for (int row = 0; row < this.rows; row++) {
+      for (int k = 0; k < this.stride; k++) {
+        long s0 = 0;
+        long s1 = 0;
+        long s2 = 0;
+        long s3 = 0;
+        for (int r = Math.max(0, row - 1); r <= Math.min(this.rows - 1, row + 1); r++) {
+          int w = r * this.stride + k;
+          long here = this.mines[w];
+          long before = k > 0 ? this.mines[w - 1] : 0;
+          long after = k < this.stride - 1 ? this.mines[w + 1] : 0;
+          // three addends: the cell to the west, to the east, and the cell itself off-row
+          for (int n = 0; n < 3; n++) {
+            long x = n == 0 ? here << 1 | before >>> 63
+                : n == 1 ? here >>> 1 | after << 63
+                : r == row ? 0 : here;
+            long carry = s0 & x;
+            s0 ^= x;
+            x = carry;
+            carry = s1 & x;
+            s1 ^= x;
+            x = carry;
+            carry = s2 & x;
+            s2 ^= x;
+            s3 |= carry;
+          }
+        }
+        long mask = k == this.stride - 1 ? this.lastMask : -1L;
+        int w = row * this.stride + k;
+        c0[w] = s0 & mask;
+        c1[w] = s1 & mask;
+        c2[w] = s2 & mask;
+        c3[w] = s3 & mask;
+      }
+    }
+  }
+
+  // is every safe cell revealed? checks 64 cells per word: a safe cell is hidden where
+  // neither its mine bit nor its revealed bit is set.
+  boolean allSafeRevealed() {
+    for (int w = 0; w < this.mines.length; w++) {
+      long mask = w % this.stride == this.stride - 1 ? this.lastMask : -1L;
+      if (((this.mines[w] | this.revealed[w]) & mask) != mask) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // has any mine been revealed?
+  boolean anyMineRevealed() {
+    for (int w = 0; w < this.mines.length; w++) {
+      if ((this.mines[w] & this.revealed[w]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // returns the number of mines on the board
+  int mineCount() {
+    return BitBoard.popCount(this.mines);
+  }
+
+  // returns the number of flags on the board
+  int flagsPlaced() {
+    return BitBoard.popCount(this.flagged);
+  }
+
+  // returns the number of safe cells not yet revealed
+  int safeHidden() {
+    return this.columns * this.rows - BitBoard.popCount(this.mines)
+        - BitBoard.popCount(this.revealed) + this.minesRevealed();
+  }
+
+  // returns the number of revealed mines
+  int minesRevealed() {
+    int n = 0;
+    for (int w = 0; w < this.mines.length; w++) {
+      n += Long.bitCount(this.mines[w] & this.revealed[w]);
+    }
+    return n;
+  }
+
+  // returns the number of safe cells with no adjacent mines, the cells a reveal floods from
+  int zeroCells() {
+    int n = 0;
+    for (int w = 0; w < this.mines.length; w++) {
+      long mask = w % this.stride == this.stride - 1 ? this.lastMask : -1L;
+      long counted = this.counts[0][w] | this.counts[1][w] | this.counts[2][w]
+          | this.counts[3][w];
+      n += Long.bitCount(~(this.mines[w] | counted) & mask);
+    }
+    return n;
+  }
+
+  // returns the number of set bits in plane
+  static int popCount(long[] plane) {
+    int n = 0;
+    for (long word : plane) {
+      n += Long.bitCount(word);
+    }
+    return n;
+  }
+}
+
+//examples and tests for bitboards
+class ExamplesBitBoard {
+  ExamplesBitBoard() {}
+
+  // returns whether bits holds exactly the same cells and counts as board
+  boolean same(BitBoard bits, FlatBoard board) {
+    boolean same = true;
+    for (int i = 0; i < board.size(); i++) {
+      int row = i / board.columns;
+      int col = i % board.columns;
+      same = same && bits.hasMine(row, col) == board.hasMine(i)
+          && bits.isRevealed(row, col) == board.isRevealed(i)
+          && bits.isFlagged(row, col) == board.isFlagged(i)
+          && bits.neighboringMines(row, col) == board.neighboringMines(i);
+    }
+    return same;
+  }
+
+  // to test the word layout, including rows that don't fill their last word
+  void testLayout(Tester t) {
+    BitBoard bits = new BitBoard(65, 3);
+    t.checkExpect(bits.stride, 2);
+    t.checkExpect(bits.lastMask, 1L);
+    t.checkExpect(bits.word(2, 64), 5);
+    t.checkExpect(new BitBoard(64, 1).lastMask, -1L);
+    t.checkExpect(new BitBoard(3, 1).lastMask, 7L);
+    t.checkExpect(BitBoard.popCount(bits.fullPlane()), 195);
+  }
+
+  // to test that counts match the flat board's, at widths around word boundaries
+  void testCounts(Tester t) {
+    boolean same = true;
+    for (int columns : new int[] {1, 2, 63, 64, 65, 130}) {
+      for (double density : new double[] {0.1, 0.5, 0.9}) {
+        int mines = Math.max(1, (int) (columns * 7 * density));
+        MSEngine engine = new MSEngine(columns, 7, Math.min(mines, columns * 7 - 1), 3L);
+        BitBoard bits = BitBoard.of(engine.board);
+        for (int k = 0; k < BitBoard.COUNT_BITS; k++) {
+          bits.counts[k] = new long[bits.counts[k].length];
+        }
+        bits.computeCounts();
+        same = same && this.same(bits, engine.board)
+            && bits.mineCount() == engine.board.mineCount;
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // to test placing mines at low and high density
+  void testPlaceMines(Tester t) {
+    BitBoard bits = new BitBoard(100, 50);
+    bits.placeMines(400, new Random(1));
+    t.checkExpect(bits.mineCount(), 400);
+    bits.placeMines(4900, new Random(2));
+    t.checkExpect(bits.mineCount(), 4900);
+    t.checkExpect(bits.mines[1] & ~bits.lastMask, 0L);
+    bits.computeCounts();
+    FlatBoard board = new FlatBoard(100, 50);
+    bits.writeTo(board);
+    FlatBoard recounted = board.copy();
+    recounted.computeCounts();
+    t.checkExpect(board.cells, recounted.cells);
+    t.checkExpect(board.mineCount, 4900);
+    t.checkExpect(board.safeHidden, 100);
+  }
+
+  // to test win/loss and the popcount queries against the flat board's counters
+  void testWinLoss(Tester t) {
+    MSEngine engine = new MSEngine(70, 10, 1, 6L);
+    engine.board.clearMines();
+    engine.board.placeMine(engine.index(9, 69));
+    engine.flag(9, 69);
+    engine.reveal(0, 0);
+    BitBoard bits = BitBoard.of(engine.board);
+    t.checkExpect(bits.allSafeRevealed(), true);
+    t.checkExpect(bits.anyMineRevealed(), false);
+    t.checkExpect(bits.flagsPlaced(), 1);
+    t.checkExpect(bits.safeHidden(), 0);
+    t.checkExpect(bits.zeroCells(), 700 - 1 - 3);
+    engine = new MSEngine(70, 10, 200, 6L);
+    engine.reveal(5, 5);
+    bits = BitBoard.of(engine.board);
+    t.checkExpect(bits.allSafeRevealed(), engine.isWon());
+    t.checkExpect(bits.anyMineRevealed(), engine.isLost());
+    t.checkExpect(bits.safeHidden(), engine.board.safeHidden);
+    t.checkExpect(bits.minesRevealed(), engine.board.minesRevealed);
+    FlatBoard copy = new FlatBoard(70, 10);
+    bits.writeTo(copy);
+    t.checkExpect(copy.cells, engine.board.cells);
+    t.checkExpect(copy.safeHidden, engine.board.safeHidden);
+  }
+}
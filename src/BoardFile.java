@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import tester.*;
+
+// to save and load boards in a versioned binary format:
+//   bytes 0-31   header: magic "MSWB", version, columns, rows, mines (ints), seed (long),
+//                flags (int: FIRST_CLICK_SAFE, STARTED)
+//   bytes 32-    one byte per cell in row-major order, exactly as FlatBoard stores it: the
+//                mine, revealed and flagged bits and the count of adjacent mines
+// files are written with a FileChannel straight from the board's byte array, and read
+// through memory-mapped segments, so a board of any size can be queried in place with a
+// MappedBoard, or copied into a FlatBoard in bulk, without building a Cell.
+class BoardFile {
+  static final int MAGIC = 0x4D535742; // "MSWB"
+  static final int VERSION = 1;
+  static final int HEADER = 32;
+  static final int FIRST_CLICK_SAFE = 1;
+  static final int STARTED = 2;
+
+  // EFFECT: writes engine's board and settings to path, replacing any file there
+  static void save(MSEngine engine, Path path) throws IOException {
+    engine.board.topology.requireSquare("Saving");
+    int flags = (engine.firstClickSafe ? FIRST_CLICK_SAFE : 0) | (engine.started ? STARTED : 0);
+    BoardFile.write(path, engine.columns, engine.rows, engine.mines, engine.seed, flags,
+        engine.board.cells);
+  }
+
+  // EFFECT: writes a header and the given cells to path, replacing any file there. the
+  // file is written beside path and moved over it, so a failed save leaves the old one.
+  static void write(Path path, int columns, int rows, int mines, long seed, int flags,
+      byte[] cells) throws IOException {
+    Path next = path.resolveSibling(path.getFileName() + ".next");
+    try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.putInt(MAGIC).putInt(VERSION).putInt(columns).putInt(rows).putInt(mines)
+          .putLong(seed).putInt(flags);
+      header.flip();
+      BoardFile.writeFully(channel, header);
+      BoardFile.writeFully(channel, ByteBuffer.wrap(cells));
+      channel.force(false);
+    } catch (IOException e) {
+      Files.deleteIfExists(next);
+      throw e;
+    }
+    Files.move(next, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // EFFECT: writes everything left in buffer to channel
+  static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // returns an engine playing the board saved at path, copied out of the mapped file.
+  // throws an IllegalArgumentException if the header's mine count disagrees with the cells.
+  static MSEngine load(Path path) throws IOException {
+    MappedBoard mapped = new MappedBoard(path);
+    if (mapped.size() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Board is too large to load; query it mapped.");
+    }
+    FlatBoard board = new FlatBoard((int) mapped.columns, (int) mapped.rows);
+    mapped.copyTo(board.cells);
+    board.recountState();
+    if (board.mineCount != mapped.mines) {
+      throw new IllegalArgumentException("Board file has " + board.mineCount
+          + " mines but says " + mapped.mines + ".");
+    }
+    MSEngine engine = new MSEngine(board, mapped.mines, mapped.seed);
+    engine.firstClickSafe = (mapped.flags & FIRST_CLICK_SAFE) != 0;
+    engine.started = (mapped.flags & STARTED) != 0;
+    return engine;
+  }
+}
+
+// to represent a saved board read in place through memory-mapped segments of
+// 2^segmentBits bytes each. nothing is copied; each query reads one byte of the file.
+class MappedBoard {
+  long columns;
+  long rows;
+  int mines;
+  long seed;
+  int flags;
+  int segmentBits;
+  MappedByteBuffer[] segments;
+
+  // maps the board file at path in 1 GB segments
+  MappedBoard(Path path) throws IOException {
+    this(path, 30);
+  }
+
+  // maps the board file at path in segments of 2^segmentBits bytes. throws an
+  // IllegalArgumentException if the file isn't a board file this version can read.
+  MappedBoard(Path path, int segmentBits) throws IOException {
+    this.segmentBits = segmentBits;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < BoardFile.HEADER) {
+        throw new IllegalArgumentException("Not a minesweeper board file.");
+      }
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BoardFile.HEADER);
+      if (header.getInt() != BoardFile.MAGIC) {
+        throw new IllegalArgumentException("Not a minesweeper board file.");
+      }
+      int version = header.getInt();
+      if (version != BoardFile.VERSION) {
+        throw new IllegalArgumentException("Unsupported board file version " + version + ".");
+      }
+      this.columns = header.getInt();
+      this.rows = header.getInt();
+      this.mines = header.getInt();
+      this.seed = header.getLong();
+      this.flags = header.getInt();
+      if (channel.size() != BoardFile.HEADER + this.size()) {
+        throw new IllegalArgumentException("Board file is truncated.");
+      }
+      long segment = 1L << segmentBits;
+      this.segments = new MappedByteBuffer[(int) ((this.size() + segment - 1) >> segmentBits)];
+      for (int s = 0; s < this.segments.length; s++) {
+        long start = (long) s << segmentBits;
+        this.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+            BoardFile.HEADER + start, Math.min(segment, this.size() - start));
+      }
+    }
+  }
+
+  // returns the total number of cells on this board
+  long size() {
+    return this.columns * this.rows;
+  }
+
+  // returns the stored byte of the cell at the given flat index
+  byte cell(long index) {
+    return this.segments[(int) (index >>> this.segmentBits)]
+        .get((int) (index & ((1L << this.segmentBits) - 1)));
+  }
+
+  boolean hasMine(long index) {
+    return (this.cell(index) & FlatBoard.MINE) != 0;
+  }
+
+  boolean isRevealed(long index) {
+    return (this.cell(index) & FlatBoard.REVEALED) != 0;
+  }
+
+  boolean isFlagged(long index) {
+    return (this.cell(index) & FlatBoard.FLAGGED) != 0;
+  }
+
+  // returns the stored number of mines around the cell at index
+  int neighboringMines(long index) {
+    return (this.cell(index) & 0xFF) >>> FlatBoard.COUNT_SHIFT;
+  }
+
+  // returns what a player can see of the cell at (row, col), as MSEngine.visible does
+  int visible(long row, long col) {
+    long index = row * this.columns + col;
+    if (this.isRevealed(index)) {
+      return this.hasMine(index) ? MSEngine.MINE : this.neighboringMines(index);
+    }
+    return this.isFlagged(index) ? MSEngine.FLAGGED : MSEngine.HIDDEN;
+  }
+
+  // EFFECT: copies every cell into cells, one bulk read per segment
+  void copyTo(byte[] cells) {
+    int offset = 0;
+    for (MappedByteBuffer segment : this.segments) {
+      int length = segment.capacity();
+      segment.duplicate().get(cells, offset, length);
+      offset += length;
+    }
+  }
+}
+
+//examples and tests for saving and loading boards
+class ExamplesBoardFile {
+  ExamplesBoardFile() {}
+
+  // returns a new temporary file, deleted when the tests finish
+  Path temp() {
+    try {
+      Path path = Files.createTempFile("board", ".msb");
+      path.toFile().deleteOnExit();
+      return path;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // to test that a game in progress loads back exactly
+  void testRoundTrip(Tester t) throws IOException {
+    MSEngine engine = new MSEngine(40, 25, 150, 12L);
+    engine.firstClickSafe = true;
+    engine.reveal(10, 10);
+    engine.flag(0, 0);
+    Path path = temp();
+    BoardFile.save(engine, path);
+    t.checkExpect(Files.size(path), (long) BoardFile.HEADER + 1000);
+    MSEngine loaded = BoardFile.load(path);
+    t.checkExpect(loaded.board.cells, engine.board.cells);
+    t.checkExpect(loaded.columns, 40);
+    t.checkExpect(loaded.mines, 150);
+    t.checkExpect(loaded.seed, 12L);
+    t.checkExpect(loaded.firstClickSafe, true);
+    t.checkExpect(loaded.started, true);
+    t.checkExpect(loaded.board.mineCount, engine.board.mineCount);
+    t.checkExpect(loaded.board.safeHidden, engine.board.safeHidden);
+    t.checkExpect(loaded.board.flagsPlaced, 1);
+    t.checkExpect(loaded.minesLeft(), engine.minesLeft());
+  }
+
+  // to test queries on a mapped board, across segment boundaries
+  void testMapped(Tester t) throws IOException {
+    MSEngine engine = new MSEngine(30, 20, 90, 4L);
+    engine.firstClickSafe = true;
+    engine.reveal(3, 3);
+    engine.flag(19, 29);
+    Path path = temp();
+    BoardFile.save(engine, path);
+    MappedBoard mapped = new MappedBoard(path, 6);
+    t.checkExpect(mapped.segments.length, 10);
+    t.checkExpect(mapped.size(), 600L);
+    boolean same = true;
+    for (int i = 0; i < 600; i++) {
+      same = same && mapped.visible(i / 30, i % 30) == engine.visible(i)
+          && mapped.hasMine(i) == engine.board.hasMine(i);
+    }
+    t.checkExpect(same, true);
+    byte[] copy = new byte[600];
+    mapped.copyTo(copy);
+    t.checkExpect(copy, engine.board.cells);
+  }
+
+  // to test files that can't be read
+  void testBadFiles(Tester t) throws IOException {
+    Path path = temp();
+    Files.write(path, new byte[40]);
+    t.checkConstructorException(new IllegalArgumentException("Not a minesweeper board file."),
+        "MappedBoard", path, 30);
+    BoardFile.write(path, 3, 3, 1, 0L, 0, new byte[9]);
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+    bytes.putInt(4, 9);
+    Files.write(path, bytes.array());
+    t.checkConstructorException(
+        new IllegalArgumentException("Unsupported board file version 9."),
+        "MappedBoard", path, 30);
+    BoardFile.write(path, 3, 3, 1, 0L, 0, new byte[8]);
+    t.checkConstructorException(new IllegalArgumentException("Board file is truncated."),
+        "MappedBoard", path, 30);
+    byte[] cells = new byte[9];
+    cells[4] = FlatBoard.MINE;
+    BoardFile.write(path, 3, 3, 2, 0L, 0, cells);
+    t.checkException(new IllegalArgumentException("Board file has 1 mines but says 2."),
+        new BoardFile(), "load", path);
+  }
+
+  // to test that saving replaces the file whole, leaving nothing beside it
+  void testReplace(Tester t) throws IOException {
+    Path path = temp();
+    BoardFile.save(new MSEngine(30, 20, 90, 4L), path);
+    MSEngine small = new MSEngine(4, 3, 2, 5L);
+    BoardFile.save(small, path);
+    t.checkExpect(Files.size(path), (long) BoardFile.HEADER + 12);
+    t.checkExpect(BoardFile.load(path).board.cells, small.board.cells);
+    t.checkExpect(Files.exists(path.resolveSibling(path.getFileName() + ".next")), false);
+  }
+
+  // to test saving and loading worlds, including a Cell board
+  void testWorlds(Tester t) throws IOException {
+    MSWorld world = new MSWorld(12, 9, 15, false, 3L);
+    world.firstClickSafe = true;
+    world.revealCell(4, 4);
+    world.flagCell(0, 0);
+    Path path = temp();
+    world.save(path);
+    MSWorld loaded = MSWorld.load(path);
+    t.checkExpect(loaded.engine != null, true);
+    t.checkExpect(loaded.started, true);
+    boolean same = true;
+    for (int i = 0; i < 12 * 9; i++) {
+      Cell cell = world.board.get(i / 12).get(i % 12);
+      same = same && loaded.engine.visible(i) == MSWorld.tileFor(cell.hasMine,
+          cell.isRevealed, cell.isFlagged, cell.neighboringMines);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(loaded.gameOver(), world.gameOver());
+    loaded.save(path);
+    t.checkExpect(BoardFile.load(path).board.cells, loaded.engine.board.cells);
+  }
+}
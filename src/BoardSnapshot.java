@@ -0,0 +1,270 @@
+import java.util.Arrays;
+import tester.*;
+
+// to take snapshots of an engine's flat board that share every page of cells they have in
+// common. the board is split into pages of PAGE cells. this listener marks the pages each
+// move touches, and a snapshot copies only the pages marked since the last snapshot or
+// restore, sharing the rest with it. restore copies back only the pages where the live
+// board and the snapshot can differ. pages are never written once a snapshot holds them,
+// so any number of snapshots can share them, and undo or solver branching costs what the
+// moves since the snapshot touched, not the area of the board.
+class BoardPages implements IMoveListener {
+  static final int PAGE_BITS = 12;
+  static final int PAGE = 1 << PAGE_BITS;
+
+  MSEngine engine;
+  BoardSnapshot last; // the latest snapshot taken or restored, or null before the first
+  long[] dirty; // one bit per page touched since last
+  boolean allDirty; // every page may have changed since last
+  int layout; // the engine's mine layout as of the last move seen
+
+  // attaches to engine, so every move from now on marks the pages it touches
+  BoardPages(MSEngine engine) {
+    this.engine = engine;
+    int pages = (engine.board.size() + PAGE - 1) >>> PAGE_BITS;
+    this.dirty = new long[(pages + 63) >>> 6];
+    this.allDirty = true;
+    this.layout = engine.layout;
+    engine.addListener(this);
+  }
+
+  // EFFECT: marks the pages of the flagged cell, or of every opened cell. a first reveal
+  // that moved mines may have moved them anywhere, so it marks every page.
+  public void moveApplied(MSEngine engine, int move, int opened) {
+    if ((move & 1) == MSEngine.FLAG) {
+      this.mark(move >>> 1);
+    } else if (engine.layout != this.layout) {
+      this.layout = engine.layout;
+      this.allDirty = true;
+    } else {
+      for (int k = 0; k < opened; k++) {
+        this.mark(engine.board.queue[k]);
+      }
+    }
+  }
+
+  // EFFECT: marks the page holding the cell at index as changed
+  void mark(int index) {
+    int page = index >>> PAGE_BITS;
+    this.dirty[page >>> 6] |= 1L << page;
+  }
+
+  // is the given page marked as changed since last?
+  boolean isDirty(int page) {
+    return this.allDirty || (this.dirty[page >>> 6] & 1L << page) != 0;
+  }
+
+  // returns a snapshot of the board as it is now: the pages changed since last are copied,
+  // the others are shared with it
+  BoardSnapshot snapshot() {
+    FlatBoard board = this.engine.board;
+    byte[][] pages = this.last == null ? new byte[this.pageCount()][]
+        : this.last.pages.clone();
+    for (int p = 0; p < pages.length; p++) {
+      if (pages[p] == null || this.isDirty(p)) {
+        int from = p << PAGE_BITS;
+        pages[p] = Arrays.copyOfRange(board.cells, from, Math.min(board.size(), from + PAGE));
+      }
+    }
+    this.last = new BoardSnapshot(this.engine, pages);
+    this.clean();
+    return this.last;
+  }
+
+  // EFFECT: puts the board and the engine's progress back as they were in snapshot, which
+  // must come from this board. a page is copied back only if it was changed since last or
+  // snapshot holds a different copy of it than last does.
+  void restore(BoardSnapshot snapshot) {
+    FlatBoard board = this.engine.board;
+    for (int p = 0; p < snapshot.pages.length; p++) {
+      if (this.isDirty(p) || this.last == null || this.last.pages[p] != snapshot.pages[p]) {
+        System.arraycopy(snapshot.pages[p], 0, board.cells, p << PAGE_BITS,
+            snapshot.pages[p].length);
+      }
+    }
+    boolean moved = this.engine.layout != snapshot.layout;
+    board.mineCount = snapshot.mineCount;
+    board.safeHidden = snapshot.safeHidden;
+    board.minesRevealed = snapshot.minesRevealed;
+    board.flagsPlaced = snapshot.flagsPlaced;
+    this.engine.started = snapshot.started;
+    this.engine.movesApplied = snapshot.movesApplied;
+    this.engine.layout = snapshot.layout;
+    this.layout = snapshot.layout;
+    if (moved && this.engine.regions != null) {
+      this.engine.labelRegions(); // the regions were labeled on other mines
+    }
+    this.last = snapshot;
+    this.clean();
+  }
+
+  // returns the number of pages the board is split into
+  int pageCount() {
+    return (this.engine.board.size() + PAGE - 1) >>> PAGE_BITS;
+  }
+
+  // EFFECT: unmarks every page
+  void clean() {
+    Arrays.fill(this.dirty, 0L);
+    this.allDirty = false;
+  }
+}
+
+// to represent a board at one moment: its pages of cells, which may be shared with other
+// snapshots and are never written, and the counters and progress that go with them
+class BoardSnapshot {
+  byte[][] pages;
+  int mineCount;
+  int safeHidden;
+  int minesRevealed;
+  int flagsPlaced;
+  boolean started;
+  int movesApplied;
+  int layout;
+
+  BoardSnapshot(MSEngine engine, byte[][] pages) {
+    this.pages = pages;
+    this.mineCount = engine.board.mineCount;
+    this.safeHidden = engine.board.safeHidden;
+    this.minesRevealed = engine.board.minesRevealed;
+    this.flagsPlaced = engine.board.flagsPlaced;
+    this.started = engine.started;
+    this.movesApplied = engine.movesApplied;
+    this.layout = engine.layout;
+  }
+}
+
+//examples and tests for board snapshots
+class ExamplesBoardSnapshot {
+  ExamplesBoardSnapshot() {}
+
+  // to test that unchanged pages are shared and changed ones copied
+  void testSharing(Tester t) {
+    MSEngine engine = new MSEngine(128, 128, 1000, 3L);
+    BoardPages pages = new BoardPages(engine);
+    t.checkExpect(pages.pageCount(), 4);
+    BoardSnapshot first = pages.snapshot();
+    BoardSnapshot same = pages.snapshot();
+    t.checkExpect(same.pages[0] == first.pages[0] && same.pages[3] == first.pages[3], true);
+    engine.flag(0, 0);
+    BoardSnapshot flagged = pages.snapshot();
+    t.checkExpect(flagged.pages[0] == first.pages[0], false);
+    t.checkExpect(flagged.pages[1] == first.pages[1], true);
+    t.checkExpect(first.pages[0][0] & FlatBoard.FLAGGED, 0);
+    t.checkExpect(flagged.pages[0][0] & FlatBoard.FLAGGED, (int) FlatBoard.FLAGGED);
+    t.checkExpect(flagged.flagsPlaced, 1);
+  }
+
+  // to test undoing moves and jumping between branches
+  void testRestore(Tester t) {
+    MSEngine engine = new MSEngine(100, 90, 900, 8L);
+    engine.firstClickSafe = true;
+    BoardPages pages = new BoardPages(engine);
+    BoardSnapshot fresh = pages.snapshot();
+    byte[] freshCells = engine.board.cells.clone();
+    engine.reveal(45, 50);
+    BoardSnapshot opened = pages.snapshot();
+    byte[] openedCells = engine.board.cells.clone();
+    int safeHidden = engine.board.safeHidden;
+    new MSSolver(engine).solve();
+    byte[] solvedCells = engine.board.cells.clone();
+    BoardSnapshot solved = pages.snapshot();
+    pages.restore(opened);
+    t.checkExpect(engine.board.cells, openedCells);
+    t.checkExpect(engine.board.safeHidden, safeHidden);
+    t.checkExpect(engine.movesApplied, 1);
+    engine.flag(0, 0);
+    engine.reveal(0, 99);
+    pages.restore(solved);
+    t.checkExpect(engine.board.cells, solvedCells);
+    pages.restore(fresh);
+    t.checkExpect(engine.board.cells, freshCells);
+    t.checkExpect(engine.started, false);
+    t.checkExpect(engine.board.safeHidden, 100 * 90 - 900);
+    pages.restore(opened);
+    t.checkExpect(engine.board.cells, openedCells);
+    t.checkExpect(engine.isOver(), false);
+  }
+
+  // returns the cells snapshot holds, as one array
+  byte[] cellsOf(BoardSnapshot snapshot) {
+    byte[] cells = new byte[0];
+    for (byte[] page : snapshot.pages) {
+      int at = cells.length;
+      cells = Arrays.copyOf(cells, at + page.length);
+      System.arraycopy(page, 0, cells, at, page.length);
+    }
+    return cells;
+  }
+
+  // to test that a first reveal which moves mines is seen after an earlier flag
+  void testFlagFirst(Tester t) {
+    MSEngine engine = new MSEngine(128, 128, 3000, 5L);
+    engine.firstClickSafe = true;
+    BoardPages pages = new BoardPages(engine);
+    pages.snapshot();
+    engine.flag(127, 127);
+    pages.snapshot();
+    int index = 0;
+    while (engine.board.neighboringMines(index) == 0 && !engine.board.hasMine(index)) {
+      index++;
+    }
+    engine.revealAt(index);
+    t.checkExpect(engine.layout, 1);
+    t.checkExpect(this.cellsOf(pages.snapshot()), engine.board.cells);
+    engine.flag(127, 127);
+    t.checkExpect(this.cellsOf(pages.snapshot()), engine.board.cells);
+  }
+
+  // to test that restoring between layouts relabels the empty regions
+  void testRegions(Tester t) {
+    MSEngine engine = new MSEngine(60, 40, 400, 2L);
+    engine.firstClickSafe = true;
+    engine.labelRegions();
+    BoardPages pages = new BoardPages(engine);
+    BoardSnapshot fresh = pages.snapshot();
+    engine.reveal(20, 30);
+    BoardSnapshot opened = pages.snapshot();
+    t.checkExpect(opened.layout, 1);
+    pages.restore(fresh);
+    t.checkExpect(engine.layout, 0);
+    pages.restore(opened);
+    t.checkExpect(engine.layout, 1);
+    MSEngine plain = new MSEngine(engine.board.copy(), 400, 2L);
+    plain.started = true;
+    for (int i = 0; i < engine.board.size(); i += 7) {
+      if (!engine.board.hasMine(i)) {
+        engine.revealAt(i);
+        plain.revealAt(i);
+      }
+    }
+    t.checkExpect(engine.board.cells, plain.board.cells);
+    engine.reveal(0, 0);
+    pages.restore(fresh);
+    engine.reveal(5, 5);
+    t.checkExpect(engine.layout, 2);
+    pages.restore(opened);
+    t.checkExpect(engine.board.cells, this.cellsOf(opened));
+  }
+
+  // to test snapshots of worlds
+  void testWorld(Tester t) {
+    MSWorld world = new MSWorld(30, 16, 99, true, 4L);
+    world.firstClickSafe = true;
+    BoardSnapshot before = world.snapshot();
+    world.revealCell(8, 15);
+    world.flagCell(0, 0);
+    BoardSnapshot after = world.snapshot();
+    world.makeScene();
+    world.restore(before);
+    t.checkExpect(world.started, false);
+    t.checkExpect(world.engine.visible(8, 15), MSEngine.HIDDEN);
+    t.checkExpect(world.redrawAll, true);
+    world.restore(after);
+    t.checkExpect(world.started, true);
+    t.checkExpect(world.engine.visible(0, 0), MSEngine.FLAGGED);
+    t.checkExpect(world.engine.visible(8, 15), 0);
+    t.checkException(new IllegalStateException("Only flat worlds have snapshots."),
+        new MSWorld(3, 3, 1), "snapshot");
+  }
+}
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+
+// to represent a single cell.
+class Cell {
+  ArrayList<Cell> neighbors; // 2 <= neighbors.size() <= 4
+  boolean hasMine;
+  boolean isRevealed;
+  boolean isFlagged;
+  int neighboringMines;
+
+  Cell(boolean hasMine) {
+    this.hasMine = hasMine;
+    this.neighbors = new ArrayList<>();
+    this.isRevealed = false;
+    this.isFlagged = false;
+    this.neighboringMines = 0;
+  }
+
+  // EFFECT: adds a neighbor to this cell, given this cell doesn't already have 8 neighbors.
+  void addNeighbor(Cell neighbor) {
+    if (this.neighbors.size() <= 8) {
+      this.neighbors.add(neighbor);
+    } else {
+      throw new UnsupportedOperationException("Cells can have up to 8 neighbors.");
+    }
+  }
+
+  // EFFECT: opens the whole connected region of mine-free cells with no adjacent mines
+  // that this cell belongs to, plus the numbered border around it. iterative over a work
+  // list, so large regions can't overflow the stack. flagged cells are never opened.
+  // returns the number of cells opened (not counting this one).
+  int flood() {
+    ArrayList<Cell> work = new ArrayList<>();
+    work.add(this);
+    int opened = 0;
+    while (!work.isEmpty()) {
+      Cell cell = work.remove(work.size() - 1);
+      if (!cell.hasMine && cell.neighboringMines == 0) {
+        for (Cell neighbor : cell.neighbors) {
+          if (!neighbor.isRevealed && !neighbor.hasMine && !neighbor.isFlagged) {
+            neighbor.isRevealed = true;
+            opened++;
+            work.add(neighbor);
+          }
+        }
+      }
+    }
+    return opened;
+  }
+}
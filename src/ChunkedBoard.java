@@ -0,0 +1,644 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import tester.*;
+
+// to represent a board too large to build up front: columns x rows cells (up to about 2^62
+// of them) split into CHUNK x CHUNK chunks. a chunk's mines come from the world seed and
+// the chunk's position alone, so any chunk can be generated on demand, in any order, and
+// always comes out the same. a chunk is only built when a reveal, flood or flag reaches
+// it; untouched chunks render as hidden without being built. at most maxChunks chunks are
+// kept, least recently used first out: a chunk nobody has touched is simply dropped, and
+// any other is boiled down to a ChunkSummary of its revealed and flagged bits (just its
+// flags once it is fully resolved). cells use FlatBoard's state bits and count nibble.
+class ChunkedBoard {
+  static final int CHUNK_BITS = 5;
+  static final int CHUNK = 1 << CHUNK_BITS; // side of a chunk, in cells
+
+  long columns;
+  long rows;
+  long mines;
+  long seed;
+  double density; // mines per cell; chunk mine counts are rounded from it
+  long chunkColumns;
+  long chunkRows;
+  int maxChunks = 256; // chunks kept built at once
+  long floodLimit = 1 << 16; // cells one reveal may open before the flood is paused
+  LinkedHashMap<Long, Chunk> loaded = new LinkedHashMap<>(16, 0.75f, true);
+  HashMap<Long, ChunkSummary> summaries = new HashMap<>();
+  long built; // chunks built so far, including rebuilds after eviction
+  long evicted;
+
+  // play state, kept here so it survives eviction
+  long safeRevealed;
+  boolean lost;
+  boolean started;
+  long clearRow = -2; // center of the cleared first click, if any
+  long clearCol = -2;
+
+  // the paused flood: cell indices (row * columns + col) whose neighbors are still to open
+  long[] queue = new long[64];
+  int head;
+  int tail;
+
+  // the last chunk looked up, so runs of cells in one chunk skip the map
+  long lastKey = -1;
+  Chunk lastChunk;
+
+  // constructor that checks all values are positive and the # of mines is less than the
+  // total # of cells
+  ChunkedBoard(long columns, long rows, long mines, long seed) {
+    if (columns <= 0 || rows <= 0 || mines <= 0) {
+      throw new IllegalArgumentException("Must have at least 1 row, column, and mine.");
+    }
+    if (columns > Long.MAX_VALUE / 4 / rows || mines >= columns * rows) {
+      throw new IllegalArgumentException(
+          "Number of mines cannot be greater than number of cells.");
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.mines = mines;
+    this.seed = seed;
+    this.density = (double) mines / (columns * rows);
+    this.chunkColumns = (columns + CHUNK - 1) >> CHUNK_BITS;
+    this.chunkRows = (rows + CHUNK - 1) >> CHUNK_BITS;
+  }
+
+  // returns the key of the chunk holding (row, col)
+  long keyOf(long row, long col) {
+    return (row >> CHUNK_BITS) * this.chunkColumns + (col >> CHUNK_BITS);
+  }
+
+  // returns the number of cells in chunks before the one at (chunkRow, chunkCol), in
+  // row-major chunk order
+  long cellsBefore(long chunkRow, long chunkCol) {
+    long height = Math.min(CHUNK, this.rows - (chunkRow << CHUNK_BITS));
+    return (chunkRow << CHUNK_BITS) * this.columns + height * (chunkCol << CHUNK_BITS);
+  }
+
+  // returns how many mines the chunk at (chunkRow, chunkCol) gets. rounding the running
+  // total at both ends makes the counts of all chunks add up to exactly this.mines.
+  int chunkMines(long chunkRow, long chunkCol) {
+    long start = this.cellsBefore(chunkRow, chunkCol);
+    long width = Math.min(CHUNK, this.columns - (chunkCol << CHUNK_BITS));
+    long height = Math.min(CHUNK, this.rows - (chunkRow << CHUNK_BITS));
+    return (int) (Math.round(this.density * (start + width * height))
+        - Math.round(this.density * start));
+  }
+
+  // returns the mines of the chunk at (chunkRow, chunkCol) as a bitset over its cells in
+  // row-major order, chosen by Floyd's sampling from a generator seeded by the world seed
+  // and the chunk's position. a mine on a cell cleared by the first click is moved to a
+  // free cell of the same chunk, picked by the same generator, so the total stays mines
+  // (as FlatBoard.relocateMines, it stays put if the chunk has no free cell).
+  long[] layout(long chunkRow, long chunkCol) {
+    int width = (int) Math.min(CHUNK, this.columns - (chunkCol << CHUNK_BITS));
+    int height = (int) Math.min(CHUNK, this.rows - (chunkRow << CHUNK_BITS));
+    int cells = width * height;
+    long[] bits = new long[(cells + 63) >> 6];
+    Random rand = new Random(ChunkedBoard.mix(this.seed
+        + (chunkRow * this.chunkColumns + chunkCol + 1) * 0x9E3779B97F4A7C15L));
+    for (int j = cells - this.chunkMines(chunkRow, chunkCol); j < cells; j++) {
+      int pick = rand.nextInt(j + 1);
+      int chosen = (bits[pick >> 6] & (1L << pick)) != 0 ? j : pick;
+      bits[chosen >> 6] |= 1L << chosen;
+    }
+    if (this.clearRow >= 0) {
+      for (int k = 0; k < cells; k++) {
+        if ((bits[k >> 6] & (1L << k)) != 0 && this.cleared(chunkRow, chunkCol, width, k)) {
+          int start = rand.nextInt(cells);
+          for (int j = 0; j < cells; j++) {
+            int to = (start + j) % cells;
+            if ((bits[to >> 6] & (1L << to)) == 0
+                && !this.cleared(chunkRow, chunkCol, width, to)) {
+              bits[k >> 6] &= ~(1L << k);
+              bits[to >> 6] |= 1L << to;
+              break;
+            }
+          }
+        }
+      }
+    }
+    return bits;
+  }
+
+  // is cell k of the chunk at (chunkRow, chunkCol), which is width cells wide, on or next
+  // to the cleared first click?
+  boolean cleared(long chunkRow, long chunkCol, int width, int k) {
+    long row = (chunkRow << CHUNK_BITS) + k / width;
+    long col = (chunkCol << CHUNK_BITS) + k % width;
+    return Math.abs(row - this.clearRow) <= 1 && Math.abs(col - this.clearCol) <= 1;
+  }
+
+  // returns z spread with the SplitMix64 finalizer
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // returns the chunk holding (row, col), building it if it isn't loaded
+  Chunk chunkAt(long row, long col) {
+    long key = this.keyOf(row, col);
+    if (key == this.lastKey) {
+      return this.lastChunk;
+    }
+    Chunk chunk = this.loaded.get(key);
+    if (chunk == null) {
+      chunk = this.build(row >> CHUNK_BITS, col >> CHUNK_BITS);
+      this.loaded.put(key, chunk);
+    }
+    this.lastKey = key;
+    this.lastChunk = chunk;
+    return chunk;
+  }
+
+  // builds the chunk at (chunkRow, chunkCol): lays out its mines, counts every cell's
+  // neighbors using the layouts of the chunks around it, then restores its summary
+  Chunk build(long chunkRow, long chunkCol) {
+    this.built++;
+    long key = chunkRow * this.chunkColumns + chunkCol;
+    Chunk chunk = new Chunk(key, chunkRow << CHUNK_BITS, chunkCol << CHUNK_BITS,
+        (int) Math.min(CHUNK, this.columns - (chunkCol << CHUNK_BITS)),
+        (int) Math.min(CHUNK, this.rows - (chunkRow << CHUNK_BITS)));
+    long[][] around = new long[9][];
+    for (int dr = -1; dr <= 1; dr++) {
+      for (int dc = -1; dc <= 1; dc++) {
+        long r = chunkRow + dr;
+        long c = chunkCol + dc;
+        if (r >= 0 && r < this.chunkRows && c >= 0 && c < this.chunkColumns) {
+          around[(dr + 1) * 3 + dc + 1] = this.layout(r, c);
+        }
+      }
+    }
+    for (int k = 0; k < chunk.cells.length; k++) {
+      long row = chunk.row + k / chunk.width;
+      long col = chunk.col + k % chunk.width;
+      if (this.mineIn(around, chunkRow, chunkCol, row, col)) {
+        chunk.cells[k] = FlatBoard.MINE;
+        chunk.mines++;
+      }
+      int count = 0;
+      for (long r = Math.max(0, row - 1); r <= Math.min(this.rows - 1, row + 1); r++) {
+        for (long c = Math.max(0, col - 1); c <= Math.min(this.columns - 1, col + 1); c++) {
+          if ((r != row || c != col) && this.mineIn(around, chunkRow, chunkCol, r, c)) {
+            count++;
+          }
+        }
+      }
+      chunk.cells[k] |= (byte) (count << FlatBoard.COUNT_SHIFT);
+    }
+    ChunkSummary summary = this.summaries.remove(key);
+    if (summary != null) {
+      summary.restore(chunk);
+    }
+    return chunk;
+  }
+
+  // is there a mine at (row, col), which lies in the chunk at (chunkRow, chunkCol) or one
+  // next to it, whose layouts are in around?
+  boolean mineIn(long[][] around, long chunkRow, long chunkCol, long row, long col) {
+    int dr = (int) ((row >> CHUNK_BITS) - chunkRow);
+    int dc = (int) ((col >> CHUNK_BITS) - chunkCol);
+    long width = Math.min(CHUNK, this.columns - (col >> CHUNK_BITS << CHUNK_BITS));
+    int k = (int) ((row & (CHUNK - 1)) * width + (col & (CHUNK - 1)));
+    return (around[(dr + 1) * 3 + dc + 1][k >> 6] & (1L << k)) != 0;
+  }
+
+  // EFFECT: evicts least recently used chunks until at most maxChunks are loaded, keeping
+  // a summary of each one that was touched
+  void trim() {
+    Iterator<Map.Entry<Long, Chunk>> it = this.loaded.entrySet().iterator();
+    while (this.loaded.size() > this.maxChunks && it.hasNext()) {
+      Chunk chunk = it.next().getValue();
+      it.remove();
+      this.evicted++;
+      if (chunk.revealed > 0 || chunk.flags > 0) {
+        this.summaries.put(chunk.key, new ChunkSummary(chunk));
+      }
+    }
+    this.lastKey = -1;
+    this.lastChunk = null;
+  }
+
+  // EFFECT: keeps (row, col) and its neighbors free of mines, so a first reveal there
+  // opens an empty region. does nothing once a reveal has started the game. chunks built
+  // before that (a flag builds its chunk) are dropped, keeping their flags as summaries,
+  // so they are built again from the cleared layout.
+  void keepClear(long row, long col) {
+    if (this.started) {
+      return;
+    }
+    this.clearRow = -2;
+    this.clearCol = -2;
+    for (Chunk chunk : this.loaded.values()) {
+      if (chunk.flags > 0) {
+        this.summaries.put(chunk.key, new ChunkSummary(chunk));
+      }
+    }
+    this.loaded.clear();
+    this.lastKey = -1;
+    this.lastChunk = null;
+    for (ChunkSummary summary : this.summaries.values()) {
+      summary.unresolve();
+    }
+    this.clearRow = row;
+    this.clearCol = col;
+  }
+
+  // EFFECT: reveals the cell at (row, col). if it is safe with no adjacent mines, also
+  // floods its region across chunk borders, pausing once about floodLimit cells have been
+  // opened (continueFlood picks up from there). returns the number of cells opened.
+  long reveal(long row, long col) {
+    if (this.isOver()) {
+      return 0;
+    }
+    this.started = true;
+    Chunk chunk = this.chunkAt(row, col);
+    int k = chunk.local(row, col);
+    long opened = 0;
+    if (!chunk.is(k, FlatBoard.REVEALED) && !chunk.is(k, FlatBoard.FLAGGED)) {
+      opened = this.open(chunk, k, row * this.columns + col);
+      if (!this.lost) {
+        opened += this.continueFlood();
+      }
+    }
+    this.trim();
+    return opened;
+  }
+
+  // EFFECT: opens the cell k of chunk, whose board index is index, queueing it if it has
+  // no adjacent mines. returns 1.
+  int open(Chunk chunk, int k, long index) {
+    chunk.cells[k] |= FlatBoard.REVEALED;
+    chunk.revealed++;
+    if (chunk.is(k, FlatBoard.MINE)) {
+      this.lost = true;
+    } else {
+      this.safeRevealed++;
+      if (chunk.count(k) == 0) {
+        if (this.tail == this.queue.length) {
+          this.compact();
+        }
+        this.queue[this.tail] = index;
+        this.tail++;
+      }
+    }
+    return 1;
+  }
+
+  // EFFECT: makes room at the end of the flood queue, by moving it to the front or growing it
+  void compact() {
+    if (this.head > this.queue.length / 2) {
+      System.arraycopy(this.queue, this.head, this.queue, 0, this.tail - this.head);
+    } else {
+      this.queue = java.util.Arrays.copyOf(this.queue, this.queue.length * 2);
+      System.arraycopy(this.queue, this.head, this.queue, 0, this.tail - this.head);
+    }
+    this.tail -= this.head;
+    this.head = 0;
+  }
+
+  // EFFECT: opens the neighbors of queued cells, breadth first, until the queue is empty
+  // or about floodLimit cells have been opened. returns the number opened.
+  long continueFlood() {
+    long opened = 0;
+    while (this.head < this.tail && opened < this.floodLimit) {
+      long index = this.queue[this.head];
+      this.head++;
+      long row = index / this.columns;
+      long col = index % this.columns;
+      for (long r = Math.max(0, row - 1); r <= Math.min(this.rows - 1, row + 1); r++) {
+        for (long c = Math.max(0, col - 1); c <= Math.min(this.columns - 1, col + 1); c++) {
+          Chunk chunk = this.chunkAt(r, c);
+          int k = chunk.local(r, c);
+          if (!chunk.is(k, FlatBoard.REVEALED) && !chunk.is(k, FlatBoard.FLAGGED)) {
+            opened += this.open(chunk, k, r * this.columns + c);
+          }
+        }
+      }
+    }
+    if (this.head == this.tail) {
+      this.head = 0;
+      this.tail = 0;
+    }
+    return opened;
+  }
+
+  // is a paused flood waiting for continueFlood?
+  boolean floodPending() {
+    return this.head < this.tail;
+  }
+
+  // EFFECT: flags the hidden cell at (row, col), or unflags it, unless the game is over.
+  // returns whether it is now flagged.
+  boolean flag(long row, long col) {
+    Chunk chunk = this.chunkAt(row, col);
+    int k = chunk.local(row, col);
+    if (!this.isOver() && !chunk.is(k, FlatBoard.REVEALED)) {
+      chunk.cells[k] ^= FlatBoard.FLAGGED;
+      chunk.flags += chunk.is(k, FlatBoard.FLAGGED) ? 1 : -1;
+    }
+    boolean flagged = chunk.is(k, FlatBoard.FLAGGED);
+    this.trim();
+    return flagged;
+  }
+
+  // is every safe cell revealed?
+  boolean isWon() {
+    return this.safeRevealed == this.columns * this.rows - this.mines;
+  }
+
+  // has a mine been revealed?
+  boolean isLost() {
+    return this.lost;
+  }
+
+  // is the game over (either won or lost)?
+  boolean isOver() {
+    return this.isWon() || this.isLost();
+  }
+
+  // returns what a player can see of the cell at (row, col), as MSEngine.visible does. a
+  // chunk that was never touched is all hidden and is not built to say so.
+  int visible(long row, long col) {
+    long key = this.keyOf(row, col);
+    if (key != this.lastKey && !this.loaded.containsKey(key)
+        && !this.summaries.containsKey(key)) {
+      return MSEngine.HIDDEN;
+    }
+    Chunk chunk = this.chunkAt(row, col);
+    int k = chunk.local(row, col);
+    if (chunk.is(k, FlatBoard.REVEALED)) {
+      return chunk.is(k, FlatBoard.MINE) ? MSEngine.MINE : chunk.count(k);
+    }
+    return chunk.is(k, FlatBoard.FLAGGED) ? MSEngine.FLAGGED : MSEngine.HIDDEN;
+  }
+
+  // does the cell at (row, col) have a mine? builds its chunk.
+  boolean hasMine(long row, long col) {
+    Chunk chunk = this.chunkAt(row, col);
+    return chunk.is(chunk.local(row, col), FlatBoard.MINE);
+  }
+
+  // returns the stored number of mines around (row, col). builds its chunk.
+  int neighboringMines(long row, long col) {
+    Chunk chunk = this.chunkAt(row, col);
+    return chunk.count(chunk.local(row, col));
+  }
+}
+
+// to represent one built chunk: its cells in row-major order, one byte each in FlatBoard's
+// format, and how many of them are mines, revealed and flagged
+class Chunk {
+  long key;
+  long row; // board row and column of the top left cell
+  long col;
+  int width;
+  int height;
+  byte[] cells;
+  int mines;
+  int revealed;
+  int flags;
+
+  Chunk(long key, long row, long col, int width, int height) {
+    this.key = key;
+    this.row = row;
+    this.col = col;
+    this.width = width;
+    this.height = height;
+    this.cells = new byte[width * height];
+  }
+
+  // returns the position in cells of the board cell (row, col)
+  int local(long row, long col) {
+    return (int) (row - this.row) * this.width + (int) (col - this.col);
+  }
+
+  // is the given state bit set on cell k?
+  boolean is(int k, byte bit) {
+    return (this.cells[k] & bit) != 0;
+  }
+
+  // returns the number of mines around cell k
+  int count(int k) {
+    return (this.cells[k] & 0xFF) >>> FlatBoard.COUNT_SHIFT;
+  }
+
+  // is every safe cell of this chunk revealed?
+  boolean resolved() {
+    return this.revealed == this.cells.length - this.mines;
+  }
+}
+
+// to represent what a player did to an evicted chunk, in one bit per cell: which cells are
+// revealed and which are flagged. a resolved chunk keeps no revealed bits, since they are
+// exactly its safe cells; either bitset is null when empty.
+class ChunkSummary {
+  long[] revealed;
+  long[] flagged;
+  boolean resolved;
+
+  ChunkSummary(Chunk chunk) {
+    this.resolved = chunk.resolved();
+    if (!this.resolved) {
+      this.revealed = ChunkSummary.bits(chunk, FlatBoard.REVEALED);
+    }
+    if (chunk.flags > 0) {
+      this.flagged = ChunkSummary.bits(chunk, FlatBoard.FLAGGED);
+    }
+  }
+
+  // returns the cells of chunk with the given state bit, as a bitset
+  static long[] bits(Chunk chunk, byte bit) {
+    long[] bits = new long[(chunk.cells.length + 63) >> 6];
+    for (int k = 0; k < chunk.cells.length; k++) {
+      if (chunk.is(k, bit)) {
+        bits[k >> 6] |= 1L << k;
+      }
+    }
+    return bits;
+  }
+
+  // EFFECT: keeps this summary's revealed cells as a bitset rather than as "every safe
+  // cell", for a chunk whose mines are about to move. only called before the first
+  // reveal, when the summary holds flags alone.
+  void unresolve() {
+    if (this.resolved) {
+      this.resolved = false;
+      this.revealed = new long[this.flagged.length];
+    }
+  }
+
+  // EFFECT: sets the revealed and flagged bits of the freshly built chunk from this summary
+  void restore(Chunk chunk) {
+    for (int k = 0; k < chunk.cells.length; k++) {
+      boolean open = this.resolved ? !chunk.is(k, FlatBoard.MINE)
+          : (this.revealed[k >> 6] & (1L << k)) != 0;
+      if (open) {
+        chunk.cells[k] |= FlatBoard.REVEALED;
+        chunk.revealed++;
+      }
+      if (this.flagged != null && (this.flagged[k >> 6] & (1L << k)) != 0) {
+        chunk.cells[k] |= FlatBoard.FLAGGED;
+        chunk.flags++;
+      }
+    }
+  }
+}
+
+//examples and tests for chunked boards
+class ExamplesChunkedBoard {
+  ExamplesChunkedBoard() {}
+
+  // returns a flat board with the same mines as chunks, which must be small
+  FlatBoard flatCopy(ChunkedBoard chunks) {
+    FlatBoard flat = new FlatBoard((int) chunks.columns, (int) chunks.rows);
+    for (int i = 0; i < flat.size(); i++) {
+      if (chunks.hasMine(i / flat.columns, i % flat.columns)) {
+        flat.placeMine(i);
+      }
+    }
+    return flat;
+  }
+
+  // to test that chunk mine counts add up and that layouts and counts are seeded and
+  // agree across chunk borders
+  void testLayout(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(100, 70, 1400, 9L);
+    long total = 0;
+    for (long r = 0; r < chunks.chunkRows; r++) {
+      for (long c = 0; c < chunks.chunkColumns; c++) {
+        total += chunks.chunkMines(r, c);
+      }
+    }
+    t.checkExpect(total, 1400L);
+    FlatBoard flat = this.flatCopy(chunks);
+    t.checkExpect(flat.mineCount, 1400);
+    boolean same = true;
+    for (int i = 0; i < flat.size(); i++) {
+      same = same && chunks.neighboringMines(i / 100, i % 100) == flat.neighboringMines(i);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(new ChunkedBoard(100, 70, 1400, 9L).layout(1, 2), chunks.layout(1, 2));
+    t.checkExpect(chunks.loaded.size(), 12);
+  }
+
+  // to test that reveal floods across chunks exactly like a flat board
+  void testReveal(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(90, 80, 300, 4L);
+    FlatBoard flat = this.flatCopy(chunks);
+    int start = 0;
+    while (flat.hasMine(start) || flat.neighboringMines(start) != 0) {
+      start++;
+    }
+    long opened = chunks.reveal(start / 90, start % 90);
+    t.checkExpect(opened, (long) flat.reveal(start));
+    t.checkExpect(chunks.safeRevealed, opened);
+    boolean same = true;
+    for (int i = 0; i < flat.size(); i++) {
+      same = same && (chunks.visible(i / 90, i % 90) == MSEngine.HIDDEN) != flat.isRevealed(i);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(chunks.reveal(start / 90, start % 90), 0L);
+  }
+
+  // to test the flood limit
+  void testFloodLimit(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(200, 200, 1, 4L);
+    chunks.floodLimit = 1000;
+    chunks.keepClear(100, 100);
+    long opened = chunks.reveal(100, 100);
+    t.checkExpect(opened >= 1000 && opened < 1010, true);
+    t.checkExpect(chunks.floodPending(), true);
+    while (chunks.floodPending()) {
+      opened += chunks.continueFlood();
+    }
+    t.checkExpect(opened, 39999L);
+    t.checkExpect(chunks.isWon(), true);
+  }
+
+  // to test clearing the first click after a flag has already built chunks
+  void testFlagBeforeClear(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(64, 64, 1200, 5L);
+    chunks.flag(30, 31);
+    chunks.flag(60, 60);
+    t.checkExpect(chunks.built, 2L);
+    boolean hadMines = false;
+    for (int r = 29; r <= 31; r++) {
+      for (int c = 29; c <= 31; c++) {
+        hadMines = hadMines || chunks.hasMine(r, c);
+      }
+    }
+    t.checkExpect(hadMines, true);
+    chunks.keepClear(30, 30);
+    t.checkExpect(chunks.loaded.size(), 0);
+    t.checkExpect(chunks.hasMine(31, 31), false);
+    t.checkExpect(chunks.neighboringMines(30, 30), 0);
+    t.checkExpect(chunks.reveal(30, 30) > 1, true);
+    t.checkExpect(chunks.isLost(), false);
+    t.checkExpect(chunks.visible(30, 30), 0);
+    t.checkExpect(chunks.visible(30, 31), MSEngine.FLAGGED);
+    t.checkExpect(chunks.visible(60, 60), MSEngine.FLAGGED);
+    // the cleared mines were moved, not removed
+    FlatBoard flat = this.flatCopy(chunks);
+    t.checkExpect(flat.mineCount, 1200);
+    for (int i = 0; i < flat.size(); i++) {
+      if (flat.countAdjacentMines(i) != chunks.neighboringMines(i / 64, i % 64)) {
+        t.checkExpect(i, -1);
+      }
+    }
+  }
+
+  // to test eviction into summaries and rebuilding from them
+  void testEviction(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(96, 96, 900, 2L);
+    chunks.maxChunks = 2;
+    chunks.flag(0, 0);
+    chunks.flag(40, 40);
+    t.checkExpect(chunks.loaded.size(), 2);
+    long row = 70;
+    long col = 0;
+    while (chunks.hasMine(row, col)) {
+      col++;
+    }
+    int before = chunks.neighboringMines(row, col);
+    chunks.reveal(row, col);
+    t.checkExpect(chunks.loaded.size(), 2);
+    t.checkExpect(chunks.summaries.containsKey(chunks.keyOf(0, 0)), true);
+    t.checkExpect(chunks.summaries.get(chunks.keyOf(0, 0)).revealed,
+        new long[CHUNK_WORDS]);
+    chunks.maxChunks = 0;
+    chunks.trim();
+    t.checkExpect(chunks.loaded.size(), 0);
+    t.checkExpect(chunks.visible(0, 0), MSEngine.FLAGGED);
+    t.checkExpect(chunks.visible(40, 40), MSEngine.FLAGGED);
+    t.checkExpect(chunks.visible(row, col), before);
+    t.checkExpect(chunks.visible(90, 90), MSEngine.HIDDEN);
+    t.checkExpect(chunks.loaded.containsKey(chunks.keyOf(90, 90)), false);
+    t.checkExpect(chunks.flag(0, 0), false);
+  }
+
+  static final int CHUNK_WORDS = ChunkedBoard.CHUNK * ChunkedBoard.CHUNK / 64;
+
+  // to test a resolved chunk's summary and a board far too large to build
+  void testLargeBoard(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(1000000000L, 1000000000L, 200000000000000000L, 6L);
+    chunks.keepClear(500000016L, 500000016L);
+    t.checkExpect(chunks.reveal(500000016L, 500000016L) >= 9, true);
+    t.checkExpect(chunks.loaded.size() < 10, true);
+    t.checkExpect(chunks.visible(500000016L, 500000016L), 0);
+    t.checkExpect(chunks.visible(3L, 3L), MSEngine.HIDDEN);
+    t.checkExpect(chunks.isOver(), false);
+    ChunkedBoard small = new ChunkedBoard(32, 32, 1, 3L);
+    small.keepClear(5, 5);
+    small.reveal(5, 5);
+    small.maxChunks = 0;
+    small.trim();
+    t.checkExpect(small.summaries.get(0L).resolved, true);
+    t.checkExpect(small.summaries.get(0L).revealed, null);
+    t.checkExpect(small.visible(5, 5), 0);
+  }
+}
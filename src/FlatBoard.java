@@ -0,0 +1,571 @@
+import java.util.ArrayList;
+import java.util.Random;
+import tester.*;
+
+// to represent a board as one flat primitive array indexed by row * columns + col.
+// each cell is a single byte: state bits in the low nibble and the number of adjacent
+// mines in the high nibble. neighbors come from the topology's offset table instead of
+// being stored, so no Cell objects or neighbor lists are built.
+class FlatBoard {
+  static final byte MINE = 1;
+  static final byte REVEALED = 2;
+  static final byte FLAGGED = 4;
+  static final int STATE_MASK = 0x0F;
+  static final int COUNT_SHIFT = 4;
+
+  int columns;
+  int rows;
+  Topology topology; // which cells are neighbors; the square grid unless given
+  byte[] cells;
+  int[] queue; // reusable flood work queue, grown by doubling
+  int[] around; // scratch for the neighbors of one cell
+  // running counters, kept up to date by placeMine, removeMine, reveal and toggleFlag so
+  // win/loss checks never scan the board. writing state bits with set bypasses them.
+  int mineCount;
+  int safeHidden; // safe cells not yet revealed; the game is won when this reaches 0
+  int minesRevealed; // the game is lost as soon as this is above 0
+  int flagsPlaced;
+
+  FlatBoard(int columns, int rows) {
+    this(new SquareTopology(columns, rows));
+  }
+
+  // a board of topology's size, whose neighbors are given by topology
+  FlatBoard(Topology topology) {
+    this.columns = topology.columns;
+    this.rows = topology.rows;
+    this.topology = topology;
+    this.cells = new byte[this.columns * this.rows];
+    this.queue = new int[64];
+    this.around = new int[topology.maxNeighbors()];
+    this.safeHidden = this.columns * this.rows;
+  }
+
+  // returns the flat index of the cell at the given row and column
+  int index(int row, int col) {
+    return row * this.columns + col;
+  }
+
+  // returns the total number of cells on this board
+  int size() {
+    return this.cells.length;
+  }
+
+  boolean hasMine(int index) {
+    return (this.cells[index] & MINE) != 0;
+  }
+
+  boolean isRevealed(int index) {
+    return (this.cells[index] & REVEALED) != 0;
+  }
+
+  boolean isFlagged(int index) {
+    return (this.cells[index] & FLAGGED) != 0;
+  }
+
+  // EFFECT: sets or clears the given state bit of the cell at index
+  void set(int index, byte bit, boolean on) {
+    if (on) {
+      this.cells[index] |= bit;
+    } else {
+      this.cells[index] &= ~bit;
+    }
+  }
+
+  // returns the stored number of mines around the cell at index
+  int neighboringMines(int index) {
+    return (this.cells[index] & 0xFF) >>> COUNT_SHIFT;
+  }
+
+  // EFFECT: stores count as the number of mines around the cell at index
+  void setNeighboringMines(int index, int count) {
+    this.cells[index] = (byte) ((this.cells[index] & STATE_MASK) | (count << COUNT_SHIFT));
+  }
+
+  // EFFECT: puts a mine on the cell at index and adds one to each neighbor's count
+  void placeMine(int index) {
+    if (!this.hasMine(index)) {
+      this.cells[index] |= MINE;
+      this.adjustCounts(index, 1);
+      this.mineCount++;
+      if (this.isRevealed(index)) {
+        this.minesRevealed++;
+      } else {
+        this.safeHidden--;
+      }
+    }
+  }
+
+  // EFFECT: takes the mine off the cell at index and subtracts one from each neighbor's count
+  void removeMine(int index) {
+    if (this.hasMine(index)) {
+      this.cells[index] &= ~MINE;
+      this.adjustCounts(index, -1);
+      this.mineCount--;
+      if (this.isRevealed(index)) {
+        this.minesRevealed--;
+      } else {
+        this.safeHidden++;
+      }
+    }
+  }
+
+  // EFFECT: moves the mine at from onto to, keeping every stored count correct.
+  // only the two neighborhoods are touched.
+  void moveMine(int from, int to) {
+    if (this.hasMine(from) && !this.hasMine(to)) {
+      this.removeMine(from);
+      this.placeMine(to);
+    }
+  }
+
+  // EFFECT: adds delta to the stored count of every neighbor of index
+  void adjustCounts(int index, int delta) {
+    int n = this.topology.neighbors(index, this.around);
+    for (int k = 0; k < n; k++) {
+      this.cells[this.around[k]] += (byte) (delta << COUNT_SHIFT);
+    }
+  }
+
+  // EFFECT: recomputes the stored count of every cell from the current mines. only needed
+  // after mines were changed with set instead of placeMine/removeMine.
+  void computeCounts() {
+    for (int i = 0; i < this.size(); i++) {
+      this.setNeighboringMines(i, this.countAdjacentMines(i));
+    }
+  }
+
+  // returns a board with the same cells and counters as this one, sharing nothing with it
+  FlatBoard copy() {
+    FlatBoard copy = new FlatBoard(this.topology);
+    System.arraycopy(this.cells, 0, copy.cells, 0, this.cells.length);
+    copy.mineCount = this.mineCount;
+    copy.safeHidden = this.safeHidden;
+    copy.minesRevealed = this.minesRevealed;
+    copy.flagsPlaced = this.flagsPlaced;
+    return copy;
+  }
+
+  // EFFECT: recomputes the running counters from the state bits of every cell, after the
+  // cells were written in bulk (a loaded file, a copied snapshot)
+  void recountState() {
+    this.mineCount = 0;
+    this.safeHidden = 0;
+    this.minesRevealed = 0;
+    this.flagsPlaced = 0;
+    for (int i = 0; i < this.size(); i++) {
+      boolean mine = this.hasMine(i);
+      boolean revealed = this.isRevealed(i);
+      this.mineCount += mine ? 1 : 0;
+      this.safeHidden += !mine && !revealed ? 1 : 0;
+      this.minesRevealed += mine && revealed ? 1 : 0;
+      this.flagsPlaced += this.isFlagged(i) ? 1 : 0;
+    }
+  }
+
+  // EFFECT: clears this board's mines and places the given number of new ones with rand,
+  // never on the cell at (excludeRow, excludeCol) or its neighbors (pass -1, -1 to exclude
+  // nothing). if the board is too dense to spare the whole neighborhood, only that cell is
+  // excluded. uses Floyd's sampling over flat indices with the board itself as the set of
+  // chosen cells, so it takes O(mines) draws and never retries, whatever the density.
+  void placeMines(int mines, Random rand, int excludeRow, int excludeCol) {
+    this.clearMines();
+    int[] excluded = new int[this.around.length + 1];
+    int skip = 0;
+    if (excludeRow >= 0) {
+      excluded[0] = excludeRow * this.columns + excludeCol;
+      skip = 1 + this.topology.neighbors(excluded[0], this.around);
+      System.arraycopy(this.around, 0, excluded, 1, skip - 1);
+      java.util.Arrays.sort(excluded, 0, skip);
+      if (this.size() - skip < mines) {
+        excluded[0] = excludeRow * this.columns + excludeCol;
+        skip = 1;
+      }
+    }
+    int candidates = this.size() - skip;
+    for (int j = candidates - mines; j < candidates; j++) {
+      int pick = this.skipExcluded(rand.nextInt(j + 1), excluded, skip);
+      if (this.hasMine(pick)) {
+        pick = this.skipExcluded(j, excluded, skip);
+      }
+      this.placeMine(pick);
+    }
+  }
+
+  // maps the n-th candidate cell to its flat index, stepping over the first skip entries of
+  // excluded, which are in increasing order
+  int skipExcluded(int n, int[] excluded, int skip) {
+    for (int k = 0; k < skip; k++) {
+      if (n >= excluded[k]) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  // EFFECT: takes every mine off this board
+  void clearMines() {
+    for (int i = 0; this.mineCount > 0 && i < this.size(); i++) {
+      this.removeMine(i);
+    }
+  }
+
+  // EFFECT: moves every mine on or next to (row, col) to a random hidden mine-free cell
+  // outside that neighborhood, so a first click there opens an empty region. only the
+  // moved mines' neighborhoods are recounted; the rest of the board is untouched.
+  void relocateMines(int row, int col, Random rand) {
+    int[] clear = new int[this.around.length + 1];
+    clear[0] = row * this.columns + col;
+    int n = 1 + this.topology.neighbors(clear[0], this.around);
+    System.arraycopy(this.around, 0, clear, 1, n - 1);
+    java.util.Arrays.sort(clear, 0, n); // row-major, as the mines were always moved
+    for (int j = 0; j < n; j++) {
+      if (this.hasMine(clear[j])) {
+        int start = rand.nextInt(this.size());
+        for (int k = 0; k < this.size(); k++) {
+          int to = (start + k) % this.size();
+          boolean inside = false;
+          for (int m = 0; m < n && !inside; m++) {
+            inside = clear[m] == to;
+          }
+          if ((this.cells[to] & (MINE | REVEALED)) == 0 && !inside) {
+            this.moveMine(clear[j], to);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: flags the hidden cell at index, or unflags it if already flagged.
+  // revealed cells can't be flagged.
+  void toggleFlag(int index) {
+    if (!this.isRevealed(index)) {
+      this.cells[index] ^= FLAGGED;
+      this.flagsPlaced += this.isFlagged(index) ? 1 : -1;
+    }
+  }
+
+  // is every safe cell revealed?
+  boolean allSafeRevealed() {
+    return this.safeHidden == 0;
+  }
+
+  // has any mine been revealed?
+  boolean anyMineRevealed() {
+    return this.minesRevealed > 0;
+  }
+
+  // EFFECT: reveals the cell at index. if it is safe with no adjacent mines, also opens the
+  // whole connected region of such cells and the numbered border around it, breadth first
+  // over the reusable queue (no recursion, no allocation per step). flagged cells are never
+  // opened. returns how many cells were opened, 0 if index was flagged or already revealed;
+  // the opened indices are left in queue[0, n) in the order they were opened.
+  int reveal(int index) {
+    if ((this.cells[index] & (REVEALED | FLAGGED)) != 0) {
+      return 0;
+    }
+    this.cells[index] |= REVEALED;
+    this.queue[0] = index;
+    if ((this.cells[index] & MINE) != 0) {
+      this.minesRevealed++;
+      return 1;
+    }
+    int tail = 1;
+    for (int head = 0; head < tail; head++) {
+      int cell = this.queue[head];
+      if ((this.cells[cell] & ~STATE_MASK) != 0) {
+        continue; // numbered border: opened, but the flood stops here
+      }
+      int n = this.topology.neighbors(cell, this.around);
+      for (int k = 0; k < n; k++) {
+        int next = this.around[k];
+        if ((this.cells[next] & (MINE | REVEALED | FLAGGED)) == 0) {
+          this.cells[next] |= REVEALED;
+          if (tail == this.queue.length) {
+            this.queue = java.util.Arrays.copyOf(this.queue, tail * 2);
+          }
+          this.queue[tail] = next;
+          tail++;
+        }
+      }
+    }
+    this.safeHidden -= tail;
+    return tail;
+  }
+
+  // EFFECT: writes the flat indices of the neighbors of index into out (which must hold
+  // topology.maxNeighbors() ints) and returns how many were written.
+  int neighbors(int index, int[] out) {
+    return this.topology.neighbors(index, out);
+  }
+
+  // counts the mines around the cell at index
+  int countAdjacentMines(int index) {
+    int n = this.topology.neighbors(index, this.around);
+    int count = 0;
+    for (int k = 0; k < n; k++) {
+      count += this.cells[this.around[k]] & MINE;
+    }
+    return count;
+  }
+
+  // returns a detached Cell holding a copy of the state of the cell at index.
+  // the returned cell has no neighbors; changes to it do not affect this board.
+  Cell cellAt(int index) {
+    Cell cell = new Cell(this.hasMine(index));
+    cell.isRevealed = this.isRevealed(index);
+    cell.isFlagged = this.isFlagged(index);
+    cell.neighboringMines = this.neighboringMines(index);
+    return cell;
+  }
+
+  // builds the linked Cell grid equivalent to this board, for code that still needs it
+  ArrayList<ArrayList<Cell>> toCells() {
+    ArrayList<ArrayList<Cell>> grid = new ArrayList<>();
+    for (int i = 0; i < this.rows; i++) {
+      ArrayList<Cell> row = new ArrayList<>();
+      for (int j = 0; j < this.columns; j++) {
+        row.add(this.cellAt(this.index(i, j)));
+      }
+      grid.add(row);
+    }
+    int[] around = new int[this.topology.maxNeighbors()];
+    for (int i = 0; i < this.size(); i++) {
+      int n = this.neighbors(i, around);
+      Cell cell = grid.get(i / this.columns).get(i % this.columns);
+      for (int k = 0; k < n; k++) {
+        cell.addNeighbor(grid.get(around[k] / this.columns).get(around[k] % this.columns));
+      }
+    }
+    return grid;
+  }
+}
+
+//examples and tests for the flat board
+class ExamplesFlatBoard {
+  ExamplesFlatBoard() {}
+
+  FlatBoard board;
+
+  // initialize a 4 x 3 board with no mines
+  void init() {
+    board = new FlatBoard(4, 3);
+  }
+
+  // to test index and size
+  void testIndex(Tester t) {
+    init();
+    t.checkExpect(board.size(), 12);
+    t.checkExpect(board.index(0, 0), 0);
+    t.checkExpect(board.index(1, 0), 4);
+    t.checkExpect(board.index(2, 3), 11);
+  }
+
+  // to test setting and reading state bits
+  void testSet(Tester t) {
+    init();
+    t.checkExpect(board.hasMine(5), false);
+    board.set(5, FlatBoard.MINE, true);
+    board.set(5, FlatBoard.FLAGGED, true);
+    t.checkExpect(board.hasMine(5), true);
+    t.checkExpect(board.isFlagged(5), true);
+    t.checkExpect(board.isRevealed(5), false);
+    board.set(5, FlatBoard.FLAGGED, false);
+    t.checkExpect(board.isFlagged(5), false);
+    t.checkExpect(board.hasMine(5), true);
+  }
+
+  // to test neighbor index arithmetic
+  void testNeighbors(Tester t) {
+    init();
+    int[] out = new int[board.topology.maxNeighbors()];
+    t.checkExpect(board.neighbors(0, out), 3); // corner
+    t.checkExpect(out[0], 1);
+    t.checkExpect(out[1], 4);
+    t.checkExpect(out[2], 5);
+    t.checkExpect(board.neighbors(1, out), 5); // side
+    t.checkExpect(board.neighbors(5, out), 8); // middle
+    t.checkExpect(board.neighbors(11, out), 3); // corner
+  }
+
+  // to test countAdjacentMines
+  void testCountAdjacentMines(Tester t) {
+    init();
+    board.set(0, FlatBoard.MINE, true);
+    board.set(2, FlatBoard.MINE, true);
+    t.checkExpect(board.countAdjacentMines(1), 2);
+    t.checkExpect(board.countAdjacentMines(5), 2);
+    t.checkExpect(board.countAdjacentMines(0), 0);
+    t.checkExpect(board.countAdjacentMines(11), 0);
+  }
+
+  // to test that stored counts follow placeMine, removeMine and moveMine
+  void testStoredCounts(Tester t) {
+    init();
+    board.placeMine(0);
+    board.placeMine(2);
+    board.placeMine(2);
+    t.checkExpect(board.neighboringMines(1), 2);
+    t.checkExpect(board.neighboringMines(5), 2);
+    t.checkExpect(board.neighboringMines(0), 0);
+    board.moveMine(2, 11);
+    t.checkExpect(board.hasMine(2), false);
+    t.checkExpect(board.hasMine(11), true);
+    t.checkExpect(board.neighboringMines(1), 1);
+    t.checkExpect(board.neighboringMines(6), 1);
+    t.checkExpect(board.neighboringMines(10), 1);
+    t.checkExpect(board.hasMine(0), true);
+    t.checkExpect(board.neighboringMines(0), 0);
+    board.removeMine(0);
+    for (int i = 0; i < board.size(); i++) {
+      t.checkExpect(board.neighboringMines(i), board.countAdjacentMines(i));
+    }
+  }
+
+  // to test that every possible count survives in the high nibble
+  void testFullCount(Tester t) {
+    board = new FlatBoard(3, 3);
+    for (int i = 0; i < 9; i++) {
+      if (i != 4) {
+        board.placeMine(i);
+      }
+    }
+    t.checkExpect(board.neighboringMines(4), 8);
+    t.checkExpect(board.hasMine(4), false);
+    board.set(4, FlatBoard.REVEALED, true);
+    t.checkExpect(board.neighboringMines(4), 8);
+    board.setNeighboringMines(4, 3);
+    t.checkExpect(board.neighboringMines(4), 3);
+    t.checkExpect(board.isRevealed(4), true);
+    board.computeCounts();
+    t.checkExpect(board.neighboringMines(4), 8);
+  }
+
+  // to test flood reveal over a whole open region and its numbered border
+  void testReveal(Tester t) {
+    board = new FlatBoard(5, 4);
+    board.placeMine(board.index(0, 4));
+    board.set(board.index(3, 0), FlatBoard.FLAGGED, true);
+    t.checkExpect(board.reveal(board.index(3, 3)), 18);
+    t.checkExpect(board.isRevealed(board.index(0, 0)), true);
+    t.checkExpect(board.isRevealed(board.index(0, 3)), true); // border, count 1
+    t.checkExpect(board.isRevealed(board.index(1, 4)), true); // border, count 1
+    t.checkExpect(board.isRevealed(board.index(0, 4)), false); // mine
+    t.checkExpect(board.isRevealed(board.index(3, 0)), false); // flagged
+    t.checkExpect(board.queue[0], board.index(3, 3));
+    t.checkExpect(board.reveal(board.index(3, 3)), 0);
+    t.checkExpect(board.reveal(board.index(3, 0)), 0);
+    t.checkExpect(board.reveal(board.index(0, 4)), 1);
+    t.checkExpect(board.isRevealed(board.index(0, 4)), true);
+    t.checkExpect(board.queue[0], board.index(0, 4)); // a mine is reported like any cell
+  }
+
+  // to test the running counters
+  void testCounters(Tester t) {
+    init();
+    t.checkExpect(board.safeHidden, 12);
+    board.placeMine(0);
+    board.placeMine(3);
+    t.checkExpect(board.mineCount, 2);
+    t.checkExpect(board.safeHidden, 10);
+    board.toggleFlag(0);
+    board.toggleFlag(1);
+    t.checkExpect(board.flagsPlaced, 2);
+    board.toggleFlag(1);
+    t.checkExpect(board.flagsPlaced, 1);
+    t.checkExpect(board.reveal(1), 1);
+    t.checkExpect(board.safeHidden, 9);
+    t.checkExpect(board.allSafeRevealed(), false);
+    t.checkExpect(board.reveal(9), 8);
+    t.checkExpect(board.safeHidden, 1);
+    board.toggleFlag(9);
+    t.checkExpect(board.flagsPlaced, 1);
+    board.moveMine(3, 2);
+    t.checkExpect(board.safeHidden, 1);
+    t.checkExpect(board.reveal(3), 1);
+    t.checkExpect(board.allSafeRevealed(), true);
+    t.checkExpect(board.anyMineRevealed(), false);
+    t.checkExpect(board.reveal(2), 1);
+    t.checkExpect(board.anyMineRevealed(), true);
+    t.checkExpect(board.safeHidden, 0);
+  }
+
+  // to test placement with an excluded neighborhood, including on the densest boards
+  void testPlaceMines(Tester t) {
+    init();
+    board.placeMines(5, new Random(1), -1, -1);
+    t.checkExpect(board.mineCount, 5);
+    board.placeMines(3, new Random(2), 1, 1);
+    t.checkExpect(board.mineCount, 3);
+    for (int i = 0; i < 12; i++) {
+      if (board.hasMine(i)) {
+        t.checkExpect(i == 3 || i == 7 || i == 11, true);
+      }
+      t.checkExpect(board.neighboringMines(i), board.countAdjacentMines(i));
+    }
+    board.placeMines(11, new Random(3), 1, 1);
+    t.checkExpect(board.mineCount, 11);
+    t.checkExpect(board.hasMine(5), false);
+  }
+
+  // to test skipExcluded
+  void testSkipExcluded(Tester t) {
+    init();
+    int[] excluded = {0, 1, 5, 6};
+    t.checkExpect(board.skipExcluded(0, excluded, 4), 2);
+    t.checkExpect(board.skipExcluded(2, excluded, 4), 4);
+    t.checkExpect(board.skipExcluded(3, excluded, 4), 7);
+    t.checkExpect(board.skipExcluded(3, excluded, 0), 3);
+  }
+
+  // to test moving mines out of a first-click neighborhood
+  void testRelocateMines(Tester t) {
+    init();
+    board.placeMine(0);
+    board.placeMine(5);
+    board.placeMine(11);
+    board.relocateMines(0, 0, new Random(4));
+    t.checkExpect(board.mineCount, 3);
+    t.checkExpect(board.hasMine(0) || board.hasMine(1) || board.hasMine(4)
+        || board.hasMine(5), false);
+    t.checkExpect(board.hasMine(11), true);
+    t.checkExpect(board.neighboringMines(0), 0);
+    for (int i = 0; i < 12; i++) {
+      t.checkExpect(board.neighboringMines(i), board.countAdjacentMines(i));
+    }
+  }
+
+  // to test that a numbered cell opens only itself
+  void testRevealNumbered(Tester t) {
+    init();
+    board.placeMine(0);
+    t.checkExpect(board.reveal(5), 1);
+    t.checkExpect(board.isRevealed(6), false);
+  }
+
+  // to test flooding a region far larger than the initial queue, with no stack growth
+  void testRevealLarge(Tester t) {
+    board = new FlatBoard(1000, 1000);
+    board.placeMine(board.index(999, 999));
+    t.checkExpect(board.reveal(0), 999999);
+    t.checkExpect(board.isRevealed(board.index(999, 998)), true);
+  }
+
+  // to test the Cell views of a flat board
+  void testCells(Tester t) {
+    init();
+    board.placeMine(0);
+    board.set(6, FlatBoard.REVEALED, true);
+    Cell cell = board.cellAt(1);
+    t.checkExpect(cell.hasMine, false);
+    t.checkExpect(cell.neighboringMines, 1);
+    ArrayList<ArrayList<Cell>> grid = board.toCells();
+    t.checkExpect(grid.size(), 3);
+    t.checkExpect(grid.get(0).size(), 4);
+    t.checkExpect(grid.get(0).get(0).hasMine, true);
+    t.checkExpect(grid.get(1).get(2).isRevealed, true);
+    t.checkExpect(grid.get(0).get(0).neighbors.size(), 3);
+    t.checkExpect(grid.get(1).get(1).neighbors.size(), 8);
+  }
+}
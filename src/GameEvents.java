@@ -0,0 +1,475 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javalib.worldimages.Posn;
+import tester.*;
+
+// to record one event per move for offline analysis without doing I/O on the game thread.
+// record copies an event's fields into a preallocated ring of parallel primitive arrays and
+// returns; a background writer drains the ring in batches into gzip files in dir, named
+// <prefix>-<n>.jsonl.gz (one JSON object per line) or <prefix>-<n>.bin.gz (a MAGIC and
+// VERSION header, then RECORD bytes per event). numbering continues after the highest n
+// already in dir, and files are only ever created new, so earlier runs are never
+// overwritten. a file is closed and the next one started once more than rollBytes of
+// uncompressed events have gone into it. the writer flushes
+// after flushEvents events or flushMillis milliseconds, whichever comes first, so a crash
+// loses at most that much. when the ring is full, DROP counts the event as dropped and
+// BLOCK waits for the writer to make room. if writing fails, the writer stops and keeps
+// the error for report; the ring then fills up and drops everything after, whatever the
+// policy.
+class GameEvents {
+  static final int DROP = 0;
+  static final int BLOCK = 1;
+  static final int JSON = 0;
+  static final int BINARY = 1;
+  // game outcomes, as checkWinLoss leaves them after a move
+  static final int PLAYING = 0;
+  static final int WON = 1;
+  static final int LOST = 2;
+  static final int MAGIC = 0x4D534556; // "MSEV"
+  static final int VERSION = 1;
+  static final int RECORD = 40;
+  static final int BATCH = 1024; // most events formatted per write
+
+  Path dir;
+  String prefix;
+  int policy;
+  int format;
+  int flushEvents = 4096;
+  long flushMillis = 1000;
+  long rollBytes = 64L << 20;
+
+  // the ring: slot i holds the event recorded (i mod capacity)th. producers fill slots at
+  // head, the writer empties them at tail; each side publishes its counter after the slot.
+  int mask;
+  long[] sessions;
+  long[] times; // wall clock, ms
+  long[] nanos; // how long the move took
+  int[] moves; // MSEngine.REVEAL or FLAG
+  int[] rows;
+  int[] cols;
+  int[] opened;
+  int[] outcomes;
+  volatile long head;
+  volatile long tail;
+
+  AtomicLong nextSession = new AtomicLong(1);
+  AtomicLong recorded = new AtomicLong();
+  AtomicLong dropped = new AtomicLong();
+  AtomicLong written = new AtomicLong();
+  AtomicLong batches = new AtomicLong();
+  AtomicLong files = new AtomicLong();
+  long nextFile = -1; // number of the next file, found from dir when the first one opens
+  volatile IOException failure; // what stopped the writer, or null
+
+  Thread writer;
+  volatile boolean closing;
+  OutputStream out; // the current file, null between files
+  long outBytes; // uncompressed bytes written to the current file
+  long unflushed; // events written since the last flush
+  long lastFlush;
+
+  // a ring of capacity events (rounded up to a power of two) writing JSON lines into dir
+  GameEvents(Path dir, String prefix, int capacity, int policy) {
+    this(dir, prefix, capacity, policy, JSON);
+  }
+
+  GameEvents(Path dir, String prefix, int capacity, int policy, int format) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30.");
+    }
+    this.dir = dir;
+    this.prefix = prefix;
+    this.policy = policy;
+    this.format = format;
+    int size = Integer.highestOneBit(capacity);
+    size = size < capacity ? size << 1 : size;
+    this.mask = size - 1;
+    this.sessions = new long[size];
+    this.times = new long[size];
+    this.nanos = new long[size];
+    this.moves = new int[size];
+    this.rows = new int[size];
+    this.cols = new int[size];
+    this.opened = new int[size];
+    this.outcomes = new int[size];
+  }
+
+  // EFFECT: starts the background writer. returns this.
+  GameEvents start() {
+    this.lastFlush = System.nanoTime();
+    this.writer = new Thread(this::drainLoop, "ms-events");
+    this.writer.setDaemon(true);
+    this.writer.start();
+    return this;
+  }
+
+  // returns a new session id, for a world to tag its events with
+  long newSession() {
+    return this.nextSession.getAndIncrement();
+  }
+
+  // EFFECT: puts one event in the ring, waiting for room under BLOCK. returns whether it
+  // was kept; under DROP, or with no writer running, a full ring drops it.
+  synchronized boolean record(long session, int move, int row, int col, int opened,
+      int outcome, long nanos) {
+    long at = this.head;
+    while (at - this.tail > this.mask) {
+      if (this.policy == DROP || this.closing || this.writer == null
+          || !this.writer.isAlive()) {
+        this.dropped.incrementAndGet();
+        return false;
+      }
+      LockSupport.unpark(this.writer);
+      LockSupport.parkNanos(50_000);
+    }
+    int slot = (int) at & this.mask;
+    this.sessions[slot] = session;
+    this.times[slot] = System.currentTimeMillis();
+    this.nanos[slot] = nanos;
+    this.moves[slot] = move;
+    this.rows[slot] = row;
+    this.cols[slot] = col;
+    this.opened[slot] = opened;
+    this.outcomes[slot] = outcome;
+    this.head = at + 1;
+    this.recorded.incrementAndGet();
+    if (at - this.tail == this.mask >>> 1 && this.writer != null) {
+      LockSupport.unpark(this.writer); // half full: don't leave it to the writer's nap
+    }
+    return true;
+  }
+
+  // returns the number of events in the ring, not yet written
+  int pending() {
+    return (int) (this.head - this.tail);
+  }
+
+  // EFFECT: writes batches until closed, sleeping while the ring is empty, then writes what
+  // is left and closes the current file
+  void drainLoop() {
+    try {
+      while (!this.closing) {
+        if (this.drain() == 0) {
+          LockSupport.parkNanos(Math.max(1, this.flushMillis) * 250_000);
+        }
+        this.maybeFlush();
+      }
+      while (this.drain() > 0) {
+        // write what was recorded before close
+      }
+      this.closeFile();
+    } catch (IOException e) {
+      this.failure = e;
+      try {
+        this.closeFile();
+      } catch (IOException ignored) {
+        // the file is already broken; the first error is the one kept
+      }
+    }
+  }
+
+  // EFFECT: writes up to BATCH events from the ring to the current file, rolling to a new
+  // one first if needed. returns how many were written.
+  int drain() throws IOException {
+    long from = this.tail;
+    int n = (int) Math.min(BATCH, this.head - from);
+    if (n == 0) {
+      return 0;
+    }
+    byte[] bytes = this.format == BINARY ? this.binary(from, n) : this.json(from, n);
+    if (this.out != null && this.outBytes > this.rollBytes) {
+      this.closeFile();
+    }
+    if (this.out == null) {
+      this.openFile();
+    }
+    this.tail = from + n;
+    this.out.write(bytes);
+    this.outBytes += bytes.length;
+    this.unflushed += n;
+    this.written.addAndGet(n);
+    this.batches.incrementAndGet();
+    return n;
+  }
+
+  // returns the JSON lines of the n events from the given position
+  byte[] json(long from, int n) {
+    StringBuilder sb = new StringBuilder(n * 128);
+    for (long at = from; at < from + n; at++) {
+      int slot = (int) at & this.mask;
+      sb.append("{\"session\":").append(this.sessions[slot])
+          .append(",\"time\":").append(this.times[slot])
+          .append(",\"move\":\"").append(this.moves[slot] == MSEngine.FLAG ? "flag" : "reveal")
+          .append("\",\"row\":").append(this.rows[slot])
+          .append(",\"col\":").append(this.cols[slot])
+          .append(",\"opened\":").append(this.opened[slot])
+          .append(",\"outcome\":\"").append(this.outcomes[slot] == WON ? "won"
+              : this.outcomes[slot] == LOST ? "lost" : "playing")
+          .append("\",\"nanos\":").append(this.nanos[slot]).append("}\n");
+    }
+    return sb.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // returns the binary records of the n events from the given position
+  byte[] binary(long from, int n) {
+    ByteBuffer buffer = ByteBuffer.allocate(n * RECORD);
+    for (long at = from; at < from + n; at++) {
+      int slot = (int) at & this.mask;
+      buffer.putLong(this.sessions[slot]).putLong(this.times[slot]).putLong(this.nanos[slot])
+          .putInt(this.rows[slot]).putInt(this.cols[slot]).putInt(this.opened[slot])
+          .putShort((short) this.moves[slot]).putShort((short) this.outcomes[slot]);
+    }
+    return buffer.array();
+  }
+
+  // EFFECT: flushes the current file if flushEvents events were written since the last
+  // flush or flushMillis have passed with any unflushed
+  void maybeFlush() throws IOException {
+    long now = System.nanoTime();
+    if (this.out != null && this.unflushed > 0 && (this.unflushed >= this.flushEvents
+        || now - this.lastFlush >= this.flushMillis * 1_000_000)) {
+      this.out.flush();
+      this.unflushed = 0;
+      this.lastFlush = now;
+    }
+  }
+
+  // EFFECT: starts the next file, writing the binary header if there is one. a number
+  // taken by someone else in the meantime is skipped.
+  void openFile() throws IOException {
+    if (this.nextFile < 0) {
+      this.nextFile = this.firstFreeNumber();
+    }
+    FileChannel channel = null;
+    while (channel == null) {
+      Path path = this.dir.resolve(String.format("%s-%04d%s", this.prefix, this.nextFile,
+          this.suffix()));
+      this.nextFile++;
+      try {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE);
+      } catch (FileAlreadyExistsException e) {
+        // taken since firstFreeNumber looked; try the next number
+      }
+    }
+    this.out = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16, true);
+    this.outBytes = 0;
+    this.files.incrementAndGet();
+    if (this.format == BINARY) {
+      this.out.write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).array());
+    }
+  }
+
+  // returns the end of this writer's file names: .jsonl.gz or .bin.gz
+  String suffix() {
+    return this.format == BINARY ? ".bin.gz" : ".jsonl.gz";
+  }
+
+  // returns one more than the highest number of a file in dir named like this writer's,
+  // or 0 if there are none
+  long firstFreeNumber() throws IOException {
+    String start = this.prefix + "-";
+    long next = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(this.dir)) {
+      for (Path path : files) {
+        String name = path.getFileName().toString();
+        if (name.startsWith(start) && name.endsWith(this.suffix())) {
+          String digits = name.substring(start.length(), name.length() - this.suffix().length());
+          if (!digits.isEmpty() && digits.length() < 18
+              && digits.chars().allMatch(Character::isDigit)) {
+            next = Math.max(next, Long.parseLong(digits) + 1);
+          }
+        }
+      }
+    }
+    return next;
+  }
+
+  // EFFECT: finishes and closes the current file, if there is one
+  void closeFile() throws IOException {
+    if (this.out != null) {
+      this.out.close();
+      this.out = null;
+      this.unflushed = 0;
+    }
+  }
+
+  // EFFECT: stops taking waits, lets the writer write everything recorded so far, and
+  // waits for it to close its file
+  void close() throws InterruptedException {
+    this.closing = true;
+    if (this.writer != null) {
+      LockSupport.unpark(this.writer);
+      this.writer.join();
+    }
+  }
+
+  // returns a summary of the counters, and why the writer stopped if it failed
+  String report() {
+    IOException failure = this.failure;
+    return String.format("%d recorded, %d written, %d dropped, %d batches, %d files",
+        this.recorded.get(), this.written.get(), this.dropped.get(), this.batches.get(),
+        this.files.get()) + (failure == null ? "" : ", writer failed: " + failure);
+  }
+
+  // returns the uncompressed contents of the gzip file at path
+  static byte[] read(Path path) throws IOException {
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+      return in.readAllBytes();
+    }
+  }
+}
+
+//examples and tests for the event writer
+class ExamplesGameEvents {
+  ExamplesGameEvents() {}
+
+  // returns every line of the JSON files in dir, in file order
+  String[] lines(Path dir) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+      for (Path path : files.sorted().toArray(Path[]::new)) {
+        sb.append(new String(GameEvents.read(path), StandardCharsets.US_ASCII));
+      }
+    }
+    return sb.length() == 0 ? new String[0] : sb.toString().split("\n");
+  }
+
+  // to test the ring on its own: capacity is rounded up, and a full ring drops
+  void testRing(Tester t) throws IOException {
+    GameEvents events = new GameEvents(Files.createTempDirectory("events"), "ring", 3,
+        GameEvents.DROP);
+    t.checkExpect(events.mask, 3);
+    for (int k = 0; k < 6; k++) {
+      events.record(1, MSEngine.REVEAL, k, k, 1, GameEvents.PLAYING, 100);
+    }
+    t.checkExpect(events.pending(), 4);
+    t.checkExpect(events.dropped.get(), 2L);
+    t.checkExpect(events.drain(), 4);
+    t.checkExpect(events.pending(), 0);
+    t.checkExpect(events.record(1, MSEngine.FLAG, 9, 9, 0, GameEvents.LOST, 5), true);
+    t.checkExpect(events.rows[0], 9);
+    events.closeFile();
+    String[] lines = this.lines(events.dir);
+    t.checkExpect(lines.length, 4);
+    t.checkExpect(lines[3].startsWith("{\"session\":1,\"time\":"), true);
+    t.checkExpect(lines[3].endsWith(
+        "\"move\":\"reveal\",\"row\":3,\"col\":3,\"opened\":1,\"outcome\":\"playing\","
+        + "\"nanos\":100}"), true);
+    t.checkConstructorException(
+        new IllegalArgumentException("Capacity must be between 1 and 2^30."),
+        "GameEvents", events.dir, "x", 0, GameEvents.DROP);
+  }
+
+  // to test that a blocking writer keeps every event across rolled files
+  void testBlock(Tester t) throws Exception {
+    GameEvents events = new GameEvents(Files.createTempDirectory("events"), "block", 16,
+        GameEvents.BLOCK);
+    events.rollBytes = 20000;
+    events.flushEvents = 100;
+    events.start();
+    for (int k = 0; k < 3000; k++) {
+      events.record(k % 7, k % 2, k / 50, k % 50, k % 11, GameEvents.PLAYING, k);
+    }
+    events.close();
+    t.checkExpect(events.dropped.get(), 0L);
+    t.checkExpect(events.written.get(), 3000L);
+    t.checkExpect(events.files.get() > 1, true);
+    String[] lines = this.lines(events.dir);
+    t.checkExpect(lines.length, 3000);
+    t.checkExpect(lines[2999].endsWith("\"nanos\":2999}"), true);
+    t.checkExpect(events.report(), "3000 recorded, 3000 written, 0 dropped, "
+        + events.batches.get() + " batches, " + events.files.get() + " files");
+  }
+
+  // to test the binary format
+  void testBinary(Tester t) throws Exception {
+    GameEvents events = new GameEvents(Files.createTempDirectory("events"), "bin", 64,
+        GameEvents.DROP, GameEvents.BINARY).start();
+    events.record(42, MSEngine.FLAG, 3, 4, 0, GameEvents.WON, 77);
+    events.record(42, MSEngine.REVEAL, 5, 6, 9, GameEvents.LOST, 88);
+    events.close();
+    ByteBuffer buffer = ByteBuffer.wrap(GameEvents.read(events.dir.resolve("bin-0000.bin.gz")));
+    t.checkExpect(buffer.remaining(), 8 + 2 * GameEvents.RECORD);
+    t.checkExpect(buffer.getInt(), GameEvents.MAGIC);
+    t.checkExpect(buffer.getInt(), GameEvents.VERSION);
+    t.checkExpect(buffer.getLong(), 42L);
+    buffer.getLong();
+    t.checkExpect(buffer.getLong(), 77L);
+    t.checkExpect(buffer.getInt(), 3);
+    t.checkExpect(buffer.getInt(), 4);
+    t.checkExpect(buffer.getInt(), 0);
+    t.checkExpect(buffer.getShort(), (short) MSEngine.FLAG);
+    t.checkExpect(buffer.getShort(), (short) GameEvents.WON);
+  }
+
+  // to test that a new writer numbers its files after those already there
+  void testNumbering(Tester t) throws Exception {
+    Path dir = Files.createTempDirectory("events");
+    GameEvents first = new GameEvents(dir, "run", 64, GameEvents.DROP).start();
+    first.record(1, MSEngine.REVEAL, 0, 0, 1, GameEvents.PLAYING, 1);
+    first.close();
+    GameEvents second = new GameEvents(dir, "run", 64, GameEvents.DROP).start();
+    second.record(2, MSEngine.REVEAL, 0, 0, 1, GameEvents.PLAYING, 2);
+    second.close();
+    t.checkExpect(Files.exists(dir.resolve("run-0000.jsonl.gz")), true);
+    t.checkExpect(Files.exists(dir.resolve("run-0001.jsonl.gz")), true);
+    t.checkExpect(this.lines(dir).length, 2);
+    Files.createFile(dir.resolve("run-0007.jsonl.gz"));
+    Files.createFile(dir.resolve("run-0099.bin.gz"));
+    Files.createFile(dir.resolve("run-x.jsonl.gz"));
+    t.checkExpect(new GameEvents(dir, "run", 64, GameEvents.DROP).firstFreeNumber(), 8L);
+    t.checkExpect(new GameEvents(dir, "other", 64, GameEvents.DROP).firstFreeNumber(), 0L);
+  }
+
+  // to test that a failed writer is reported, and that a full ring then drops even under
+  // BLOCK instead of waiting forever
+  void testFailure(Tester t) throws Exception {
+    GameEvents events = new GameEvents(Files.createTempDirectory("events").resolve("gone"),
+        "fail", 64, GameEvents.BLOCK).start();
+    events.record(1, MSEngine.REVEAL, 0, 0, 1, GameEvents.PLAYING, 1);
+    events.writer.join(5000);
+    t.checkExpect(events.failure != null, true);
+    for (int k = 0; k < 99; k++) {
+      events.record(1, MSEngine.REVEAL, 0, 0, 1, GameEvents.PLAYING, 1);
+    }
+    events.close();
+    t.checkExpect(events.report().startsWith("64 recorded, 0 written, 36 dropped"), true);
+    t.checkExpect(events.report().contains(", writer failed: "), true);
+  }
+
+  // to test that worlds record a move per click with its outcome
+  void testWorld(Tester t) throws Exception {
+    GameEvents events = new GameEvents(Files.createTempDirectory("events"), "world", 64,
+        GameEvents.DROP).start();
+    MSWorld world = new MSWorld(4, 3, 1, true);
+    world.engine.board = new FlatBoard(4, 3);
+    world.engine.board.placeMine(3);
+    world.recordEvents(events);
+    world.onMouseClicked(new Posn(3 * MSWorld.CELL_SIZE + 1, 1), "RightButton");
+    world.onMouseClicked(new Posn(1, 1), "MiddleButton"); // does nothing, so isn't recorded
+    world.onMouseClicked(new Posn(1, 2 * MSWorld.CELL_SIZE + 1), "LeftButton");
+    events.close();
+    String[] lines = this.lines(events.dir);
+    t.checkExpect(lines.length, 2);
+    t.checkExpect(lines[0].contains("\"session\":" + world.session + ","), true);
+    t.checkExpect(lines[0].contains("\"move\":\"flag\",\"row\":0,\"col\":3,\"opened\":0,"
+        + "\"outcome\":\"playing\""), true);
+    t.checkExpect(lines[1].contains("\"move\":\"reveal\",\"row\":2,\"col\":0,\"opened\":11,"
+        + "\"outcome\":\"won\""), true);
+  }
+}
@@ -0,0 +1,677 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import tester.*;
+
+// to represent one benchmarked operation. setup runs before every invocation and is not
+// measured, so operations that use up their state (a reveal, a fresh grid) start clean.
+abstract class Benchmark {
+  String name;
+  double density; // mines per cell on the boards this benchmark builds
+  boolean cellBoard; // builds Cell objects, so it is skipped on boards above maxCellSide
+
+  Benchmark(String name, double density, boolean cellBoard) {
+    this.name = name;
+    this.density = density;
+    this.cellBoard = cellBoard;
+  }
+
+  // EFFECT: prepares the state for the next invocation on a side x side board
+  abstract void setup(int side);
+
+  // runs the measured operation once; the result is summed so it can't be optimized away
+  abstract long run();
+
+  // EFFECT: releases anything setup holds outside the heap (threads, files) once a board
+  // size has been measured; the next setup starts over
+  void teardown() {}
+
+  // returns the number of mines for a side x side board at this benchmark's density
+  int minesFor(int side) {
+    return Math.max(1, Math.min(side * side - 1, (int) (side * side * this.density)));
+  }
+}
+
+// to measure board construction, mine placement, reveal, win/loss checks and rendering at
+// sizes from 9 x 9 up to 4096 x 4096, reporting throughput and bytes allocated per
+// operation (like JMH with its gc profiler, without needing a build module).
+// run with: java MSBenchmark [sides, default 9,64,512,4096] [ms per benchmark, default 1000]
+class MSBenchmark {
+  static final int[] DEFAULT_SIDES = {9, 64, 512, 4096};
+  static final long SEED = 2510L;
+
+  int warmupMillis;
+  int measureMillis;
+  int maxCellSide = 1024; // Cell boards larger than this are skipped to bound memory
+  long sink;
+
+  MSBenchmark(int warmupMillis, int measureMillis) {
+    this.warmupMillis = warmupMillis;
+    this.measureMillis = measureMillis;
+  }
+
+  public static void main(String[] args) {
+    int[] sides = DEFAULT_SIDES;
+    if (args.length > 0) {
+      String[] parts = args[0].split(",");
+      sides = new int[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        sides[i] = Integer.parseInt(parts[i].trim());
+      }
+    }
+    int millis = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    MSBenchmark bench = new MSBenchmark(millis / 2, millis);
+    System.out.println(String.format("%-24s %6s %8s %14s %12s %14s",
+        "benchmark", "side", "density", "ops/s", "ns/op", "bytes/op"));
+    for (int side : sides) {
+      for (Benchmark b : bench.all()) {
+        if (b.cellBoard && side > bench.maxCellSide) {
+          continue;
+        }
+        try {
+          System.out.println(bench.report(b, side, bench.measure(b, side)));
+        } catch (OutOfMemoryError e) {
+          System.out.println(String.format("%-24s %6d  skipped: out of memory", b.name, side));
+        }
+      }
+    }
+  }
+
+  // returns every benchmark in the suite
+  ArrayList<Benchmark> all() {
+    ArrayList<Benchmark> all = new ArrayList<>();
+    all.add(new InitGridBenchmark());
+    all.add(new LinkCellsBenchmark());
+    all.add(new EngineBuildBenchmark());
+    for (double density : new double[] {0.05, 0.2, 0.5, 0.95}) {
+      all.add(new PlaceMinesBenchmark(density));
+    }
+    all.add(new RevealBenchmark("revealCell open", 0.01, false));
+    all.add(new RevealBenchmark("revealCell crowded", 0.3, false));
+    all.add(new RevealBenchmark("revealCell open cells", 0.01, true));
+    all.add(new RegionRevealBenchmark());
+    all.add(new TopologyRevealBenchmark(false));
+    all.add(new TopologyRevealBenchmark(true));
+    all.add(new LabelRegionsBenchmark());
+    all.add(new WinLossBenchmark(false));
+    all.add(new WinLossBenchmark(true));
+    all.add(new BitWinLossBenchmark());
+    all.add(new CountsBenchmark(false));
+    all.add(new CountsBenchmark(true));
+    all.add(new BitBuildBenchmark());
+    all.add(new MakeSceneBenchmark(false));
+    all.add(new MakeSceneBenchmark(true));
+    all.add(new FirstFrameBenchmark(false));
+    all.add(new FirstFrameBenchmark(true));
+    all.add(new ViewportSceneBenchmark(MSWorld.CELL_SIZE));
+    all.add(new ViewportSceneBenchmark(1));
+    all.add(new ReplayBenchmark());
+    all.add(new SnapshotBenchmark());
+    all.add(new DeltaBenchmark(false));
+    all.add(new DeltaBenchmark(true));
+    all.add(new EventRecordBenchmark());
+    return all;
+  }
+
+  // runs b on a side x side board: warms up, then measures. returns {invocations, total
+  // measured nanoseconds, total bytes allocated while measuring}
+  long[] measure(Benchmark b, int side) {
+    try {
+      this.loop(b, side, this.warmupMillis);
+      return this.loop(b, side, this.measureMillis);
+    } finally {
+      b.teardown();
+    }
+  }
+
+  // invokes b repeatedly for about the given time, timing and counting allocation around
+  // run only. always invokes it at least once.
+  long[] loop(Benchmark b, int side, int millis) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long deadline = System.nanoTime() + millis * 1000000L;
+    long ops = 0;
+    long nanos = 0;
+    long bytes = 0;
+    do {
+      b.setup(side);
+      long allocated = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      this.sink += b.run();
+      nanos += System.nanoTime() - start;
+      bytes += threads.getThreadAllocatedBytes(thread) - allocated;
+      ops++;
+    } while (System.nanoTime() < deadline);
+    return new long[] {ops, nanos, bytes};
+  }
+
+  // formats one line of results
+  String report(Benchmark b, int side, long[] result) {
+    double nsPerOp = (double) result[1] / result[0];
+    return String.format("%-24s %6d %8.2f %14.1f %12.1f %14.1f",
+        b.name, side, b.density, 1e9 / nsPerOp, nsPerOp, (double) result[2] / result[0]);
+  }
+}
+
+// measures initGrid (grid, linkCells and placeMines) on a Cell board
+class InitGridBenchmark extends Benchmark {
+  MSWorld world;
+
+  InitGridBenchmark() {
+    super("initGrid", 0.2, true);
+  }
+
+  void setup(int side) {
+    if (this.world == null || this.world.columns != side) {
+      this.world = new MSWorld(side, side, this.minesFor(side), false, MSBenchmark.SEED);
+    }
+  }
+
+  long run() {
+    this.world.initGrid();
+    return this.world.board.size();
+  }
+}
+
+// measures linkCells alone on a fresh, unlinked Cell grid
+class LinkCellsBenchmark extends Benchmark {
+  MSWorld world;
+
+  LinkCellsBenchmark() {
+    super("linkCells", 0.2, true);
+  }
+
+  void setup(int side) {
+    if (this.world == null || this.world.columns != side) {
+      this.world = new MSWorld(side, side, this.minesFor(side), false, MSBenchmark.SEED);
+    }
+    for (ArrayList<Cell> row : this.world.board) {
+      for (Cell cell : row) {
+        cell.neighbors.clear();
+      }
+    }
+  }
+
+  long run() {
+    this.world.linkCells();
+    return this.world.board.get(0).get(0).neighbors.size();
+  }
+}
+
+// measures building a headless engine, flat board and mines included
+class EngineBuildBenchmark extends Benchmark {
+  int side;
+
+  EngineBuildBenchmark() {
+    super("flat board build", 0.2, false);
+  }
+
+  void setup(int side) {
+    this.side = side;
+  }
+
+  long run() {
+    return new MSEngine(this.side, this.side, this.minesFor(this.side), MSBenchmark.SEED)
+        .board.mineCount;
+  }
+}
+
+// measures placeMines on a flat board at one density
+class PlaceMinesBenchmark extends Benchmark {
+  MSEngine engine;
+  Random rand = new Random(MSBenchmark.SEED);
+
+  PlaceMinesBenchmark(double density) {
+    super("placeMines", density, false);
+  }
+
+  void setup(int side) {
+    if (this.engine == null || this.engine.columns != side) {
+      this.engine = new MSEngine(side, side, this.minesFor(side), MSBenchmark.SEED);
+    }
+  }
+
+  long run() {
+    this.engine.placeMines(this.rand, -1, -1);
+    return this.engine.board.mineCount;
+  }
+}
+
+// measures one revealCell on a fresh board, starting on an empty cell when there is one
+// so open boards flood
+class RevealBenchmark extends Benchmark {
+  MSWorld world;
+  int side;
+  int row;
+  int col;
+
+  RevealBenchmark(String name, double density, boolean cellBoard) {
+    super(name, density, cellBoard);
+  }
+
+  // every invocation gets a new world with the same seeded layout, so it reveals the same
+  // cell and floods the same region
+  void setup(int side) {
+    this.world = new MSWorld(side, side, this.minesFor(side), !this.cellBoard,
+        MSBenchmark.SEED);
+    if (this.side != side) {
+      this.side = side;
+      this.row = side / 2;
+      this.col = side / 2;
+      for (int i = 0; i < side * side; i++) {
+        if (!this.world.hasMineAt(i)
+            && this.world.countAdjacentMines(i / side, i % side) == 0) {
+          this.row = i / side;
+          this.col = i % side;
+          break;
+        }
+      }
+    }
+  }
+
+  long run() {
+    return this.world.revealCell(this.row, this.col);
+  }
+}
+
+// measures one revealCell on a fresh open board whose empty regions are labeled, so the
+// reveal copies its region's span instead of flooding
+class RegionRevealBenchmark extends RevealBenchmark {
+  RegionRevealBenchmark() {
+    super("revealCell open regions", 0.01, false);
+  }
+
+  void setup(int side) {
+    super.setup(side);
+    this.world.engine.labelRegions();
+  }
+}
+
+// measures one reveal in the center of a fresh open board whose edges wrap (a torus), or
+// whose cells are hexagons, so the flood goes through those topologies' offset tables
+class TopologyRevealBenchmark extends Benchmark {
+  MSEngine engine;
+  boolean hex;
+
+  TopologyRevealBenchmark(boolean hex) {
+    super(hex ? "reveal open hex" : "reveal open torus", 0.01, false);
+    this.hex = hex;
+  }
+
+  void setup(int side) {
+    Topology topology = this.hex ? new HexTopology(side, side) : new TorusTopology(side, side);
+    this.engine = new MSEngine(topology, this.minesFor(side), MSBenchmark.SEED);
+    this.engine.firstClickSafe = true;
+  }
+
+  long run() {
+    return this.engine.reveal(this.engine.rows / 2, this.engine.columns / 2);
+  }
+}
+
+// measures labeling every empty region of a flat board
+class LabelRegionsBenchmark extends Benchmark {
+  MSEngine engine;
+
+  LabelRegionsBenchmark() {
+    super("label regions", 0.1, false);
+  }
+
+  void setup(int side) {
+    if (this.engine == null || this.engine.columns != side) {
+      this.engine = new MSEngine(side, side, this.minesFor(side), MSBenchmark.SEED);
+    }
+  }
+
+  long run() {
+    return new ZeroRegions(this.engine.board).regions;
+  }
+}
+
+// measures gameWon and gameLost together, on a Cell board or a flat board
+class WinLossBenchmark extends Benchmark {
+  MSWorld world;
+
+  WinLossBenchmark(boolean cellBoard) {
+    super(cellBoard ? "gameWon/gameLost cells" : "gameWon/gameLost", 0.2, cellBoard);
+  }
+
+  void setup(int side) {
+    if (this.world == null || this.world.columns != side) {
+      this.world = new MSWorld(side, side, this.minesFor(side), !this.cellBoard,
+          MSBenchmark.SEED);
+    }
+  }
+
+  long run() {
+    return (this.world.gameWon() ? 1 : 0) + (this.world.gameLost() ? 2 : 0);
+  }
+}
+
+// measures the masked win/loss scan of a bitboard, with nothing revealed so every word
+// of both checks is read
+class BitWinLossBenchmark extends Benchmark {
+  BitBoard bits;
+
+  BitWinLossBenchmark() {
+    super("gameWon/gameLost bits", 0.2, false);
+  }
+
+  void setup(int side) {
+    if (this.bits == null || this.bits.columns != side) {
+      this.bits = BitBoard.of(
+          new MSEngine(side, side, this.minesFor(side), MSBenchmark.SEED).board);
+    }
+  }
+
+  long run() {
+    return (this.bits.allSafeRevealed() ? 1 : 0) + (this.bits.anyMineRevealed() ? 2 : 0);
+  }
+}
+
+// measures recounting every cell's adjacent mines, cell by cell on a flat board or 64
+// cells at a time on a bitboard
+class CountsBenchmark extends Benchmark {
+  MSEngine engine;
+  BitBoard bits;
+  boolean bitboard;
+
+  CountsBenchmark(boolean bitboard) {
+    super(bitboard ? "computeCounts bits" : "computeCounts flat", 0.2, false);
+    this.bitboard = bitboard;
+  }
+
+  void setup(int side) {
+    if (this.engine == null || this.engine.columns != side) {
+      this.engine = new MSEngine(side, side, this.minesFor(side), MSBenchmark.SEED);
+      this.bits = BitBoard.of(this.engine.board);
+    }
+  }
+
+  long run() {
+    if (this.bitboard) {
+      this.bits.computeCounts();
+      return this.bits.counts[0][0];
+    }
+    this.engine.board.computeCounts();
+    return this.engine.board.cells[0];
+  }
+}
+
+// measures laying out a bitboard: placing its mines and computing every count
+class BitBuildBenchmark extends Benchmark {
+  BitBoard bits;
+  Random rand = new Random(MSBenchmark.SEED);
+
+  BitBuildBenchmark() {
+    super("bitboard build", 0.2, false);
+  }
+
+  void setup(int side) {
+    if (this.bits == null || this.bits.columns != side) {
+      this.bits = new BitBoard(side, side);
+    }
+  }
+
+  long run() {
+    this.bits.placeMines(this.minesFor(this.bits.columns), this.rand);
+    this.bits.computeCounts();
+    return this.bits.counts[0][0];
+  }
+}
+
+// measures makeScene after one reveal, on a Cell board or a flat board
+class MakeSceneBenchmark extends Benchmark {
+  MSWorld world;
+  Random rand = new Random(MSBenchmark.SEED);
+
+  MakeSceneBenchmark(boolean cellBoard) {
+    super(cellBoard ? "makeScene cells" : "makeScene", 0.2, cellBoard);
+  }
+
+  void setup(int side) {
+    if (this.world == null || this.world.columns != side || this.world.gameOver()) {
+      this.world = new MSWorld(side, side, this.minesFor(side), !this.cellBoard,
+          MSBenchmark.SEED);
+      this.world.makeScene();
+    }
+    int index = this.rand.nextInt(side * side);
+    if (!this.world.hasMineAt(index)) {
+      this.world.revealCell(index / side, index % side);
+    }
+  }
+
+  long run() {
+    return this.world.makeScene().width;
+  }
+}
+
+// measures building a flat world and drawing its first frame, either eagerly or deferred
+// until the first reveal
+class FirstFrameBenchmark extends Benchmark {
+  boolean deferred;
+  int side;
+
+  FirstFrameBenchmark(boolean deferred) {
+    super(deferred ? "first frame deferred" : "first frame", 0.2, false);
+    this.deferred = deferred;
+  }
+
+  void setup(int side) {
+    this.side = side;
+  }
+
+  long run() {
+    return new MSWorld(new SquareTopology(this.side, this.side), this.minesFor(this.side),
+        true, MSBenchmark.SEED, this.deferred).makeScene().width;
+  }
+}
+
+// measures a frame through a 900 x 600 viewport at the given pixels per cell, on a flat
+// board in play
+class ViewportSceneBenchmark extends Benchmark {
+  MSWorld world;
+  int cellPixels;
+
+  ViewportSceneBenchmark(int cellPixels) {
+    super("makeScene viewport " + cellPixels + "px", 0.2, false);
+    this.cellPixels = cellPixels;
+  }
+
+  void setup(int side) {
+    if (this.world == null || this.world.columns != side) {
+      this.world = new MSWorld(side, side, this.minesFor(side), true, MSBenchmark.SEED);
+      this.world.firstClickSafe = true;
+      this.world.revealCell(side / 2, side / 2);
+      this.world.useViewport(900, 600);
+      while (this.world.view.cellPixels > this.cellPixels) {
+        this.world.view.zoomOut();
+      }
+      this.world.view.moveTo(side / 2, side / 2);
+    }
+  }
+
+  long run() {
+    return this.world.makeScene().width;
+  }
+}
+
+// measures replaying a logged solver game from its first move, board layout included
+class ReplayBenchmark extends Benchmark {
+  MoveLog log;
+  int side;
+
+  ReplayBenchmark() {
+    super("replay", 0.15, false);
+  }
+
+  void setup(int side) {
+    if (this.side != side) {
+      this.side = side;
+      MSEngine engine = new MSEngine(side, side, this.minesFor(side), MSBenchmark.SEED);
+      engine.firstClickSafe = true;
+      this.log = MoveLog.record(engine);
+      new MSSolver(engine).play(side / 2, side / 2);
+    }
+  }
+
+  long run() {
+    return this.log.newEngine().apply(this.log.events, 0, this.log.count);
+  }
+}
+
+// measures a branch and undo on a flat board in play: a snapshot, a flag, and a restore
+class SnapshotBenchmark extends Benchmark {
+  MSWorld world;
+  BoardSnapshot snapshot;
+  Random rand = new Random(MSBenchmark.SEED);
+
+  SnapshotBenchmark() {
+    super("snapshot/restore", 0.2, false);
+  }
+
+  void setup(int side) {
+    if (this.world == null || this.world.columns != side) {
+      this.world = new MSWorld(side, side, this.minesFor(side), true, MSBenchmark.SEED);
+      this.world.firstClickSafe = true;
+      this.world.revealCell(side / 2, side / 2);
+      this.snapshot = this.world.snapshot();
+    }
+  }
+
+  long run() {
+    BoardSnapshot branch = this.world.snapshot();
+    this.world.flagCell(this.rand.nextInt(this.world.rows), this.rand.nextInt(this.world.columns));
+    this.world.restore(this.snapshot);
+    return branch.movesApplied;
+  }
+}
+
+// measures building and encoding the delta of one flood on an open board, or applying its
+// bytes to a mirror
+class DeltaBenchmark extends Benchmark {
+  boolean apply;
+  MSEngine engine;
+  int opened;
+  byte[] bytes;
+  DeltaMirror mirror;
+
+  DeltaBenchmark(boolean apply) {
+    super(apply ? "delta apply" : "delta encode", 0.01, false);
+    this.apply = apply;
+  }
+
+  void setup(int side) {
+    if (this.engine == null || this.engine.columns != side) {
+      this.engine = new MSEngine(side, side, this.minesFor(side), MSBenchmark.SEED);
+      this.engine.firstClickSafe = true;
+      this.opened = this.engine.reveal(side / 2, side / 2);
+      this.bytes = MoveDelta.of(this.engine, MSEngine.encode(MSEngine.REVEAL, 0), this.opened)
+          .encode();
+      this.mirror = new DeltaMirror(side, side);
+    }
+    this.mirror.moves = 0;
+  }
+
+  long run() {
+    if (this.apply) {
+      this.mirror.apply(this.bytes);
+      return this.mirror.moves;
+    }
+    return MoveDelta.of(this.engine, MSEngine.encode(MSEngine.REVEAL, 0), this.opened)
+        .encode().length;
+  }
+}
+
+// measures what recording one move event costs the game thread, with the writer draining
+// to gzip JSON lines in the background
+class EventRecordBenchmark extends Benchmark {
+  Path dir;
+  GameEvents events;
+  int k;
+
+  EventRecordBenchmark() {
+    super("event record", 0.0, false);
+  }
+
+  void setup(int side) {
+    if (this.events == null) {
+      try {
+        this.dir = Files.createTempDirectory("ms-events");
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      this.events = new GameEvents(this.dir, "bench", 1 << 16, GameEvents.DROP).start();
+    }
+  }
+
+  // EFFECT: stops the writer thread and deletes its files and directory
+  void teardown() {
+    if (this.events == null) {
+      return;
+    }
+    try {
+      this.events.close();
+      try (java.util.stream.Stream<Path> files = Files.list(this.dir)) {
+        for (Path path : files.toArray(Path[]::new)) {
+          Files.delete(path);
+        }
+      }
+      Files.delete(this.dir);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.events = null;
+    this.dir = null;
+  }
+
+  long run() {
+    this.k++;
+    return this.events.record(1, MSEngine.REVEAL, this.k & 511, this.k >>> 9 & 511, 1,
+        GameEvents.PLAYING, this.k) ? 1 : 0;
+  }
+}
+
+//examples and tests for the benchmark harness
+class ExamplesMSBenchmark {
+  ExamplesMSBenchmark() {}
+
+  // to test that every benchmark runs and is measured on a small board
+  void testMeasure(Tester t) {
+    MSBenchmark bench = new MSBenchmark(0, 0);
+    for (Benchmark b : bench.all()) {
+      long[] result = bench.measure(b, 9);
+      t.checkExpect(result[0] >= 1, true);
+      t.checkExpect(result[1] >= 0, true);
+      t.checkExpect(bench.report(b, 9, result).startsWith(b.name), true);
+    }
+  }
+
+  // to test that the event benchmark leaves no writer thread or files behind
+  void testTeardown(Tester t) {
+    EventRecordBenchmark b = new EventRecordBenchmark();
+    new MSBenchmark(0, 0).measure(b, 9);
+    t.checkExpect(b.events, null);
+    b.setup(9);
+    Path dir = b.dir;
+    GameEvents events = b.events;
+    b.run();
+    b.teardown();
+    t.checkExpect(events.writer.isAlive(), false);
+    t.checkExpect(Files.exists(dir), false);
+  }
+
+  // to test minesFor stays within the board
+  void testMinesFor(Tester t) {
+    Benchmark b = new EngineBuildBenchmark();
+    t.checkExpect(b.minesFor(10), 20);
+    t.checkExpect(new PlaceMinesBenchmark(0.95).minesFor(2), 3);
+    t.checkExpect(new PlaceMinesBenchmark(0.0).minesFor(9), 1);
+  }
+}
@@ -0,0 +1,304 @@
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+
+// to represent something that wants to hear about every move an engine applies
+interface IMoveListener {
+  // EFFECT: takes in a move engine just applied, encoded with MSEngine.encode, and the
+  // number of cells it opened; their indices are in engine.board.queue[0, opened)
+  void moveApplied(MSEngine engine, int move, int opened);
+}
+
+// to represent a game of minesweeper with no rendering: a flat board and the rules for
+// revealing and flagging it. moves come in as (row, col) calls or as encoded ints for
+// apply, so bots and simulations can play without javalib. MSWorld draws one of these.
+class MSEngine {
+  // move types, stored in the low bit of an encoded move
+  static final int REVEAL = 0;
+  static final int FLAG = 1;
+  // visible states returned by visible, besides the count 0-8 of a revealed safe cell
+  static final int HIDDEN = 9;
+  static final int FLAGGED = 10;
+  static final int MINE = 11;
+  static final IMoveListener[] NO_LISTENERS = new IMoveListener[0];
+
+  int columns;
+  int rows;
+  int mines;
+  long seed;
+  Random rand; // seeded from seed; drives mine placement and relocation
+  FlatBoard board;
+  boolean firstClickSafe; // if set, the first reveal never hits a mine or a number
+  boolean started; // set by the first reveal
+  int layout; // names the mine layout: 0 as placed, a new number each time mines move
+  int layoutsMade; // numbers handed out to layouts so far
+  int movesApplied;
+  IMoveListener[] listeners = NO_LISTENERS; // told about every move, in order
+  ZeroRegions regions; // if set, empty cells open their region without a flood
+
+  // constructor that checks all values are positive and the # of mines is less than the
+  // total # of cells, then lays out a board from seed.
+  MSEngine(int columns, int rows, int mines, long seed) {
+    this(new SquareTopology(columns, rows), mines, seed);
+  }
+
+  // lays out a board from seed whose size and neighbors are given by topology, with the
+  // same checks as above
+  MSEngine(Topology topology, int mines, long seed) {
+    new Utils().overZero(topology.columns, topology.rows, mines,
+        "Must have at least 1 row, column, and mine.");
+    new Utils().notAbove(topology.columns, topology.rows, mines,
+        "Number of mines cannot be greater than number of cells.");
+    this.columns = topology.columns;
+    this.rows = topology.rows;
+    this.mines = mines;
+    this.seed = seed;
+    this.rand = new Random(seed);
+    this.board = new FlatBoard(topology);
+    this.placeMines(this.rand, -1, -1);
+  }
+
+  // plays a board that is already laid out, such as one loaded from a file. the board's
+  // counters must be up to date.
+  MSEngine(FlatBoard board, int mines, long seed) {
+    this.columns = board.columns;
+    this.rows = board.rows;
+    this.mines = mines;
+    this.seed = seed;
+    this.rand = new Random(seed);
+    this.board = board;
+  }
+
+  // returns the move that reveals or flags (by type) the cell at the given flat index
+  static int encode(int type, int index) {
+    return (index << 1) | type;
+  }
+
+  // returns the flat index of the cell at the given row and column
+  int index(int row, int col) {
+    return row * this.columns + col;
+  }
+
+  // EFFECT: clears the board and places this.mines mines with rand, keeping the cell at
+  // (excludeRow, excludeCol) and its neighbors clear (pass -1, -1 to exclude nothing).
+  void placeMines(Random rand, int excludeRow, int excludeCol) {
+    this.board.placeMines(this.mines, rand, excludeRow, excludeCol);
+  }
+
+  // EFFECT: reveals the cell at (row, col), flooding its empty region.
+  // returns the number of cells opened.
+  int reveal(int row, int col) {
+    return this.revealAt(this.index(row, col));
+  }
+
+  // EFFECT: reveals the cell at the given flat index, flooding its empty region. moves
+  // after the game is over, and reveals of revealed or flagged cells, change nothing: they
+  // aren't counted, listeners aren't told and first-click safety is kept for a real first
+  // reveal. returns the number of cells opened; their indices are in board.queue[0, n).
+  int revealAt(int index) {
+    if (this.isOver() || this.board.isRevealed(index) || this.board.isFlagged(index)) {
+      return 0;
+    }
+    if (this.firstClickSafe && !this.started) {
+      int before = this.board.cells[index];
+      this.board.relocateMines(index / this.columns, index % this.columns, this.rand);
+      if (before != this.board.cells[index]) {
+        this.layoutsMade++;
+        this.layout = this.layoutsMade;
+        if (this.regions != null) {
+          this.labelRegions();
+        }
+      }
+    }
+    this.started = true;
+    this.movesApplied++;
+    int opened = this.regions != null ? this.regions.reveal(index) : this.board.reveal(index);
+    for (IMoveListener listener : this.listeners) {
+      listener.moveApplied(this, encode(REVEAL, index), opened);
+    }
+    return opened;
+  }
+
+  // EFFECT: flags or unflags the cell at (row, col). returns whether it is now flagged.
+  boolean flag(int row, int col) {
+    return this.flagAt(this.index(row, col));
+  }
+
+  // EFFECT: flags or unflags the cell at the given flat index, unless the game is over or
+  // the cell is revealed (such a move isn't counted or told to listeners). returns whether
+  // it is now flagged.
+  boolean flagAt(int index) {
+    if (!this.isOver() && !this.board.isRevealed(index)) {
+      this.board.toggleFlag(index);
+      this.movesApplied++;
+      for (IMoveListener listener : this.listeners) {
+        listener.moveApplied(this, encode(FLAG, index), 0);
+      }
+    }
+    return this.board.isFlagged(index);
+  }
+
+  // EFFECT: labels the board's empty regions, so reveals on empty cells open them from a
+  // stored span. the first click relabels them if it has to move mines.
+  void labelRegions() {
+    this.regions = new ZeroRegions(this.board);
+  }
+
+  // EFFECT: adds listener to the ones told about every move from now on
+  void addListener(IMoveListener listener) {
+    this.listeners = Arrays.copyOf(this.listeners, this.listeners.length + 1);
+    this.listeners[this.listeners.length - 1] = listener;
+  }
+
+  // EFFECT: applies one encoded move. returns the number of cells it opened.
+  int applyMove(int move) {
+    if ((move & 1) == FLAG) {
+      this.flagAt(move >>> 1);
+      return 0;
+    }
+    return this.revealAt(move >>> 1);
+  }
+
+  // EFFECT: applies every encoded move in order. returns the total number of cells opened.
+  int apply(int[] moves) {
+    return this.apply(moves, 0, moves.length);
+  }
+
+  // EFFECT: applies the encoded moves in moves[from, to) in order, with no per-move
+  // allocation. returns the total number of cells opened.
+  int apply(int[] moves, int from, int to) {
+    int opened = 0;
+    for (int k = from; k < to; k++) {
+      opened += this.applyMove(moves[k]);
+    }
+    return opened;
+  }
+
+  // has every safe cell been revealed?
+  boolean isWon() {
+    return this.board.allSafeRevealed();
+  }
+
+  // has a mine been revealed?
+  boolean isLost() {
+    return this.board.anyMineRevealed();
+  }
+
+  // is the game over (either won or lost)?
+  boolean isOver() {
+    return this.isWon() || this.isLost();
+  }
+
+  // returns the number of mines minus the number of flags placed
+  int minesLeft() {
+    return this.mines - this.board.flagsPlaced;
+  }
+
+  // returns what a player can see of the cell at (row, col)
+  int visible(int row, int col) {
+    return this.visible(this.index(row, col));
+  }
+
+  // returns what a player can see of the cell at the given flat index: its count 0-8 if
+  // it is a revealed safe cell, otherwise HIDDEN, FLAGGED or MINE
+  int visible(int index) {
+    if (this.board.isRevealed(index)) {
+      return this.board.hasMine(index) ? MINE : this.board.neighboringMines(index);
+    }
+    return this.board.isFlagged(index) ? FLAGGED : HIDDEN;
+  }
+}
+
+//examples and tests for the headless engine
+class ExamplesMSEngine {
+  ExamplesMSEngine() {}
+
+  MSEngine engine;
+
+  // initialize a 4 x 3 engine whose only mine is in the top right corner
+  void init() {
+    engine = new MSEngine(4, 3, 1, 5L);
+    engine.board.clearMines();
+    engine.board.placeMine(engine.index(0, 3));
+  }
+
+  // to test the constructor exceptions and seeded layout
+  void testConstructor(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("Must have at least 1 row, column, and mine."),
+        "MSEngine", 0, 3, 1, 5L);
+    t.checkConstructorException(
+        new IllegalArgumentException("Number of mines cannot be greater than number of cells."),
+        "MSEngine", 3, 3, 9, 5L);
+    MSEngine a = new MSEngine(30, 16, 99, 17L);
+    MSEngine b = new MSEngine(30, 16, 99, 17L);
+    t.checkExpect(a.board.cells, b.board.cells);
+    t.checkExpect(a.board.mineCount, 99);
+    t.checkExpect(a.minesLeft(), 99);
+  }
+
+  // to test reveal, flag and the state queries
+  void testMoves(Tester t) {
+    init();
+    t.checkExpect(engine.visible(1, 1), MSEngine.HIDDEN);
+    t.checkExpect(engine.flag(0, 3), true);
+    t.checkExpect(engine.visible(0, 3), MSEngine.FLAGGED);
+    t.checkExpect(engine.minesLeft(), 0);
+    t.checkExpect(engine.reveal(0, 2), 1);
+    t.checkExpect(engine.visible(0, 2), 1);
+    t.checkExpect(engine.isOver(), false);
+    t.checkExpect(engine.reveal(2, 0), 10);
+    t.checkExpect(engine.visible(2, 0), 0);
+    t.checkExpect(engine.isWon(), true);
+    t.checkExpect(engine.flag(0, 3), true); // ignored, the game is over
+    t.checkExpect(engine.reveal(0, 3), 0);
+    t.checkExpect(engine.movesApplied, 3);
+  }
+
+  // to test batched moves
+  void testApply(Tester t) {
+    init();
+    int[] moves = {
+        MSEngine.encode(MSEngine.FLAG, engine.index(2, 0)),
+        MSEngine.encode(MSEngine.REVEAL, engine.index(2, 0)),
+        MSEngine.encode(MSEngine.REVEAL, engine.index(0, 2)),
+        MSEngine.encode(MSEngine.REVEAL, engine.index(0, 3)),
+        MSEngine.encode(MSEngine.REVEAL, engine.index(1, 1))};
+    t.checkExpect(engine.apply(moves), 2);
+    t.checkExpect(engine.isLost(), true);
+    t.checkExpect(engine.visible(0, 3), MSEngine.MINE);
+    t.checkExpect(engine.visible(1, 1), MSEngine.HIDDEN);
+    t.checkExpect(engine.visible(2, 0), MSEngine.FLAGGED);
+    t.checkExpect(engine.movesApplied, 3); // the reveal of the flagged cell changed nothing
+  }
+
+  // to test that moves which change nothing aren't counted, logged or taken as the first
+  // reveal
+  void testNoOpMoves(Tester t) {
+    engine = new MSEngine(9, 9, 30, 3L);
+    engine.firstClickSafe = true;
+    MoveLog log = MoveLog.record(engine);
+    engine.flag(4, 4);
+    t.checkExpect(engine.reveal(4, 4), 0);
+    t.checkExpect(engine.started, false);
+    t.checkExpect(engine.movesApplied, 1);
+    engine.flag(4, 4);
+    t.checkExpect(engine.reveal(4, 4) > 1, true);
+    t.checkExpect(engine.visible(4, 4), 0);
+    t.checkExpect(engine.reveal(4, 4), 0);
+    t.checkExpect(engine.flag(4, 4), false);
+    t.checkExpect(engine.movesApplied, 3);
+    t.checkExpect(log.count, 3);
+  }
+
+  // to test that the first click is kept clear when firstClickSafe is set
+  void testFirstClickSafe(Tester t) {
+    for (long s = 0; s < 20; s++) {
+      engine = new MSEngine(9, 9, 30, s);
+      engine.firstClickSafe = true;
+      t.checkExpect(engine.reveal(4, 4) > 1, true);
+      t.checkExpect(engine.visible(4, 4), 0);
+      t.checkExpect(engine.board.mineCount, 30);
+    }
+  }
+}
@@ -0,0 +1,396 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import javalib.worldimages.Posn;
+import tester.*;
+
+// to represent the distribution of a non-negative quantity (nanoseconds, cell counts) in
+// log-linear buckets: values below 8 exactly, then 8 buckets per power of two, so any
+// percentile is within 12.5% of the true value. recording is lock-free and allocation-free.
+class Histogram {
+  static final int SUB_BITS = 3;
+  static final int SUBS = 1 << SUB_BITS;
+  static final int BUCKETS = (63 - SUB_BITS + 1) * SUBS; // the top bit of a long is 62
+
+  String name;
+  AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  LongAdder count = new LongAdder();
+  LongAdder sum = new LongAdder();
+  LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  Histogram(String name) {
+    this.name = name;
+  }
+
+  // returns the bucket holding value
+  static int bucket(long value) {
+    if (value < SUBS) {
+      return (int) Math.max(0, value);
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    return (exp - SUB_BITS + 1) * SUBS + (int) ((value >>> (exp - SUB_BITS)) & (SUBS - 1));
+  }
+
+  // returns the smallest value that falls in the given bucket
+  static long lowest(int bucket) {
+    if (bucket < SUBS) {
+      return bucket;
+    }
+    int exp = bucket / SUBS + SUB_BITS - 1;
+    return (long) (SUBS + bucket % SUBS) << (exp - SUB_BITS);
+  }
+
+  // EFFECT: adds one occurrence of value
+  void record(long value) {
+    this.buckets.incrementAndGet(Histogram.bucket(value));
+    this.count.increment();
+    this.sum.add(value);
+    this.max.accumulate(value);
+  }
+
+  // returns a copy of the current distribution
+  HistogramSnapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for (int b = 0; b < BUCKETS; b++) {
+      counts[b] = this.buckets.get(b);
+    }
+    return new HistogramSnapshot(this.name, counts, this.sum.sum(), this.max.get());
+  }
+}
+
+// to represent a histogram's distribution at one moment
+class HistogramSnapshot {
+  String name;
+  long[] counts;
+  long count;
+  long sum;
+  long max;
+
+  HistogramSnapshot(String name, long[] counts, long sum, long max) {
+    this.name = name;
+    this.counts = counts;
+    this.sum = sum;
+    this.max = max;
+    for (long c : counts) {
+      this.count += c;
+    }
+  }
+
+  // returns the value at or below which the given fraction of values fall, as the top of
+  // that value's bucket (never above the largest value recorded)
+  long percentile(double fraction) {
+    long rank = Math.max(1, (long) Math.ceil(fraction * this.count));
+    long seen = 0;
+    for (int b = 0; b < this.counts.length; b++) {
+      seen += this.counts[b];
+      if (seen >= rank) {
+        return b + 1 < Histogram.BUCKETS ? Math.min(this.max, Histogram.lowest(b + 1) - 1)
+            : this.max;
+      }
+    }
+    return 0;
+  }
+
+  // returns the average value, or 0 if there are none
+  double mean() {
+    return this.count == 0 ? 0 : (double) this.sum / this.count;
+  }
+
+  // returns one line: name, count, mean, p50, p90, p99 and max
+  String format() {
+    return String.format("%-16s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", this.name,
+        this.count, this.mean(), this.percentile(0.5), this.percentile(0.9),
+        this.percentile(0.99), this.max);
+  }
+}
+
+// JFR event for one handled mouse click
+@Name("minesweeper.Click")
+@Label("Click")
+@Category("Minesweeper")
+class ClickEvent extends Event {
+  @Label("Button")
+  String button;
+  @Label("Elapsed")
+  @Timespan(Timespan.NANOSECONDS)
+  long elapsed;
+}
+
+// JFR event for one reveal and the flood it opened
+@Name("minesweeper.Flood")
+@Label("Flood")
+@Category("Minesweeper")
+class FloodEvent extends Event {
+  @Label("Cells Opened")
+  int cells;
+  @Label("Elapsed")
+  @Timespan(Timespan.NANOSECONDS)
+  long elapsed;
+}
+
+// JFR event for one win/loss check and what it found
+@Name("minesweeper.WinLoss")
+@Label("Win/Loss Check")
+@Category("Minesweeper")
+class WinLossEvent extends Event {
+  @Label("Result")
+  String result;
+  @Label("Elapsed")
+  @Timespan(Timespan.NANOSECONDS)
+  long elapsed;
+}
+
+// JFR event for one built frame
+@Name("minesweeper.Scene")
+@Label("Scene")
+@Category("Minesweeper")
+class SceneEvent extends Event {
+  @Label("Cells Drawn")
+  int cells;
+  @Label("Elapsed")
+  @Timespan(Timespan.NANOSECONDS)
+  long elapsed;
+}
+
+// to collect timings from an MSWorld: click handling, reveal floods (time and size),
+// win/loss checks and scene builds (time and cells drawn). each probe records into a
+// Histogram and emits a JFR event if a recording wants it. a world with no MSMetrics
+// skips every probe after a single null check. snapshot copies everything for reporting;
+// dumpEvery writes the snapshot to a file on a background thread.
+class MSMetrics {
+  Histogram clicks = new Histogram("click ns");
+  Histogram floods = new Histogram("flood ns");
+  Histogram floodCells = new Histogram("flood cells");
+  Histogram winLoss = new Histogram("win/loss ns");
+  Histogram scenes = new Histogram("scene ns");
+  Histogram cellsDrawn = new Histogram("cells drawn");
+  ScheduledExecutorService dumper;
+  LongAdder dumpFailures = new LongAdder();
+
+  // EFFECT: records a click handled since start (a System.nanoTime reading)
+  void click(long start, String button) {
+    long nanos = System.nanoTime() - start;
+    this.clicks.record(nanos);
+    ClickEvent event = new ClickEvent();
+    if (event.shouldCommit()) {
+      event.button = button;
+      event.elapsed = nanos;
+      event.commit();
+    }
+  }
+
+  // EFFECT: records a reveal that began at start and opened cells cells
+  void flood(long start, int cells) {
+    long nanos = System.nanoTime() - start;
+    this.floods.record(nanos);
+    this.floodCells.record(cells);
+    FloodEvent event = new FloodEvent();
+    if (event.shouldCommit()) {
+      event.cells = cells;
+      event.elapsed = nanos;
+      event.commit();
+    }
+  }
+
+  // EFFECT: records a win/loss check that began at start and found result (WON, LOST or
+  // PLAYING)
+  void winLoss(long start, String result) {
+    long nanos = System.nanoTime() - start;
+    this.winLoss.record(nanos);
+    WinLossEvent event = new WinLossEvent();
+    if (event.shouldCommit()) {
+      event.result = result;
+      event.elapsed = nanos;
+      event.commit();
+    }
+  }
+
+  // EFFECT: records a scene that began at start and drew cells cells
+  void scene(long start, int cells) {
+    long nanos = System.nanoTime() - start;
+    this.scenes.record(nanos);
+    this.cellsDrawn.record(cells);
+    SceneEvent event = new SceneEvent();
+    if (event.shouldCommit()) {
+      event.cells = cells;
+      event.elapsed = nanos;
+      event.commit();
+    }
+  }
+
+  // returns a copy of every histogram, in a fixed order
+  ArrayList<HistogramSnapshot> snapshot() {
+    ArrayList<HistogramSnapshot> all = new ArrayList<>();
+    for (Histogram h : new Histogram[] {this.clicks, this.floods, this.floodCells,
+        this.winLoss, this.scenes, this.cellsDrawn}) {
+      all.add(h.snapshot());
+    }
+    return all;
+  }
+
+  // returns the snapshot as text, one histogram per line
+  String format() {
+    StringBuilder sb = new StringBuilder();
+    for (HistogramSnapshot h : this.snapshot()) {
+      sb.append(h.format()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  // EFFECT: replaces the file at path with the current snapshot, counting failures. the
+  // snapshot is written beside it and moved over it, so readers never see half a dump.
+  void dump(Path path) {
+    try {
+      Path next = path.resolveSibling(path.getFileName() + ".next");
+      Files.writeString(next, this.format());
+      Files.move(next, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      this.dumpFailures.increment();
+    }
+  }
+
+  // EFFECT: dumps to path every millis milliseconds on a daemon thread, until stopDumping
+  void dumpEvery(Path path, long millis) {
+    this.stopDumping();
+    this.dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "ms-metrics-dump");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.dumper.scheduleAtFixedRate(() -> this.dump(path), millis, millis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  // EFFECT: stops periodic dumping, if it was started
+  void stopDumping() {
+    if (this.dumper != null) {
+      this.dumper.shutdownNow();
+      this.dumper = null;
+    }
+  }
+}
+
+//examples and tests for instrumentation
+class ExamplesMSMetrics {
+  ExamplesMSMetrics() {}
+
+  // to test bucket boundaries
+  void testBuckets(Tester t) {
+    t.checkExpect(Histogram.bucket(0), 0);
+    t.checkExpect(Histogram.bucket(7), 7);
+    t.checkExpect(Histogram.bucket(8), 8);
+    t.checkExpect(Histogram.bucket(15), 15);
+    t.checkExpect(Histogram.bucket(16), 16);
+    t.checkExpect(Histogram.bucket(17), 16);
+    t.checkExpect(Histogram.bucket(18), 17);
+    t.checkExpect(Histogram.bucket(Long.MAX_VALUE), Histogram.BUCKETS - 1);
+    boolean consistent = true;
+    for (int b = 0; b < Histogram.BUCKETS; b++) {
+      consistent = consistent && Histogram.bucket(Histogram.lowest(b)) == b
+          && (b == 0 || Histogram.bucket(Histogram.lowest(b) - 1) == b - 1);
+    }
+    t.checkExpect(consistent, true);
+  }
+
+  // to test percentiles
+  void testPercentiles(Tester t) {
+    Histogram h = new Histogram("test");
+    for (int v = 1; v <= 1000; v++) {
+      h.record(v);
+    }
+    HistogramSnapshot s = h.snapshot();
+    t.checkExpect(s.count, 1000L);
+    t.checkInexact(s.mean(), 500.5, 0.0001);
+    t.checkExpect(s.percentile(0.5) >= 500 && s.percentile(0.5) <= 500 * 1.125, true);
+    t.checkExpect(s.percentile(0.99) >= 990 && s.percentile(0.99) <= 1000, true);
+    t.checkExpect(s.percentile(1.0), 1000L);
+    t.checkExpect(new Histogram("empty").snapshot().percentile(0.5), 0L);
+    t.checkExpect(s.format().startsWith("test             count=1000 mean=500.5"), true);
+  }
+
+  // to test that a world feeds its metrics, and works without them
+  void testWorld(Tester t) {
+    MSWorld world = new MSWorld(20, 20, 30, true, 4L);
+    world.firstClickSafe = true;
+    world.makeScene();
+    t.checkExpect(world.metrics, null);
+    world.metrics = new MSMetrics();
+    world.makeScene();
+    world.onMouseClicked(new Posn(10 * MSWorld.CELL_SIZE, 10 * MSWorld.CELL_SIZE),
+        "LeftButton");
+    int opened = world.engine.board.size() - world.engine.board.safeHidden
+        - world.engine.board.mineCount;
+    world.makeScene();
+    world.onMouseClicked(new Posn(1, 1), "RightButton");
+    ArrayList<HistogramSnapshot> s = world.metrics.snapshot();
+    t.checkExpect(s.get(0).count, 2L);
+    t.checkExpect(s.get(1).count, 1L);
+    t.checkExpect(s.get(2).max, (long) opened);
+    t.checkExpect(s.get(3).count, 2L);
+    t.checkExpect(s.get(4).count, 2L);
+    t.checkExpect(s.get(5).max, (long) opened); // only the opened cells were redrawn
+    t.checkExpect(s.get(5).percentile(0.01), 0L); // nothing changed before the click
+  }
+
+  // to test dumping to a file
+  void testDump(Tester t) throws Exception {
+    MSMetrics metrics = new MSMetrics();
+    metrics.scene(System.nanoTime(), 12);
+    Path path = Files.createTempFile("metrics", ".txt");
+    path.toFile().deleteOnExit();
+    metrics.dumpEvery(path, 5);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (Files.size(path) == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    metrics.stopDumping();
+    t.checkExpect(Files.readString(path).contains("cells drawn      count=1"), true);
+    t.checkExpect(metrics.dumpFailures.sum(), 0L);
+  }
+
+  // to test that JFR recordings receive the events
+  void testFlightRecorder(Tester t) throws Exception {
+    Path path = Files.createTempFile("metrics", ".jfr");
+    path.toFile().deleteOnExit();
+    MSMetrics metrics = new MSMetrics();
+    try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+      recording.enable("minesweeper.Flood");
+      recording.enable("minesweeper.WinLoss");
+      recording.start();
+      metrics.flood(System.nanoTime(), 42);
+      metrics.click(System.nanoTime(), "LeftButton");
+      metrics.winLoss(System.nanoTime(), "WON");
+      recording.stop();
+      recording.dump(path);
+    }
+    int floods = 0;
+    int checks = 0;
+    for (RecordedEvent event : RecordingFile.readAllEvents(path)) {
+      if (event.getEventType().getName().equals("minesweeper.Flood")) {
+        floods++;
+        t.checkExpect(event.getInt("cells"), 42);
+      } else if (event.getEventType().getName().equals("minesweeper.WinLoss")) {
+        checks++;
+        t.checkExpect(event.getString("result"), "WON");
+      }
+    }
+    t.checkExpect(floods, 1);
+    t.checkExpect(checks, 1);
+  }
+}
@@ -0,0 +1,633 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import tester.*;
+
+// to compute the exact chance that each hidden cell of a game holds a mine, given only what
+// a player can see. flags are trusted to be mines. hidden cells next to a revealed number
+// (the frontier) are split into components that share no number; each component is
+// enumerated on its own with backtracking, counting its solutions by how many mines they
+// use. components are then weighted against each other and against the hidden cells off
+// the frontier, which take the remaining mines in C(U, n) ways (worked in logs so large
+// boards don't overflow). component results are cached by their cells and numbers, so
+// after a move only the components it changed are enumerated again. a component of more
+// than maxExact cells would take exponential time, so it is estimated from its numbers
+// instead, and exact is cleared for that result.
+class MSProbability {
+  MSEngine engine;
+  FlatBoard board;
+  HashMap<ComponentKey, FrontierComponent> cache = new HashMap<>();
+  double[] logFactorial; // logFactorial[n] = ln(n!)
+  double[] probabilities; // result of the last compute, one per cell
+  int enumerated; // components enumerated so far
+  int reused; // components taken from the cache so far
+  int maxExact = 32; // largest component enumerated exactly
+  boolean exact; // was the last compute exact, with no component estimated?
+  // scratch reused by every compute, so a query allocates nothing per cell
+  int[] componentOf; // component of each frontier cell, or -1
+  boolean[] seen; // numbers taken by the component being collected; cleared after each
+  int[] around; // the neighbors of one number
+  int[] out; // the neighbors of one cell
+  int[] cells; // cells of the component being collected, cellCount of them
+  int cellCount;
+  int[] numbers; // numbers of the component being collected, numberCount of them
+  int numberCount;
+
+  // builds a probability engine for engine's board
+  MSProbability(MSEngine engine) {
+    this.engine = engine;
+    this.board = engine.board;
+    this.probabilities = new double[this.board.size()];
+    this.componentOf = new int[this.board.size()];
+    this.seen = new boolean[this.board.size()];
+    this.around = new int[this.board.topology.maxNeighbors()];
+    this.out = new int[this.board.topology.maxNeighbors()];
+    this.cells = new int[64];
+    this.numbers = new int[64];
+    this.logFactorial = new double[this.board.size() + 1];
+    for (int n = 1; n <= this.board.size(); n++) {
+      this.logFactorial[n] = this.logFactorial[n - 1] + Math.log(n);
+    }
+  }
+
+  // builds a probability engine for the board world is playing
+  MSProbability(MSWorld world) {
+    this(MSProbability.engineOf(world));
+  }
+
+  // returns world's engine, which only flat worlds have
+  static MSEngine engineOf(MSWorld world) {
+    if (world.engine == null) {
+      throw new IllegalArgumentException("Probabilities need a flat world.");
+    }
+    return world.engine;
+  }
+
+  // EFFECT: recomputes this.probabilities for the current board. returns them: 0 for
+  // revealed cells, 1 for flagged cells, and the chance of a mine for every other cell.
+  double[] compute() {
+    int size = this.board.size();
+    int[] componentOf = this.componentOf;
+    Arrays.fill(componentOf, -1);
+    int[] out = this.out;
+    this.exact = true;
+    int minesLeft = this.engine.mines - this.board.flagsPlaced;
+    int interior = 0;
+    ArrayList<FrontierComponent> components = new ArrayList<>();
+    HashMap<ComponentKey, FrontierComponent> used = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      if (this.board.isRevealed(i) || this.board.isFlagged(i) || componentOf[i] >= 0) {
+        continue;
+      }
+      if (!this.onFrontier(i, out)) {
+        interior++;
+        continue;
+      }
+      ComponentKey key = this.collect(i, components.size(), componentOf, out);
+      FrontierComponent component = used.get(key);
+      if (component == null) {
+        component = this.cache.get(key);
+        if (component == null) {
+          component = new FrontierComponent(key, this.board);
+          component.enumerate(this.maxExact);
+          this.enumerated++;
+        } else {
+          this.reused++;
+        }
+        used.put(key, component);
+      }
+      this.exact = this.exact && component.exact;
+      components.add(component);
+    }
+    this.cache = used;
+    this.combine(components, componentOf, interior, minesLeft);
+    return this.probabilities;
+  }
+
+  // is the hidden cell at index next to a revealed safe cell?
+  boolean onFrontier(int index, int[] out) {
+    int n = this.board.neighbors(index, out);
+    for (int k = 0; k < n; k++) {
+      if (this.board.isRevealed(out[k]) && !this.board.hasMine(out[k])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // EFFECT: marks every frontier cell connected to start through shared numbers as part of
+  // component id. returns the key of that component: its cells in increasing order, -1,
+  // then each of its numbers' index and the mines it still needs, in increasing order.
+  ComponentKey collect(int start, int id, int[] componentOf, int[] out) {
+    this.cellCount = 0;
+    this.numberCount = 0;
+    componentOf[start] = id;
+    this.addCell(start);
+    for (int next = 0; next < this.cellCount; next++) {
+      int n = this.board.neighbors(this.cells[next], out);
+      for (int k = 0; k < n; k++) {
+        int number = out[k];
+        if (this.seen[number] || !this.board.isRevealed(number)
+            || this.board.hasMine(number)) {
+          continue;
+        }
+        this.seen[number] = true;
+        this.addNumber(number);
+        int m = this.board.neighbors(number, this.around);
+        for (int j = 0; j < m; j++) {
+          int cell = this.around[j];
+          if (!this.board.isRevealed(cell) && !this.board.isFlagged(cell)
+              && componentOf[cell] < 0) {
+            componentOf[cell] = id;
+            this.addCell(cell);
+          }
+        }
+      }
+    }
+    for (int k = 0; k < this.numberCount; k++) {
+      this.seen[this.numbers[k]] = false;
+    }
+    Arrays.sort(this.cells, 0, this.cellCount);
+    Arrays.sort(this.numbers, 0, this.numberCount);
+    int[] data = new int[this.cellCount + 1 + 2 * this.numberCount];
+    System.arraycopy(this.cells, 0, data, 0, this.cellCount);
+    data[this.cellCount] = -1;
+    for (int k = 0; k < this.numberCount; k++) {
+      int number = this.numbers[k];
+      int flagged = 0;
+      int m = this.board.neighbors(number, out);
+      for (int j = 0; j < m; j++) {
+        if (this.board.isFlagged(out[j])) {
+          flagged++;
+        }
+      }
+      data[this.cellCount + 1 + 2 * k] = number;
+      data[this.cellCount + 2 + 2 * k] = this.board.neighboringMines(number) - flagged;
+    }
+    return new ComponentKey(data);
+  }
+
+  // EFFECT: adds cell to the component being collected, growing cells by doubling
+  void addCell(int cell) {
+    if (this.cellCount == this.cells.length) {
+      this.cells = Arrays.copyOf(this.cells, this.cells.length * 2);
+    }
+    this.cells[this.cellCount] = cell;
+    this.cellCount++;
+  }
+
+  // EFFECT: adds number to the component being collected, growing numbers by doubling
+  void addNumber(int number) {
+    if (this.numberCount == this.numbers.length) {
+      this.numbers = Arrays.copyOf(this.numbers, this.numbers.length * 2);
+    }
+    this.numbers[this.numberCount] = number;
+    this.numberCount++;
+  }
+
+  // EFFECT: fills this.probabilities from the components' solution counts. a whole board
+  // with total t mines on the frontier is weighted by C(interior, minesLeft - t); the
+  // weights are scaled by their largest so they stay in range.
+  void combine(ArrayList<FrontierComponent> components, int[] componentOf, int interior,
+      int minesLeft) {
+    int n = components.size();
+    double[][] prefix = new double[n + 1][];
+    double[][] suffix = new double[n + 1][];
+    prefix[0] = new double[] {1};
+    suffix[n] = new double[] {1};
+    for (int c = 0; c < n; c++) {
+      prefix[c + 1] = MSProbability.convolve(prefix[c], components.get(c).counts);
+      suffix[n - 1 - c] = MSProbability.convolve(components.get(n - 1 - c).counts,
+          suffix[n - c]);
+    }
+    double[] total = prefix[n];
+    double[] weight = this.weights(total.length + 1, interior, minesLeft, total);
+    double z = 0;
+    double interiorMines = 0;
+    for (int t = 0; t < total.length; t++) {
+      z += total[t] * weight[t];
+      interiorMines += total[t] * weight[t] * Math.max(0, minesLeft - t);
+    }
+    int size = this.board.size();
+    for (int i = 0; i < size; i++) {
+      if (this.board.isRevealed(i)) {
+        this.probabilities[i] = 0;
+      } else if (this.board.isFlagged(i)) {
+        this.probabilities[i] = 1;
+      } else if (componentOf[i] < 0) {
+        this.probabilities[i] = z == 0 || interior == 0 ? 0 : interiorMines / z / interior;
+      }
+    }
+    for (int c = 0; c < n; c++) {
+      FrontierComponent component = components.get(c);
+      double[] others = MSProbability.convolve(prefix[c], suffix[c + 1]);
+      double[] mineWeight = new double[component.cells.length];
+      for (int k = 0; k < component.counts.length; k++) {
+        double w = 0;
+        for (int j = 0; j < others.length && k + j < weight.length; j++) {
+          w += others[j] * weight[k + j];
+        }
+        for (int v = 0; v < component.cells.length; v++) {
+          mineWeight[v] += component.mineCounts[k][v] * w;
+        }
+      }
+      for (int v = 0; v < component.cells.length; v++) {
+        this.probabilities[component.cells[v]] = z == 0 ? 0 : mineWeight[v] / z;
+      }
+    }
+  }
+
+  // returns the weight of a board with t mines on the frontier, for t below length:
+  // C(interior, minesLeft - t), divided by the largest such weight over the totals that
+  // have solutions. impossible totals weigh 0.
+  double[] weights(int length, int interior, int minesLeft, double[] total) {
+    double[] logs = new double[length];
+    double max = Double.NEGATIVE_INFINITY;
+    for (int t = 0; t < length; t++) {
+      logs[t] = this.logChoose(interior, minesLeft - t);
+      if (t < total.length && total[t] > 0) {
+        max = Math.max(max, logs[t]);
+      }
+    }
+    double[] weight = new double[length];
+    for (int t = 0; t < length; t++) {
+      weight[t] = logs[t] == Double.NEGATIVE_INFINITY ? 0 : Math.exp(logs[t] - max);
+    }
+    return weight;
+  }
+
+  // returns ln C(n, r), or negative infinity if r is out of range
+  double logChoose(int n, int r) {
+    if (r < 0 || r > n) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return this.logFactorial[n] - this.logFactorial[r] - this.logFactorial[n - r];
+  }
+
+  // returns the convolution of a and b: entry t sums a[i] * b[t - i]
+  static double[] convolve(double[] a, double[] b) {
+    double[] result = new double[a.length + b.length - 1];
+    for (int i = 0; i < a.length; i++) {
+      for (int j = 0; j < b.length; j++) {
+        result[i + j] += a[i] * b[j];
+      }
+    }
+    return result;
+  }
+
+  // returns the hidden, unflagged cell least likely to be a mine after compute, or -1 if
+  // there is none
+  int safest() {
+    int best = -1;
+    for (int i = 0; i < this.probabilities.length; i++) {
+      if (!this.board.isRevealed(i) && !this.board.isFlagged(i)
+          && (best < 0 || this.probabilities[i] < this.probabilities[best])) {
+        best = i;
+      }
+    }
+    return best;
+  }
+}
+
+// to represent the cells and numbers of a frontier component, compared by content so equal
+// components found after different moves share a cache entry
+class ComponentKey {
+  int[] data;
+
+  ComponentKey(int[] data) {
+    this.data = data;
+  }
+
+  public boolean equals(Object other) {
+    return other instanceof ComponentKey && Arrays.equals(this.data, ((ComponentKey) other).data);
+  }
+
+  public int hashCode() {
+    return Arrays.hashCode(this.data);
+  }
+}
+
+// to represent one frontier component and its solutions: counts[k] is the number of ways
+// to place k mines on its cells that satisfy all its numbers, and mineCounts[k][v] how many
+// of those put a mine on cells[v]. both are divided by the largest count, which cancels out
+// when probabilities are normalized.
+class FrontierComponent {
+  int[] cells; // flat indices, increasing
+  int[] numbers; // flat indices of the numbers touching the cells
+  int[] need; // mines each number still needs, after its flags
+  int[][] cellNumbers; // for each cell, the positions in numbers of the numbers around it
+  int[] order; // positions in cells, in the order they are assigned
+  double[] counts;
+  double[][] mineCounts;
+  // search state
+  int[] placed; // mines placed around each number so far
+  int[] open; // unassigned cells around each number
+  boolean[] mine;
+  boolean exact = true; // cleared if the counts were estimated instead of enumerated
+
+  // builds the component described by key on board
+  FrontierComponent(ComponentKey key, FlatBoard board) {
+    int split = 0;
+    while (key.data[split] >= 0) {
+      split++;
+    }
+    this.cells = Arrays.copyOfRange(key.data, 0, split);
+    int count = (key.data.length - split - 1) / 2;
+    this.numbers = new int[count];
+    this.need = new int[count];
+    for (int k = 0; k < count; k++) {
+      this.numbers[k] = key.data[split + 1 + 2 * k];
+      this.need[k] = key.data[split + 2 + 2 * k];
+    }
+    this.open = new int[count];
+    this.placed = new int[count];
+    this.mine = new boolean[this.cells.length];
+    this.cellNumbers = new int[this.cells.length][];
+    int[] found = new int[board.topology.maxNeighbors()];
+    for (int v = 0; v < this.cells.length; v++) {
+      int n = 0;
+      for (int k = 0; k < count; k++) {
+        if (FrontierComponent.adjacent(board, this.cells[v], this.numbers[k])) {
+          found[n] = k;
+          n++;
+          this.open[k]++;
+        }
+      }
+      this.cellNumbers[v] = Arrays.copyOf(found, n);
+    }
+    this.order = this.searchOrder();
+  }
+
+  // are the distinct cells a and b of board next to each other?
+  static boolean adjacent(FlatBoard board, int a, int b) {
+    return board.topology.adjacent(a, b);
+  }
+
+  // returns the cells in breadth-first order through shared numbers, so each number's cells
+  // are assigned close together and the search is pruned early
+  int[] searchOrder() {
+    int[] order = new int[this.cells.length];
+    boolean[] taken = new boolean[this.cells.length];
+    int n = 0;
+    order[n] = 0;
+    taken[0] = true;
+    n++;
+    for (int next = 0; next < n; next++) {
+      for (int k : this.cellNumbers[order[next]]) {
+        for (int v = 0; v < this.cells.length; v++) {
+          if (!taken[v] && Arrays.binarySearch(this.cellNumbers[v], k) >= 0) {
+            taken[v] = true;
+            order[n] = v;
+            n++;
+          }
+        }
+      }
+    }
+    return order;
+  }
+
+  // EFFECT: counts every solution of this component into counts and mineCounts, then
+  // scales both by the largest count. a component of more than maxExact cells is
+  // estimated instead.
+  void enumerate(int maxExact) {
+    this.counts = new double[this.cells.length + 1];
+    this.mineCounts = new double[this.cells.length + 1][this.cells.length];
+    if (this.cells.length > maxExact) {
+      this.estimate();
+      return;
+    }
+    this.search(0, 0);
+    double max = 0;
+    for (double c : this.counts) {
+      max = Math.max(max, c);
+    }
+    if (max > 0) {
+      for (int k = 0; k < this.counts.length; k++) {
+        this.counts[k] /= max;
+        for (int v = 0; v < this.cells.length; v++) {
+          this.mineCounts[k][v] /= max;
+        }
+      }
+    }
+  }
+
+  // EFFECT: stands in for enumerate on a component too large to search: each cell's chance
+  // is the average, over its numbers, of the mines a number still needs per cell of this
+  // component around it, and the component is taken to hold the rounded sum of those
+  // chances in exactly one way. combine then gives each cell its own estimate back.
+  void estimate() {
+    this.exact = false;
+    double total = 0;
+    double[] chance = new double[this.cells.length];
+    for (int v = 0; v < this.cells.length; v++) {
+      for (int k : this.cellNumbers[v]) {
+        chance[v] += (double) this.need[k] / this.open[k];
+      }
+      chance[v] = Math.min(1, Math.max(0, chance[v] / this.cellNumbers[v].length));
+      total += chance[v];
+    }
+    int mines = (int) Math.min(this.cells.length, Math.round(total));
+    this.counts[mines] = 1;
+    this.mineCounts[mines] = chance;
+  }
+
+  // EFFECT: tries both values for the depth-th cell in order and recurses, pruning as soon
+  // as a number has too many mines or too few cells left to reach its count
+  void search(int depth, int mines) {
+    if (depth == this.order.length) {
+      this.counts[mines]++;
+      for (int v = 0; v < this.cells.length; v++) {
+        if (this.mine[v]) {
+          this.mineCounts[mines][v]++;
+        }
+      }
+      return;
+    }
+    int v = this.order[depth];
+    for (int value = 0; value <= 1; value++) {
+      this.mine[v] = value == 1;
+      boolean fits = true;
+      for (int k : this.cellNumbers[v]) {
+        this.open[k]--;
+        this.placed[k] += value;
+        fits = fits && this.placed[k] <= this.need[k]
+            && this.placed[k] + this.open[k] >= this.need[k];
+      }
+      if (fits) {
+        this.search(depth + 1, mines + value);
+      }
+      for (int k : this.cellNumbers[v]) {
+        this.open[k]++;
+        this.placed[k] -= value;
+      }
+    }
+    this.mine[v] = false;
+  }
+}
+
+//examples and tests for the probability engine
+class ExamplesMSProbability {
+  ExamplesMSProbability() {}
+
+  // returns a rows x columns engine with mines exactly at the given indices
+  MSEngine board(int columns, int rows, int... mines) {
+    MSEngine engine = new MSEngine(columns, rows, mines.length, 1L);
+    engine.board.clearMines();
+    for (int i : mines) {
+      engine.board.placeMine(i);
+    }
+    return engine;
+  }
+
+  // to test certain cells and the classic 50/50
+  void testCertain(Tester t) {
+    // . . .    mines at 0 and 2; bottom two rows revealed: 1 2 1 / 0 0 0
+    MSEngine engine = board(3, 3, 0, 2);
+    engine.revealAt(6);
+    double[] p = new MSProbability(engine).compute();
+    t.checkInexact(p[0], 1.0, 0.001);
+    t.checkInexact(p[1], 0.0, 0.001);
+    t.checkInexact(p[2], 1.0, 0.001);
+    t.checkInexact(p[4], 0.0, 0.001);
+    // two hidden cells sharing one mine, nothing else hidden
+    engine = board(2, 2, 0);
+    engine.revealAt(2);
+    engine.revealAt(3);
+    p = new MSProbability(engine).compute();
+    t.checkInexact(p[0], 0.5, 0.001);
+    t.checkInexact(p[1], 0.5, 0.001);
+  }
+
+  // to test weighting the frontier against cells off it
+  void testInterior(Tester t) {
+    // a 1 in the corner of a 3 x 3 board with 2 mines: the 1 has 3 hidden neighbors and
+    // one of them is a mine, so the 5 cells off the frontier share the other mine
+    MSEngine engine = board(3, 3, 4, 8);
+    engine.revealAt(0);
+    MSProbability prob = new MSProbability(engine);
+    double[] p = prob.compute();
+    t.checkInexact(p[1], 1.0 / 3, 0.001);
+    t.checkInexact(p[4], 1.0 / 3, 0.001);
+    t.checkInexact(p[8], 1.0 / 5, 0.001);
+    t.checkInexact(p[2], 1.0 / 5, 0.001);
+    double sum = 0;
+    for (double x : p) {
+      sum += x;
+    }
+    t.checkInexact(sum, 2.0, 0.001);
+    t.checkExpect(prob.safest() == 1 || prob.safest() == 3 || prob.safest() == 4, false);
+  }
+
+  // to test that flags count as mines
+  void testFlags(Tester t) {
+    MSEngine engine = board(3, 3, 0, 2);
+    engine.revealAt(6);
+    engine.flagAt(0);
+    double[] p = new MSProbability(engine).compute();
+    t.checkInexact(p[0], 1.0, 0.001);
+    t.checkInexact(p[2], 1.0, 0.001);
+    t.checkInexact(p[1], 0.0, 0.001);
+  }
+
+  // to test that components unchanged by a move are taken from the cache
+  void testCache(Tester t) {
+    // openings at both ends of a 9 x 3 strip, walled off by columns of mines at 3 and 5;
+    // a flag on one wall leaves the other wall's component alone
+    MSEngine engine = board(9, 3, 3, 12, 21, 5, 14, 23);
+    engine.revealAt(0);
+    engine.revealAt(8);
+    MSProbability prob = new MSProbability(engine);
+    prob.compute();
+    t.checkExpect(prob.enumerated, 2);
+    t.checkExpect(prob.reused, 0);
+    engine.flagAt(3);
+    prob.compute();
+    t.checkExpect(prob.enumerated, 3);
+    t.checkExpect(prob.reused, 1);
+    prob.compute();
+    t.checkExpect(prob.reused, 3);
+    t.checkExpect(prob.cache.size(), 2);
+    // the shared scratch is left clear, so later computes find the same components
+    t.checkExpect(prob.seen, new boolean[27]);
+  }
+
+  // to test that components above maxExact are estimated and the result marked inexact
+  void testEstimate(Tester t) {
+    MSEngine engine = board(3, 3, 0, 2);
+    engine.revealAt(6);
+    MSProbability prob = new MSProbability(engine);
+    prob.compute();
+    t.checkExpect(prob.exact, true);
+    prob = new MSProbability(engine);
+    prob.maxExact = 2;
+    double[] p = prob.compute();
+    t.checkExpect(prob.exact, false);
+    for (double x : p) {
+      t.checkExpect(x >= 0 && x <= 1, true);
+    }
+    t.checkInexact(p[6], 0.0, 0.001);
+    // cells 0 and 2 sit by a 1 (1 of 2) and the 2 (2 of 3); cell 1 also by the other 1
+    t.checkInexact(p[0], (0.5 + 2.0 / 3) / 2, 0.001);
+    t.checkInexact(p[1], (0.5 + 2.0 / 3 + 0.5) / 3, 0.001);
+    // the classic 50/50 comes out the same either way
+    engine = board(2, 2, 0);
+    engine.revealAt(2);
+    engine.revealAt(3);
+    prob = new MSProbability(engine);
+    prob.maxExact = 1;
+    p = prob.compute();
+    t.checkExpect(prob.exact, false);
+    t.checkInexact(p[0], 0.5, 0.001);
+    t.checkInexact(p[1], 0.5, 0.001);
+  }
+
+  // to test against brute force on random positions
+  void testBruteForce(Tester t) {
+    for (long s = 0; s < 30; s++) {
+      MSEngine engine = new MSEngine(5, 4, 5, s);
+      engine.firstClickSafe = true;
+      engine.reveal(2, 2);
+      double[] p = new MSProbability(engine).compute();
+      double[] expected = this.bruteForce(engine);
+      for (int i = 0; i < p.length; i++) {
+        t.checkInexact(p[i], expected[i], 0.0001);
+      }
+    }
+  }
+
+  // returns each cell's chance of a mine by trying every layout of the engine's mines that
+  // agrees with the revealed numbers
+  double[] bruteForce(MSEngine engine) {
+    FlatBoard board = engine.board;
+    int size = board.size();
+    double[] hits = new double[size];
+    int solutions = 0;
+    for (int layout = 0; layout < (1 << size); layout++) {
+      if (Integer.bitCount(layout) != engine.mines) {
+        continue;
+      }
+      boolean fits = true;
+      for (int i = 0; i < size && fits; i++) {
+        if (board.isRevealed(i)) {
+          int around = 0;
+          for (int j = 0; j < size; j++) {
+            if (j != i && ((layout >> j) & 1) == 1 && FrontierComponent.adjacent(board, i, j)) {
+              around++;
+            }
+          }
+          fits = ((layout >> i) & 1) == 0 && around == board.neighboringMines(i);
+        }
+      }
+      if (fits) {
+        solutions++;
+        for (int i = 0; i < size; i++) {
+          hits[i] += (layout >> i) & 1;
+        }
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      hits[i] /= solutions;
+    }
+    return hits;
+  }
+}
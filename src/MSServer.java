@@ -0,0 +1,612 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import tester.*;
+
+// to represent one game hosted by the server: an engine and the lock that serializes moves
+// on it. each session is its own monitor, so moves on different games never wait on each
+// other.
+class GameSession {
+  static final int WATCH_LIMIT = 4096; // changed cells a watcher holds before coalescing
+  static final int MAX_WATCHERS = 64; // watchers one game keeps at once
+
+  long id;
+  MSEngine engine;
+  DeltaHub deltas; // made by the first WATCH
+  ArrayList<DeltaSubscription> watchers = new ArrayList<>(); // null where one was UNWATCHed
+
+  GameSession(long id, MSEngine engine) {
+    this.id = id;
+    this.engine = engine;
+  }
+
+  // EFFECT: reveals (row, col). returns the reply: cells opened and the game's state.
+  synchronized String reveal(int row, int col) {
+    int opened = this.engine.reveal(row, col);
+    return "OK " + opened + " " + this.state();
+  }
+
+  // EFFECT: flags or unflags (row, col). returns the reply: 1 if now flagged, and the state.
+  synchronized String flag(int row, int col) {
+    boolean flagged = this.engine.flag(row, col);
+    return "OK " + (flagged ? 1 : 0) + " " + this.state();
+  }
+
+  // returns the reply to VIEW: the state, then one character per cell in row-major order:
+  // '0'-'8' for revealed counts, '.' hidden, 'F' flagged, '*' a revealed mine
+  synchronized String view() {
+    StringBuilder sb = new StringBuilder(this.engine.board.size() + 16);
+    sb.append("OK ").append(this.state()).append(' ');
+    for (int i = 0; i < this.engine.board.size(); i++) {
+      int visible = this.engine.visible(i);
+      sb.append(visible < MSEngine.HIDDEN ? (char) ('0' + visible)
+          : visible == MSEngine.HIDDEN ? '.' : visible == MSEngine.FLAGGED ? 'F' : '*');
+    }
+    return sb.toString();
+  }
+
+  // EFFECT: starts a watcher, in the lowest free number. returns the reply: its number,
+  // for DELTA. throws an IllegalArgumentException if MAX_WATCHERS are already watching.
+  synchronized String watch() {
+    int free = this.watchers.indexOf(null);
+    if (free < 0 && this.watchers.size() >= MAX_WATCHERS) {
+      throw new IllegalArgumentException("too many watchers");
+    }
+    if (this.deltas == null) {
+      this.deltas = new DeltaHub(this.engine);
+    }
+    DeltaSubscription subscription = this.deltas.subscribe(WATCH_LIMIT);
+    if (free < 0) {
+      free = this.watchers.size();
+      this.watchers.add(subscription);
+    } else {
+      this.watchers.set(free, subscription);
+    }
+    return "OK " + free;
+  }
+
+  // EFFECT: stops the given watcher and frees its number. returns the reply.
+  synchronized String unwatch(int watcher) {
+    this.deltas.unsubscribe(this.watcher(watcher));
+    this.watchers.set(watcher, null);
+    return "OK";
+  }
+
+  // returns the subscription of the given watcher. throws an IllegalArgumentException if
+  // there is no such watcher.
+  DeltaSubscription watcher(int watcher) {
+    if (watcher < 0 || watcher >= this.watchers.size() || this.watchers.get(watcher) == null) {
+      throw new IllegalArgumentException("no such watcher");
+    }
+    return this.watchers.get(watcher);
+  }
+
+  // EFFECT: takes everything the given watcher hasn't seen. returns the reply: the state,
+  // then the delta in base64, or - if nothing changed. a watcher's first delta is the whole
+  // visible board.
+  synchronized String delta(int watcher) {
+    byte[] delta = this.watcher(watcher).poll();
+    return "OK " + this.state() + " "
+        + (delta == null ? "-" : Base64.getEncoder().encodeToString(delta));
+  }
+
+  // returns WON, LOST or PLAYING
+  String state() {
+    return this.engine.isWon() ? "WON" : this.engine.isLost() ? "LOST" : "PLAYING";
+  }
+}
+
+// to host many games in one JVM over a line protocol on a local TCP socket. every request
+// is one line and gets one line back, "OK ..." or "ERR <reason>":
+//   NEW <columns> <rows> <mines> [seed]   -> OK <id>
+//   REVEAL <id> <row> <col>               -> OK <cells opened> <WON|LOST|PLAYING>
+//   FLAG <id> <row> <col>                 -> OK <1 if flagged, else 0> <WON|LOST|PLAYING>
+//   VIEW <id>                             -> OK <state> <one char per cell>
+//   WATCH <id>                            -> OK <watcher>
+//   DELTA <id> <watcher>                  -> OK <state> <MoveDelta in base64, or ->
+//   UNWATCH <id> <watcher>                -> OK
+//   CLOSE <id>                            -> OK
+//   QUIT                                  -> closes the connection
+// NEW refuses boards over maxCells cells, and a game takes at most MAX_WATCHERS watchers.
+// a game lasts until CLOSE or until the connection that made it ends, by QUIT or not.
+// sessions live in a ConcurrentHashMap and each serializes its own moves; there is no
+// global lock. each connection gets its own thread: a virtual thread when the JVM has
+// them (looked up reflectively, since this code builds on 17), otherwise a pooled one.
+// run with: java MSServer [port, default 2510]
+class MSServer {
+  ConcurrentHashMap<Long, GameSession> sessions = new ConcurrentHashMap<>();
+  AtomicLong nextId = new AtomicLong(1);
+  long maxCells = 1L << 24; // largest board NEW will make
+  ServerSocket socket;
+  ExecutorService connections;
+  Thread acceptor;
+
+  public static void main(String[] args) throws IOException {
+    MSServer server = new MSServer();
+    server.start(args.length > 0 ? Integer.parseInt(args[0]) : 2510);
+    System.out.println("serving minesweeper on localhost:" + server.port());
+  }
+
+  // returns an executor that runs every task on a new virtual thread if this JVM has
+  // them, or on a cached pool of platform threads if not
+  static ExecutorService newPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  // EFFECT: listens on the given localhost port (0 for any free one) and accepts
+  // connections on a background thread until stop
+  void start(int port) throws IOException {
+    this.socket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+    this.connections = MSServer.newPerTaskExecutor();
+    this.acceptor = new Thread(this::acceptAll, "ms-accept");
+    this.acceptor.setDaemon(true);
+    this.acceptor.start();
+  }
+
+  // returns the port this server listens on
+  int port() {
+    return this.socket.getLocalPort();
+  }
+
+  // EFFECT: hands every new connection to its own thread, until the socket is closed
+  void acceptAll() {
+    while (!this.socket.isClosed()) {
+      try {
+        Socket client = this.socket.accept();
+        this.connections.execute(() -> this.serve(client));
+      } catch (IOException e) {
+        // the socket was closed by stop
+      }
+    }
+  }
+
+  // EFFECT: answers requests from client, one line at a time, until it sends QUIT or hangs
+  // up, then closes every game it made and didn't close
+  void serve(Socket client) {
+    HashSet<Long> owned = new HashSet<>();
+    try (Socket s = client;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+        PrintWriter out = new PrintWriter(
+            new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII), false)) {
+      s.setTcpNoDelay(true);
+      String line = in.readLine();
+      while (line != null && !line.equals("QUIT")) {
+        out.print(this.handle(line, owned));
+        out.print('\n');
+        out.flush();
+        line = in.readLine();
+      }
+    } catch (IOException e) {
+      // the client went away
+    } finally {
+      for (long id : owned) {
+        this.sessions.remove(id);
+      }
+    }
+  }
+
+  // EFFECT: stops accepting connections and closes the listening socket
+  void stop() throws IOException {
+    this.socket.close();
+    this.connections.shutdownNow();
+  }
+
+  // EFFECT: carries out one request. returns the reply line.
+  String handle(String line) {
+    return this.handle(line, null);
+  }
+
+  // EFFECT: carries out one request for a connection, adding the games it makes to owned
+  // and removing the ones it closes (owned may be null). returns the reply line.
+  String handle(String line, HashSet<Long> owned) {
+    String[] words = line.trim().split("\\s+");
+    try {
+      switch (words[0]) {
+        case "NEW":
+          return this.newGame(words, owned);
+        case "REVEAL":
+          return this.session(words, 4).reveal(Integer.parseInt(words[2]),
+              Integer.parseInt(words[3]));
+        case "FLAG":
+          return this.session(words, 4).flag(Integer.parseInt(words[2]),
+              Integer.parseInt(words[3]));
+        case "VIEW":
+          return this.session(words, 2).view();
+        case "WATCH":
+          return this.session(words, 2).watch();
+        case "DELTA":
+          return this.session(words, 3).delta(Integer.parseInt(words[2]));
+        case "UNWATCH":
+          return this.session(words, 3).unwatch(Integer.parseInt(words[2]));
+        case "CLOSE":
+          long id = this.session(words, 2).id;
+          if (owned != null) {
+            owned.remove(id);
+          }
+          return this.sessions.remove(id) == null ? "ERR no such game" : "OK";
+        default:
+          return "ERR unknown command";
+      }
+    } catch (NumberFormatException e) {
+      return "ERR bad number";
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      return "ERR " + (e.getMessage() == null ? "bad request" : e.getMessage());
+    }
+  }
+
+  // EFFECT: creates a session for the NEW request in words, adding its id to owned unless
+  // that is null. returns the reply.
+  String newGame(String[] words, HashSet<Long> owned) {
+    if (words.length != 4 && words.length != 5) {
+      throw new IllegalArgumentException("usage: NEW columns rows mines [seed]");
+    }
+    int columns = Integer.parseInt(words[1]);
+    int rows = Integer.parseInt(words[2]);
+    int mines = Integer.parseInt(words[3]);
+    long seed = words.length == 5 ? Long.parseLong(words[4]) : new Random().nextLong();
+    if (columns > 0 && rows > 0 && (long) columns * rows > this.maxCells) {
+      throw new IllegalArgumentException("board too large: at most " + this.maxCells
+          + " cells");
+    }
+    MSEngine engine = new MSEngine(columns, rows, mines, seed);
+    engine.firstClickSafe = true;
+    long id = this.nextId.getAndIncrement();
+    this.sessions.put(id, new GameSession(id, engine));
+    if (owned != null) {
+      owned.add(id);
+    }
+    return "OK " + id;
+  }
+
+  // returns the session named by words[1], checking the request has the given number of
+  // words and that any row and column are on its board
+  GameSession session(String[] words, int length) {
+    if (words.length != length) {
+      throw new IllegalArgumentException("wrong number of arguments");
+    }
+    GameSession session = this.sessions.get(Long.parseLong(words[1]));
+    if (session == null) {
+      throw new IllegalArgumentException("no such game");
+    }
+    if (length == 4) {
+      int row = Integer.parseInt(words[2]);
+      int col = Integer.parseInt(words[3]);
+      if (row < 0 || col < 0 || row >= session.engine.rows || col >= session.engine.columns) {
+        throw new IllegalArgumentException("off the board");
+      }
+    }
+    return session;
+  }
+}
+
+// to load a server with many connections playing random games, and report how fast moves
+// come back. each connection plays its share of the games one after another, revealing
+// random cells, and times every REVEAL round trip.
+// run with: java MSLoadClient [connections, default 64] [games each, default 50]
+//   [host port, default: an in-process server]
+class MSLoadClient {
+  String host;
+  int port;
+  int columns = 16;
+  int rows = 16;
+  int mines = 40;
+  int movesPerGame = 200; // a game still playing after this many reveals is abandoned
+
+  long[] latencies; // nanoseconds per reveal, of every connection, once run is done
+  long games;
+  long errors;
+  long wallNanos;
+
+  MSLoadClient(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int games = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    MSServer server = null;
+    MSLoadClient client;
+    if (args.length > 3) {
+      client = new MSLoadClient(args[2], Integer.parseInt(args[3]));
+    } else {
+      server = new MSServer();
+      server.start(0);
+      client = new MSLoadClient("localhost", server.port());
+    }
+    client.run(connections, games);
+    System.out.println(client.report());
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  // EFFECT: plays games games on each of connections connections at once, then gathers
+  // their latencies
+  void run(int connections, int games) throws Exception {
+    ExecutorService threads = MSServer.newPerTaskExecutor();
+    long start = System.nanoTime();
+    Future<?>[] done = new Future<?>[connections];
+    long[][] each = new long[connections][];
+    long[] playedEach = new long[connections];
+    long[] errorsEach = new long[connections];
+    for (int c = 0; c < connections; c++) {
+      int id = c;
+      done[c] = threads.submit(() -> {
+        long[] stats = new long[2];
+        each[id] = this.play(games, id, stats);
+        playedEach[id] = stats[0];
+        errorsEach[id] = stats[1];
+        return null;
+      });
+    }
+    for (Future<?> f : done) {
+      f.get();
+    }
+    this.wallNanos = System.nanoTime() - start;
+    threads.shutdown();
+    threads.awaitTermination(1, TimeUnit.MINUTES);
+    int total = 0;
+    for (long[] l : each) {
+      total += l.length;
+    }
+    this.latencies = new long[total];
+    int at = 0;
+    for (int c = 0; c < connections; c++) {
+      System.arraycopy(each[c], 0, this.latencies, at, each[c].length);
+      at += each[c].length;
+      this.games += playedEach[c];
+      this.errors += errorsEach[c];
+    }
+    Arrays.sort(this.latencies);
+  }
+
+  // plays games games on one connection, seeded by id. returns the latency of every
+  // reveal, and puts the games finished and error replies in stats
+  long[] play(int games, int id, long[] stats) throws IOException {
+    long[] latencies = new long[64];
+    int count = 0;
+    Random rand = new Random(id);
+    try (Socket s = new Socket(this.host, this.port);
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+        PrintWriter out = new PrintWriter(
+            new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII), false)) {
+      s.setTcpNoDelay(true);
+      for (int g = 0; g < games; g++) {
+        String reply = this.ask(in, out, "NEW " + this.columns + " " + this.rows + " "
+            + this.mines + " " + rand.nextLong());
+        if (!reply.startsWith("OK")) {
+          stats[1]++;
+          continue;
+        }
+        String game = reply.substring(3);
+        String state = "PLAYING";
+        for (int m = 0; m < this.movesPerGame && state.equals("PLAYING"); m++) {
+          long start = System.nanoTime();
+          reply = this.ask(in, out, "REVEAL " + game + " " + rand.nextInt(this.rows) + " "
+              + rand.nextInt(this.columns));
+          if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+          }
+          latencies[count] = System.nanoTime() - start;
+          count++;
+          if (!reply.startsWith("OK")) {
+            stats[1]++;
+            break;
+          }
+          state = reply.substring(reply.lastIndexOf(' ') + 1);
+        }
+        this.ask(in, out, "CLOSE " + game);
+        stats[0]++;
+      }
+      out.print("QUIT\n");
+      out.flush();
+    }
+    return Arrays.copyOf(latencies, count);
+  }
+
+  // sends one request and returns the reply
+  String ask(BufferedReader in, PrintWriter out, String request) throws IOException {
+    out.print(request);
+    out.print('\n');
+    out.flush();
+    String reply = in.readLine();
+    return reply == null ? "ERR connection closed" : reply;
+  }
+
+  // returns the latency below which the given fraction of reveals came back, in ns
+  long percentile(double fraction) {
+    if (this.latencies.length == 0) {
+      return 0;
+    }
+    int at = (int) Math.ceil(fraction * this.latencies.length) - 1;
+    return this.latencies[Math.max(0, Math.min(this.latencies.length - 1, at))];
+  }
+
+  // returns a summary of the last run
+  String report() {
+    double seconds = this.wallNanos / 1e9;
+    int cores = Runtime.getRuntime().availableProcessors();
+    return String.format("%d games, %d moves, %d errors in %.2f s: p50 %.1f us, "
+        + "p99 %.1f us, %.0f moves/s, %.1f sessions/s per core (%d cores)",
+        this.games, this.latencies.length, this.errors, seconds, this.percentile(0.5) / 1e3,
+        this.percentile(0.99) / 1e3, this.latencies.length / seconds,
+        this.games / seconds / cores, cores);
+  }
+}
+
+//examples and tests for the game server
+class ExamplesMSServer {
+  ExamplesMSServer() {}
+
+  // to test the protocol without a socket
+  void testHandle(Tester t) {
+    MSServer server = new MSServer();
+    t.checkExpect(server.handle("NEW 4 3 1 5"), "OK 1");
+    t.checkExpect(server.handle("NEW 4 3 1 5"), "OK 2");
+    GameSession session = server.sessions.get(1L);
+    session.engine.board.clearMines();
+    session.engine.board.placeMine(3);
+    session.engine.started = true;
+    t.checkExpect(server.handle("VIEW 1"), "OK PLAYING ............");
+    t.checkExpect(server.handle("FLAG 1 0 3"), "OK 1 PLAYING");
+    t.checkExpect(server.handle("REVEAL 1 0 2"), "OK 1 PLAYING");
+    t.checkExpect(server.handle("REVEAL 1 2 0"), "OK 10 WON");
+    t.checkExpect(server.handle("VIEW 1"), "OK WON 001F00110000");
+    t.checkExpect(server.handle("WATCH 1"), "OK 0");
+    t.checkExpect(server.handle("DELTA 1 0"), "OK WON "
+        + Base64.getEncoder().encodeToString(MoveDelta.keyframe(session.engine).encode()));
+    t.checkExpect(server.handle("DELTA 1 0"), "OK WON -");
+    t.checkExpect(server.handle("DELTA 1 1"), "ERR no such watcher");
+    t.checkExpect(server.handle("UNWATCH 1 1"), "ERR no such watcher");
+    t.checkExpect(server.handle("UNWATCH 1 0"), "OK");
+    t.checkExpect(server.handle("DELTA 1 0"), "ERR no such watcher");
+    t.checkExpect(server.handle("UNWATCH 1 0"), "ERR no such watcher");
+    t.checkExpect(server.handle("WATCH 1"), "OK 0");
+    t.checkExpect(server.handle("CLOSE 1"), "OK");
+    t.checkExpect(server.handle("VIEW 1"), "ERR no such game");
+    t.checkExpect(server.handle("REVEAL 2 3 0"), "ERR off the board");
+    t.checkExpect(server.handle("REVEAL 2 x 0"), "ERR bad number");
+    t.checkExpect(server.handle("REVEAL 2 0"), "ERR wrong number of arguments");
+    t.checkExpect(server.handle("NEW 3 3 9"),
+        "ERR Number of mines cannot be greater than number of cells.");
+    t.checkExpect(server.handle("NEW 3"), "ERR usage: NEW columns rows mines [seed]");
+    t.checkExpect(server.handle("NEW 40000 40000 1"),
+        "ERR board too large: at most 16777216 cells");
+    t.checkExpect(server.handle("NEW 65536 65537 1"),
+        "ERR board too large: at most 16777216 cells");
+    MSServer small = new MSServer();
+    small.maxCells = 12;
+    t.checkExpect(small.handle("NEW 4 3 1"), "OK 1");
+    t.checkExpect(small.handle("NEW 13 1 1"), "ERR board too large: at most 12 cells");
+    t.checkExpect(server.handle("JUMP"), "ERR unknown command");
+    t.checkExpect(server.sessions.size(), 1);
+  }
+
+  // to test that a watcher's deltas rebuild what VIEW shows
+  void testWatch(Tester t) {
+    MSServer server = new MSServer();
+    server.handle("NEW 16 16 10 4");
+    server.handle("FLAG 1 0 0");
+    t.checkExpect(server.handle("WATCH 1"), "OK 0");
+    DeltaMirror mirror = new DeltaMirror(16, 16);
+    for (int k = 0; k < 6; k++) {
+      server.handle("REVEAL 1 " + (k * 3) + " " + (15 - k * 2));
+      String reply = server.handle("DELTA 1 0");
+      if (!reply.endsWith(" -")) { // the reveal may have hit an open cell
+        mirror.apply(Base64.getDecoder().decode(reply.substring(reply.lastIndexOf(' ') + 1)));
+      }
+    }
+    String view = server.handle("VIEW 1");
+    boolean same = true;
+    for (int i = 0; i < 256; i++) {
+      char c = view.charAt(view.length() - 256 + i);
+      int visible = c == '.' ? MSEngine.HIDDEN : c == 'F' ? MSEngine.FLAGGED
+          : c == '*' ? MSEngine.MINE : c - '0';
+      same = same && mirror.visible[i] == visible;
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(mirror.moves, (long) server.sessions.get(1L).engine.movesApplied);
+    for (int k = 1; k < GameSession.MAX_WATCHERS; k++) {
+      server.handle("WATCH 1");
+    }
+    t.checkExpect(server.handle("WATCH 1"), "ERR too many watchers");
+    t.checkExpect(server.sessions.get(1L).deltas.subscriptions.length,
+        GameSession.MAX_WATCHERS);
+    t.checkExpect(server.handle("UNWATCH 1 5"), "OK");
+    t.checkExpect(server.sessions.get(1L).deltas.subscriptions.length,
+        GameSession.MAX_WATCHERS - 1);
+    t.checkExpect(server.handle("WATCH 1"), "OK 5");
+  }
+
+  // to test that moves on one session from many threads are serialized
+  void testConcurrentMoves(Tester t) throws Exception {
+    MSServer server = new MSServer();
+    server.handle("NEW 50 50 1 3");
+    ExecutorService threads = Executors.newFixedThreadPool(8);
+    Future<?>[] done = new Future<?>[8];
+    for (int k = 0; k < 8; k++) {
+      int from = k;
+      done[k] = threads.submit(() -> {
+        for (int i = from; i < 2500; i += 8) {
+          server.handle("FLAG 1 " + (i / 50) + " " + (i % 50));
+        }
+      });
+    }
+    for (Future<?> f : done) {
+      f.get();
+    }
+    threads.shutdown();
+    t.checkExpect(server.sessions.get(1L).engine.board.flagsPlaced, 2500);
+  }
+
+  // to test the server and load client over a real socket
+  void testLoad(Tester t) throws Exception {
+    MSServer server = new MSServer();
+    server.start(0);
+    MSLoadClient client = new MSLoadClient("localhost", server.port());
+    client.run(4, 5);
+    server.stop();
+    t.checkExpect(client.games, 20L);
+    t.checkExpect(client.errors, 0L);
+    t.checkExpect(client.latencies.length >= 20, true);
+    t.checkExpect(client.percentile(0.5) <= client.percentile(0.99), true);
+    t.checkExpect(client.report().startsWith("20 games"), true);
+    t.checkExpect(server.sessions.size(), 0);
+  }
+
+  // to test that a connection dropped without CLOSE or QUIT takes its games with it
+  void testDisconnect(Tester t) throws Exception {
+    MSServer server = new MSServer();
+    server.start(0);
+    t.checkExpect(server.handle("NEW 4 3 1 5"), "OK 1");
+    try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+      PrintWriter out = new PrintWriter(
+          new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII), false);
+      out.print("NEW 4 3 1 5\nNEW 4 3 1 5\nWATCH 2\nCLOSE 3\n");
+      out.flush();
+      t.checkExpect(in.readLine(), "OK 2");
+      t.checkExpect(in.readLine(), "OK 3");
+      t.checkExpect(in.readLine(), "OK 0");
+      t.checkExpect(in.readLine(), "OK");
+      t.checkExpect(server.sessions.size(), 2);
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (server.sessions.size() > 1 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    server.stop();
+    t.checkExpect(server.sessions.size(), 1);
+    t.checkExpect(server.sessions.containsKey(1L), true);
+  }
+}
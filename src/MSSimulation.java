@@ -0,0 +1,333 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import tester.*;
+
+// to represent a way of choosing moves in a simulated game. a new strategy is made for
+// every game; start is called before its first move, and every move the simulation applies
+// is passed back through moved.
+interface IMoveStrategy {
+  // EFFECT: gets ready to play engine, guessing with rand when it has to
+  void start(MSEngine engine, Random rand);
+
+  // returns the next move, encoded with MSEngine.encode, or -1 to give up
+  int nextMove();
+
+  // EFFECT: takes in a move just applied and the number of cells it opened
+  void moved(int move, int opened);
+}
+
+// to represent a player that reveals a random hidden cell every move
+class RandomMoveStrategy implements IMoveStrategy {
+  MSEngine engine;
+  Random rand;
+
+  public void start(MSEngine engine, Random rand) {
+    this.engine = engine;
+    this.rand = rand;
+  }
+
+  public int nextMove() {
+    return MSSimulation.guess(this.engine, this.rand);
+  }
+
+  public void moved(int move, int opened) {
+    // nothing to remember
+  }
+}
+
+// to represent a player that makes every move MSSolver can prove, and reveals a random
+// hidden cell when it can't prove any
+class SolverMoveStrategy implements IMoveStrategy {
+  MSEngine engine;
+  Random rand;
+  MSSolver solver;
+
+  public void start(MSEngine engine, Random rand) {
+    this.engine = engine;
+    this.rand = rand;
+    this.solver = new MSSolver(engine);
+  }
+
+  public int nextMove() {
+    int move = this.solver.nextMove();
+    return move >= 0 ? move : MSSimulation.guess(this.engine, this.rand);
+  }
+
+  public void moved(int move, int opened) {
+    this.solver.observe(move, opened);
+  }
+}
+
+// to represent a player that makes every move MSSolver can prove, and when it can't prove
+// any reveals the cell MSProbability finds least likely to be a mine. a random cell is
+// still guessed for the opening move, when nothing is known.
+class ProbabilityMoveStrategy extends SolverMoveStrategy {
+  MSProbability probability;
+
+  public void start(MSEngine engine, Random rand) {
+    super.start(engine, rand);
+    this.probability = new MSProbability(engine);
+  }
+
+  public int nextMove() {
+    int move = this.solver.nextMove();
+    if (move >= 0 || !this.engine.started) {
+      return move >= 0 ? move : MSSimulation.guess(this.engine, this.rand);
+    }
+    this.probability.compute();
+    int safest = this.probability.safest();
+    return safest < 0 ? -1 : MSEngine.encode(MSEngine.REVEAL, safest);
+  }
+}
+
+// to play many seeded games in parallel and total up how a strategy does: win rate, moves,
+// flood sizes and time per game. game i always gets the board seeded by gameSeed(i), so
+// the totals don't depend on the number of threads. games are split over a ForkJoinPool in
+// ranges of gamesPerTask; each game adds its totals once, to LongAdders, when it ends.
+// run with: java MSSimulation [columns rows mines, default 30 16 99] [games, default 10000]
+//   [threads, default all cores] [random | solver | probability, default solver]
+class MSSimulation {
+  int columns;
+  int rows;
+  int mines;
+  long seed; // base seed; each game's board seed is derived from it
+  Supplier<IMoveStrategy> strategies;
+  boolean firstClickSafe = true;
+  int gamesPerTask = 16;
+
+  LongAdder played = new LongAdder();
+  LongAdder won = new LongAdder();
+  LongAdder lost = new LongAdder();
+  LongAdder moves = new LongAdder();
+  LongAdder reveals = new LongAdder();
+  LongAdder cellsOpened = new LongAdder();
+  LongAdder gameNanos = new LongAdder();
+  LongAccumulator largestFlood = new LongAccumulator(Math::max, 0);
+  LongAccumulator slowestGame = new LongAccumulator(Math::max, 0);
+  long wallNanos;
+
+  MSSimulation(int columns, int rows, int mines, long seed,
+      Supplier<IMoveStrategy> strategies) {
+    new Utils().overZero(columns, rows, mines, "Must have at least 1 row, column, and mine.");
+    new Utils().notAbove(columns, rows, mines,
+        "Number of mines cannot be greater than number of cells.");
+    this.columns = columns;
+    this.rows = rows;
+    this.mines = mines;
+    this.seed = seed;
+    this.strategies = strategies;
+  }
+
+  // simulates games of the same size and mine count as world
+  MSSimulation(MSWorld world, long seed, Supplier<IMoveStrategy> strategies) {
+    this(world.columns, world.rows, world.mines, seed, strategies);
+  }
+
+  public static void main(String[] args) {
+    int columns = args.length > 2 ? Integer.parseInt(args[0]) : 30;
+    int rows = args.length > 2 ? Integer.parseInt(args[1]) : 16;
+    int mines = args.length > 2 ? Integer.parseInt(args[2]) : 99;
+    int games = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+    int threads = args.length > 4 ? Integer.parseInt(args[4])
+        : Runtime.getRuntime().availableProcessors();
+    String name = args.length > 5 ? args[5] : "solver";
+    Supplier<IMoveStrategy> strategies = SolverMoveStrategy::new;
+    if (name.equals("random")) {
+      strategies = RandomMoveStrategy::new;
+    } else if (name.equals("probability")) {
+      strategies = ProbabilityMoveStrategy::new;
+    }
+    MSSimulation sim = new MSSimulation(columns, rows, mines, 2510L, strategies);
+    sim.run(games, threads);
+    System.out.println(sim.report());
+  }
+
+  // returns the board seed of game number index, spread with the SplitMix64 finalizer so
+  // neighboring games get unrelated boards
+  long gameSeed(long index) {
+    long z = this.seed + (index + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // EFFECT: plays games number 0 to games - 1 on the given number of threads, adding to
+  // the totals
+  void run(int games, int threads) {
+    long start = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.invoke(new GameRange(this, 0, games));
+    } finally {
+      pool.shutdown();
+    }
+    this.wallNanos += System.nanoTime() - start;
+  }
+
+  // EFFECT: plays game number index to the end, or until the strategy gives up or makes
+  // more moves than a game can need, and adds it to the totals
+  void playGame(long index) {
+    long start = System.nanoTime();
+    long gameSeed = this.gameSeed(index);
+    MSEngine engine = new MSEngine(this.columns, this.rows, this.mines, gameSeed);
+    engine.firstClickSafe = this.firstClickSafe;
+    IMoveStrategy strategy = this.strategies.get();
+    strategy.start(engine, new Random(~gameSeed));
+    int limit = 2 * engine.board.size();
+    int moves = 0;
+    int reveals = 0;
+    long opened = 0;
+    int largest = 0;
+    while (!engine.isOver() && moves < limit) {
+      int move = strategy.nextMove();
+      if (move < 0) {
+        break;
+      }
+      int flood = engine.applyMove(move);
+      strategy.moved(move, flood);
+      moves++;
+      if ((move & 1) == MSEngine.REVEAL) {
+        reveals++;
+        opened += flood;
+        largest = Math.max(largest, flood);
+      }
+    }
+    this.played.increment();
+    if (engine.isWon()) {
+      this.won.increment();
+    } else if (engine.isLost()) {
+      this.lost.increment();
+    }
+    this.moves.add(moves);
+    this.reveals.add(reveals);
+    this.cellsOpened.add(opened);
+    this.largestFlood.accumulate(largest);
+    long nanos = System.nanoTime() - start;
+    this.gameNanos.add(nanos);
+    this.slowestGame.accumulate(nanos);
+  }
+
+  // returns a random hidden, unflagged cell of engine as a reveal move, or -1 if there is
+  // none. tries random cells first, then scans from a random start.
+  static int guess(MSEngine engine, Random rand) {
+    FlatBoard board = engine.board;
+    int size = board.size();
+    for (int tries = 0; tries < 32; tries++) {
+      int index = rand.nextInt(size);
+      if (!board.isRevealed(index) && !board.isFlagged(index)) {
+        return MSEngine.encode(MSEngine.REVEAL, index);
+      }
+    }
+    int from = rand.nextInt(size);
+    for (int k = 0; k < size; k++) {
+      int index = (from + k) % size;
+      if (!board.isRevealed(index) && !board.isFlagged(index)) {
+        return MSEngine.encode(MSEngine.REVEAL, index);
+      }
+    }
+    return -1;
+  }
+
+  // returns the fraction of games played that were won
+  double winRate() {
+    long games = this.played.sum();
+    return games == 0 ? 0 : (double) this.won.sum() / games;
+  }
+
+  // returns a summary of the totals so far
+  String report() {
+    long games = Math.max(1, this.played.sum());
+    long reveals = Math.max(1, this.reveals.sum());
+    return String.format("%dx%d, %d mines: %d games, won %.2f%%, lost %d, "
+        + "%.1f moves/game, %.1f cells/reveal, largest flood %d, "
+        + "%.1f us/game (slowest %.1f), %.0f games/s",
+        this.columns, this.rows, this.mines, this.played.sum(), 100 * this.winRate(),
+        this.lost.sum(), (double) this.moves.sum() / games,
+        (double) this.cellsOpened.sum() / reveals, this.largestFlood.get(),
+        this.gameNanos.sum() / 1e3 / games, this.slowestGame.get() / 1e3,
+        this.wallNanos == 0 ? 0 : this.played.sum() * 1e9 / this.wallNanos);
+  }
+}
+
+// to represent games number from to to - 1 of a simulation, split in halves until a range
+// is small enough to play on one thread
+class GameRange extends RecursiveAction {
+  static final long serialVersionUID = 1L; // tasks are never serialized
+
+  MSSimulation sim;
+  long from;
+  long to;
+
+  GameRange(MSSimulation sim, long from, long to) {
+    this.sim = sim;
+    this.from = from;
+    this.to = to;
+  }
+
+  protected void compute() {
+    if (this.to - this.from <= this.sim.gamesPerTask) {
+      for (long i = this.from; i < this.to; i++) {
+        this.sim.playGame(i);
+      }
+    } else {
+      long mid = (this.from + this.to) >>> 1;
+      invokeAll(new GameRange(this.sim, this.from, mid), new GameRange(this.sim, mid, this.to));
+    }
+  }
+}
+
+//examples and tests for the simulation harness
+class ExamplesMSSimulation {
+  ExamplesMSSimulation() {}
+
+  // to test that the totals add up and don't depend on the number of threads
+  void testRun(Tester t) {
+    MSSimulation one = new MSSimulation(9, 9, 10, 7L, SolverMoveStrategy::new);
+    MSSimulation four = new MSSimulation(9, 9, 10, 7L, SolverMoveStrategy::new);
+    one.run(200, 1);
+    four.gamesPerTask = 3;
+    four.run(200, 4);
+    t.checkExpect(one.played.sum(), 200L);
+    t.checkExpect(one.won.sum() + one.lost.sum(), 200L);
+    t.checkExpect(four.won.sum(), one.won.sum());
+    t.checkExpect(four.moves.sum(), one.moves.sum());
+    t.checkExpect(four.cellsOpened.sum(), one.cellsOpened.sum());
+    t.checkExpect(four.largestFlood.get(), one.largestFlood.get());
+    t.checkExpect(one.cellsOpened.sum() >= one.reveals.sum(), true);
+    t.checkExpect(one.report().startsWith("9x9, 10 mines: 200 games"), true);
+  }
+
+  // to test that the solver wins more often than guessing
+  void testStrategies(Tester t) {
+    MSWorld world = new MSWorld(9, 9, 10, true, 1L);
+    MSSimulation solver = new MSSimulation(world, 3L, SolverMoveStrategy::new);
+    MSSimulation random = new MSSimulation(world, 3L, RandomMoveStrategy::new);
+    solver.run(300, 2);
+    random.run(300, 2);
+    t.checkExpect(solver.winRate() > 0.6, true);
+    t.checkExpect(random.winRate() < solver.winRate(), true);
+    MSSimulation best = new MSSimulation(world, 3L, ProbabilityMoveStrategy::new);
+    best.run(300, 2);
+    t.checkExpect(best.winRate() >= solver.winRate(), true);
+  }
+
+  // to test game seeds and guessing
+  void testGuess(Tester t) {
+    MSSimulation sim = new MSSimulation(4, 4, 1, 7L, RandomMoveStrategy::new);
+    t.checkExpect(sim.gameSeed(0) == sim.gameSeed(1), false);
+    t.checkExpect(sim.gameSeed(5), new MSSimulation(4, 4, 1, 7L, null).gameSeed(5));
+    MSEngine engine = new MSEngine(4, 4, 1, 1L);
+    engine.board.clearMines();
+    engine.board.placeMine(0);
+    engine.flagAt(1);
+    engine.revealAt(15);
+    Random rand = new Random(1L);
+    t.checkExpect(MSSimulation.guess(engine, rand), MSEngine.encode(MSEngine.REVEAL, 0));
+    engine.flagAt(0);
+    t.checkExpect(MSSimulation.guess(engine, rand), -1);
+  }
+}
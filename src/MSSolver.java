@@ -0,0 +1,361 @@
+import java.util.Arrays;
+import tester.*;
+
+// to represent a deterministic solver playing an MSEngine. it only looks at what a player
+// can see: revealed counts, hidden cells and flags. the frontier is kept incrementally:
+// after each reveal or flag only the numbered cells around what changed are examined again.
+// each examined cell applies the single-cell rules and the pairwise subset rule against the
+// numbered cells within two steps of it. sets of hidden neighbors are bitmasks over the
+// 7 x 7 window around the examined cell, so no rule allocates.
+class MSSolver {
+  static final int WINDOW = 7; // side of the bitmask window; the examined cell is its center
+
+  MSEngine engine;
+  FlatBoard board;
+  int[] work = new int[64]; // numbered cells waiting to be examined
+  int workCount;
+  boolean[] queued; // is the cell already in work?
+  int[] safe = new int[64]; // cells proven safe, not yet revealed
+  int safeCount;
+  int[] mines = new int[64]; // cells proven to be mines, not yet flagged
+  int minesCount;
+  long movesMade;
+  long nanosSpent; // time spent in nextMove and observe, however the solver is driven
+
+  // builds a solver for engine, looking once over the whole board for numbered cells
+  // that are already revealed
+  MSSolver(MSEngine engine) {
+    engine.board.topology.requireSquare("Solving");
+    this.engine = engine;
+    this.board = engine.board;
+    this.queued = new boolean[this.board.size()];
+    for (int i = 0; i < this.board.size(); i++) {
+      if (this.board.isRevealed(i)) {
+        this.enqueue(i);
+      }
+    }
+  }
+
+  // EFFECT: reveals (row, col) as the opening move, then solves as far as logic allows.
+  // returns whether the game was won without guessing.
+  boolean play(int row, int col) {
+    this.reveal(this.engine.index(row, col));
+    return this.solve();
+  }
+
+  // EFFECT: makes every move the rules can prove, until the game is over or no certain
+  // move is left. returns whether the game is won.
+  boolean solve() {
+    while (!this.engine.isOver()) {
+      int move = this.nextMove();
+      if (move < 0) {
+        break;
+      }
+      this.observe(move, this.engine.applyMove(move));
+    }
+    return this.engine.isWon();
+  }
+
+  // EFFECT: examines queued cells until a move is proven. returns that move, encoded with
+  // MSEngine.encode, or -1 if no certain move is left. the caller applies it and passes
+  // the result to observe.
+  int nextMove() {
+    long start = System.nanoTime();
+    int move = this.findMove();
+    this.nanosSpent += System.nanoTime() - start;
+    return move;
+  }
+
+  // EFFECT: does the work of nextMove, without timing it
+  int findMove() {
+    while (true) {
+      while (this.minesCount > 0) {
+        this.minesCount--;
+        int index = this.mines[this.minesCount];
+        if (!this.board.isFlagged(index) && !this.board.isRevealed(index)) {
+          return MSEngine.encode(MSEngine.FLAG, index);
+        }
+      }
+      while (this.safeCount > 0) {
+        this.safeCount--;
+        int index = this.safe[this.safeCount];
+        if (!this.board.isFlagged(index) && !this.board.isRevealed(index)) {
+          return MSEngine.encode(MSEngine.REVEAL, index);
+        }
+      }
+      if (this.workCount == 0) {
+        return -1;
+      }
+      this.workCount--;
+      int cell = this.work[this.workCount];
+      this.queued[cell] = false;
+      this.examine(cell);
+    }
+  }
+
+  // EFFECT: takes in the effect of a move just applied to the engine, by the solver or
+  // anyone else: queues the numbered cells around the flag, or around every opened cell
+  // (read from board.queue, so call this before the next reveal).
+  void observe(int move, int opened) {
+    long start = System.nanoTime();
+    this.movesMade++;
+    if ((move & 1) == MSEngine.FLAG) {
+      this.touched(move >>> 1);
+    }
+    for (int k = 0; k < opened; k++) {
+      this.touched(this.board.queue[k]);
+    }
+    this.nanosSpent += System.nanoTime() - start;
+  }
+
+  // returns the moves made per second of the solver's own work (nextMove and observe)
+  double movesPerSecond() {
+    return this.nanosSpent == 0 ? 0 : this.movesMade * 1e9 / this.nanosSpent;
+  }
+
+  // EFFECT: reveals the cell at index if it is still hidden, and observes the result
+  void reveal(int index) {
+    if (!this.board.isRevealed(index) && !this.board.isFlagged(index)) {
+      int move = MSEngine.encode(MSEngine.REVEAL, index);
+      this.observe(move, this.engine.applyMove(move));
+    }
+  }
+
+  // EFFECT: queues the cell at index and every revealed cell around it
+  void touched(int index) {
+    int row = index / this.board.columns;
+    int col = index - row * this.board.columns;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.board.rows - 1, row + 1); r++) {
+      for (int c = Math.max(0, col - 1); c <= Math.min(this.board.columns - 1, col + 1); c++) {
+        int next = r * this.board.columns + c;
+        if (this.board.isRevealed(next)) {
+          this.enqueue(next);
+        }
+      }
+    }
+  }
+
+  // EFFECT: adds the revealed cell at index to the work list, if it shows a number and
+  // isn't queued yet
+  void enqueue(int index) {
+    if (this.queued[index] || this.board.hasMine(index)
+        || this.board.neighboringMines(index) == 0) {
+      return;
+    }
+    if (this.workCount == this.work.length) {
+      this.work = Arrays.copyOf(this.work, this.workCount * 2);
+    }
+    this.work[this.workCount] = index;
+    this.workCount++;
+    this.queued[index] = true;
+  }
+
+  // EFFECT: applies the single-cell rules to the numbered cell at index, then the subset
+  // rule between it and every numbered cell within two steps, recording proven cells
+  void examine(int index) {
+    int row = index / this.board.columns;
+    int col = index - row * this.board.columns;
+    long unknown = this.unknownAround(row, col, row, col);
+    if (unknown == 0) {
+      return;
+    }
+    int left = this.minesLeftAround(row, col);
+    this.deduce(unknown, left, row, col);
+    for (int r = Math.max(0, row - 2); r <= Math.min(this.board.rows - 1, row + 2); r++) {
+      for (int c = Math.max(0, col - 2); c <= Math.min(this.board.columns - 1, col + 2); c++) {
+        int other = r * this.board.columns + c;
+        if ((r == row && c == col) || !this.board.isRevealed(other)
+            || this.board.neighboringMines(other) == 0) {
+          continue;
+        }
+        long otherUnknown = this.unknownAround(r, c, row, col);
+        if (otherUnknown == 0 || otherUnknown == unknown) {
+          continue;
+        }
+        int otherLeft = this.minesLeftAround(r, c);
+        if ((unknown & ~otherUnknown) == 0) {
+          this.deduce(otherUnknown & ~unknown, otherLeft - left, row, col);
+        } else if ((otherUnknown & ~unknown) == 0) {
+          this.deduce(unknown & ~otherUnknown, left - otherLeft, row, col);
+        }
+      }
+    }
+  }
+
+  // EFFECT: given that the cells in mask hold exactly left mines, records them all as safe
+  // if left is 0, or all as mines if left equals their number
+  void deduce(long mask, int left, int row, int col) {
+    int size = Long.bitCount(mask);
+    if (left != 0 && left != size) {
+      return;
+    }
+    while (mask != 0) {
+      int bit = Long.numberOfTrailingZeros(mask);
+      mask &= mask - 1;
+      int index = this.board.index(row + bit / WINDOW - WINDOW / 2,
+          col + bit % WINDOW - WINDOW / 2);
+      if (left == 0) {
+        this.safe = this.push(this.safe, this.safeCount, index);
+        this.safeCount++;
+      } else {
+        this.mines = this.push(this.mines, this.minesCount, index);
+        this.minesCount++;
+      }
+    }
+  }
+
+  // returns list with value stored at position count, grown first if it is full
+  int[] push(int[] list, int count, int value) {
+    if (count == list.length) {
+      list = Arrays.copyOf(list, count * 2);
+    }
+    list[count] = value;
+    return list;
+  }
+
+  // returns the hidden, unflagged neighbors of (row, col) as a bitmask over the window
+  // centered on (centerRow, centerCol)
+  long unknownAround(int row, int col, int centerRow, int centerCol) {
+    long mask = 0;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.board.rows - 1, row + 1); r++) {
+      for (int c = Math.max(0, col - 1); c <= Math.min(this.board.columns - 1, col + 1); c++) {
+        int next = r * this.board.columns + c;
+        if (!this.board.isRevealed(next) && !this.board.isFlagged(next)) {
+          mask |= 1L << ((r - centerRow + WINDOW / 2) * WINDOW + (c - centerCol + WINDOW / 2));
+        }
+      }
+    }
+    return mask;
+  }
+
+  // returns the count shown at (row, col) minus the flags around it
+  int minesLeftAround(int row, int col) {
+    int left = this.board.neighboringMines(this.board.index(row, col));
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.board.rows - 1, row + 1); r++) {
+      for (int c = Math.max(0, col - 1); c <= Math.min(this.board.columns - 1, col + 1); c++) {
+        if (this.board.isFlagged(r * this.board.columns + c)) {
+          left--;
+        }
+      }
+    }
+    return left;
+  }
+}
+
+//examples and tests for the solver
+class ExamplesMSSolver {
+  ExamplesMSSolver() {}
+
+  // to test the single-cell rules: a satisfied count clears the rest of its neighbors
+  void testSingleCellRules(Tester t) {
+    MSEngine engine = new MSEngine(3, 3, 1, 1L);
+    engine.board.clearMines();
+    engine.board.placeMine(0);
+    engine.reveal(1, 1);
+    engine.flag(0, 0);
+    MSSolver solver = new MSSolver(engine);
+    t.checkExpect(solver.solve(), true);
+    t.checkExpect(engine.board.flagsPlaced, 1);
+  }
+
+  // to test driving the solver one move at a time
+  void testNextMove(Tester t) {
+    MSEngine engine = new MSEngine(3, 3, 2, 1L);
+    engine.board.clearMines();
+    engine.board.placeMine(engine.index(0, 0));
+    engine.board.placeMine(engine.index(0, 2));
+    for (int i = 3; i < 9; i++) {
+      engine.revealAt(i);
+    }
+    MSSolver solver = new MSSolver(engine);
+    int[] expected = {
+        MSEngine.encode(MSEngine.FLAG, 0),
+        MSEngine.encode(MSEngine.FLAG, 2),
+        MSEngine.encode(MSEngine.REVEAL, 1)};
+    for (int move : expected) {
+      t.checkExpect(solver.nextMove(), move);
+      solver.observe(move, engine.applyMove(move));
+    }
+    t.checkExpect(solver.nextMove(), -1);
+    t.checkExpect(engine.isWon(), true);
+    t.checkExpect(solver.movesMade, 3L);
+    t.checkExpect(solver.nanosSpent > 0, true); // driven move by move, never through solve
+    t.checkExpect(solver.movesPerSecond() > 0, true);
+  }
+
+  // to test deduce on its own
+  void testDeduce(Tester t) {
+    MSEngine engine = new MSEngine(5, 5, 1, 1L);
+    MSSolver solver = new MSSolver(engine);
+    long corners = 1L | 1L << 2; // (-3, -3) and (-3, -1) around the center
+    solver.deduce(corners, 1, 3, 3);
+    t.checkExpect(solver.safeCount + solver.minesCount, 0);
+    solver.deduce(corners, 2, 3, 3);
+    t.checkExpect(solver.minesCount, 2);
+    t.checkExpect(solver.mines[0], 0);
+    t.checkExpect(solver.mines[1], 2);
+    solver.deduce(1L << 24, 0, 3, 3); // the center itself
+    t.checkExpect(solver.safeCount, 1);
+    t.checkExpect(solver.safe[0], 18);
+  }
+
+  // to test the subset rule: a 1-2-1 pattern along a wall needs it
+  void testSubsetRule(Tester t) {
+    MSEngine engine = new MSEngine(3, 3, 2, 1L);
+    engine.board.clearMines();
+    engine.board.placeMine(engine.index(0, 0));
+    engine.board.placeMine(engine.index(0, 2));
+    engine.reveal(1, 0);
+    engine.reveal(1, 1);
+    engine.reveal(1, 2);
+    engine.reveal(2, 0);
+    engine.reveal(2, 1);
+    engine.reveal(2, 2);
+    MSSolver solver = new MSSolver(engine);
+    t.checkExpect(solver.solve(), true);
+    t.checkExpect(engine.board.isFlagged(engine.index(0, 2)), true);
+    t.checkExpect(engine.board.isRevealed(engine.index(0, 1)), true);
+  }
+
+  // to test that unknownAround and minesLeftAround see flags and revealed cells
+  void testMasks(Tester t) {
+    MSEngine engine = new MSEngine(3, 3, 1, 1L);
+    engine.board.clearMines();
+    engine.board.placeMine(0);
+    engine.reveal(1, 1);
+    MSSolver solver = new MSSolver(engine);
+    t.checkExpect(Long.bitCount(solver.unknownAround(1, 1, 1, 1)), 8);
+    t.checkExpect(solver.minesLeftAround(1, 1), 1);
+    engine.flag(0, 0);
+    t.checkExpect(Long.bitCount(solver.unknownAround(1, 1, 1, 1)), 7);
+    t.checkExpect(solver.minesLeftAround(1, 1), 0);
+    t.checkExpect(Long.bitCount(solver.unknownAround(0, 0, 2, 2)), 2);
+  }
+
+  // to test that the solver never hits a mine, and solves most beginner boards and some
+  // expert ones without guessing
+  void testBoards(Tester t) {
+    int won = 0;
+    for (long seed = 0; seed < 200; seed++) {
+      MSEngine engine = new MSEngine(9, 9, 10, seed);
+      engine.firstClickSafe = true;
+      if (new MSSolver(engine).play(4, 4)) {
+        won++;
+      }
+      t.checkExpect(engine.isLost(), false);
+    }
+    t.checkExpect(won > 120, true);
+    won = 0;
+    for (long seed = 0; seed < 200; seed++) {
+      MSEngine engine = new MSEngine(30, 16, 99, seed);
+      engine.firstClickSafe = true;
+      MSSolver solver = new MSSolver(engine);
+      if (solver.play(8, 15)) {
+        won++;
+      }
+      t.checkExpect(engine.isLost(), false);
+      t.checkExpect(solver.movesPerSecond() > 0, true);
+    }
+    t.checkExpect(won > 0, true);
+  }
+}
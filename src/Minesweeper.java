@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import tester.*;
 import javalib.impworld.*;
@@ -12,67 +14,242 @@ if on Mac, configure your right-click to be bottom right in settings (flagging w
 work otherwise)
 */
 
-// to represent a single cell.
-class Cell {
-  ArrayList<Cell> neighbors; // 2 <= neighbors.size() <= 4
-  boolean hasMine;
-  boolean isRevealed;
-  boolean isFlagged;
-  int neighboringMines;
-
-  Cell(boolean hasMine) {
-    this.hasMine = hasMine;
-    this.neighbors = new ArrayList<>();
-    this.isRevealed = false;
-    this.isFlagged = false;
-    this.neighboringMines = 0;
-  }
-
-  // EFFECT: adds a neighbor to this cell, given this cell doesn't already have 8 neighbors.
-  void addNeighbor(Cell neighbor) {
-    if (this.neighbors.size() <= 8) {
-      this.neighbors.add(neighbor);
-    } else {
-      throw new UnsupportedOperationException("Cells can have up to 8 neighbors.");
-    }
-  }
-
-  // implements the flood feature for the neighbors of this cell
-  void flood() {
-    for (int i = 1; i < this.neighbors.size(); i++) {
-      if (!this.neighbors.get(i).isRevealed
-              && !this.neighbors.get(i).hasMine && !this.neighbors.get(i).isFlagged
-              && this.neighbors.get(i - 1).neighboringMines == 0) {
-        this.neighbors.get(i).isRevealed = true;
-      }
-    }
-  }
-}
-
 // represent a minesweeper world.
 class MSWorld extends World {
   int columns;
   int rows;
   int mines;
+  Topology topology; // which cells are neighbors, on either kind of board
   ArrayList<ArrayList<Cell>> board;
+  MSEngine engine; // non-null when this world draws a headless engine's flat board
+  ChunkedBoard chunks; // non-null when this world shows the corner of a chunked board
+  MSMetrics metrics; // non-null while instrumented; each probe is otherwise one null check
+  GameEvents events; // non-null while every click is recorded for analytics
+  long session; // this world's id in events
+  BoardPages pages; // made by the first snapshot; tracks the pages each move touches
+  Viewport view; // non-null when only a window of the board is drawn, panned and zoomed
+  boolean over; // set once checkWinLoss has ended the game
+  long seed; // the same seed, size and mine count always give the same board
+  Random rand; // seeded from seed; drives mine placement and relocation
+  boolean firstClickSafe; // if set, the first reveal never hits a mine or a number
+  boolean started; // set by the first reveal
+  boolean flat; // plays an MSEngine's FlatBoard rather than Cell objects
+  boolean deferred; // set until the first reveal places the mines, clear of the click
+  // running counters for a Cell board, kept by placeMines and openCell so checkWinLoss
+  // never scans it. writing Cell fields directly bypasses them; gameWon and gameLost still
+  // scan, so they stay exact for boards edited by hand.
+  int safeHidden; // safe cells not yet revealed; the game is won when this reaches 0
+  boolean mineRevealed; // the game is lost once this is set
   static final int CELL_SIZE = 30;
 
+  // visual states a cell can be drawn in, besides its count 0-8 when revealed
+  static final int HIDDEN_TILE = MSEngine.HIDDEN;
+  static final int FLAG_TILE = MSEngine.FLAGGED;
+  static final int MINE_TILE = MSEngine.MINE;
+  // one prebuilt image per visual state, shared by every cell and every frame
+  static final WorldImage[] TILES = buildTiles();
+
+  // render state for a flat board: the last frame is kept and only cells whose state
+  // changed since then are placed again.
+  WorldScene scene;
+  int[] dirty = new int[64]; // flat indices changed since the last frame
+  int dirtyCount;
+  boolean redrawAll; // the next frame must be rebuilt from scratch
+  int placedSinceRebuild; // images stacked on scene since it was last rebuilt
+
   // constructor that checks all values are positive and the # of mines is less than the
   // total # of cells. throws an IllegalArgumentException otherwise.
   MSWorld(int columns, int rows, int mines) {
-    if (new Utils().overZero(columns, rows, mines,
+    this(columns, rows, mines, false);
+  }
+
+  // same as above, but if flat is true the game is played by an MSEngine on a FlatBoard
+  // and no Cell objects or neighbor lists are built. board stays null in that mode.
+  MSWorld(int columns, int rows, int mines, boolean flat) {
+    this(columns, rows, mines, flat, new Random().nextLong());
+  }
+
+  // same as above, with an explicit seed for a reproducible board
+  MSWorld(int columns, int rows, int mines, boolean flat, long seed) {
+    this(new SquareTopology(columns, rows), mines, flat, seed);
+  }
+
+  // same as above, on a board whose size and neighbors are given by topology
+  MSWorld(Topology topology, int mines, boolean flat, long seed) {
+    this(topology, mines, flat, seed, false);
+  }
+
+  // same as above, but if deferred is true nothing is built yet: the first move builds the
+  // board, and the first reveal places the mines, keeping the clicked cell and its
+  // neighbors clear. until then every frame is the same single hidden rectangle.
+  MSWorld(Topology topology, int mines, boolean flat, long seed, boolean deferred) {
+    if (new Utils().overZero(topology.columns, topology.rows, mines,
         "Must have at least 1 row, column, and mine.")
-            && new Utils().notAbove(columns, rows, mines,
+            && new Utils().notAbove(topology.columns, topology.rows, mines,
         "Number of mines cannot be greater than number of cells.")) {
-      this.columns = columns;
-      this.rows = rows;
+      this.columns = topology.columns;
+      this.rows = topology.rows;
       this.mines = mines;
     }
-    initGrid();
+    this.topology = topology;
+    this.seed = seed;
+    this.rand = new Random(seed);
+    this.flat = flat;
+    this.deferred = deferred;
+    if (deferred) {
+      return;
+    } else if (flat) {
+      initFlat();
+    } else {
+      initGrid();
+    }
   }
 
-  // EFFECT: add rows to this board of new, empty cells.
+  // shows the top left columns x rows cells of a chunked board, which may be far larger.
+  // nothing is built up front: chunks are generated as clicks reach them.
+  MSWorld(ChunkedBoard chunks, int columns, int rows) {
+    if (new Utils().overZero(columns, rows, 1, "Must have at least 1 row, column, and mine.")) {
+      this.columns = (int) Math.min(columns, chunks.columns);
+      this.rows = (int) Math.min(rows, chunks.rows);
+      this.mines = (int) Math.min(Integer.MAX_VALUE, chunks.mines);
+    }
+    this.topology = new SquareTopology(this.columns, this.rows);
+    this.chunks = chunks;
+    this.seed = chunks.seed;
+    this.rand = new Random(chunks.seed);
+  }
+
+  // draws the game engine is playing, keeping its board, seed and progress
+  MSWorld(MSEngine engine) {
+    this.columns = engine.columns;
+    this.rows = engine.rows;
+    this.mines = engine.mines;
+    this.topology = engine.board.topology;
+    this.seed = engine.seed;
+    this.rand = engine.rand;
+    this.engine = engine;
+    this.flat = true;
+    this.firstClickSafe = engine.firstClickSafe;
+    this.started = engine.started;
+    this.over = engine.isOver();
+  }
+
+  // plays a board of the given size that can be won without guessing, taken from
+  // generator's queue with its opening already revealed
+  MSWorld(NoGuessGenerator generator, int columns, int rows, int mines) {
+    this(generator.take(columns, rows, mines));
+  }
+
+  // returns a flat world playing the board saved at path by save
+  static MSWorld load(Path path) throws IOException {
+    return new MSWorld(BoardFile.load(path));
+  }
+
+  // EFFECT: writes this world's board to path in BoardFile's format. a Cell board is
+  // written in the same format, so it loads back as a flat world.
+  void save(Path path) throws IOException {
+    if (this.chunks != null) {
+      throw new IllegalStateException("Chunked boards can't be saved.");
+    }
+    this.topology.requireSquare("Saving");
+    this.materialize(-1, -1);
+    int flags = (this.firstClickSafe ? BoardFile.FIRST_CLICK_SAFE : 0)
+        | (this.started ? BoardFile.STARTED : 0);
+    FlatBoard flat = this.engine == null ? null : this.engine.board;
+    if (flat == null) {
+      flat = new FlatBoard(this.columns, this.rows);
+      for (int i = 0; i < flat.size(); i++) {
+        Cell cell = this.board.get(i / this.columns).get(i % this.columns);
+        flat.set(i, FlatBoard.MINE, cell.hasMine);
+        flat.set(i, FlatBoard.REVEALED, cell.isRevealed);
+        flat.set(i, FlatBoard.FLAGGED, cell.isFlagged);
+        flat.setNeighboringMines(i, cell.neighboringMines);
+      }
+    }
+    BoardFile.write(path, this.columns, this.rows, this.mines, this.seed, flags, flat.cells);
+  }
+
+  // EFFECT: starts logging every move this world's engine applies, and returns the log.
+  // only flat worlds can be logged, and only before their first move.
+  MoveLog startLog() {
+    this.materialize(-1, -1);
+    if (this.engine == null || this.engine.movesApplied > 0 || this.engine.started) {
+      throw new IllegalStateException("Only flat worlds can be logged, from their first move.");
+    }
+    return MoveLog.record(this.engine);
+  }
+
+  // returns a snapshot of this world's board, sharing every page it hasn't changed with
+  // the previous snapshot. only flat worlds have snapshots.
+  BoardSnapshot snapshot() {
+    this.materialize(-1, -1);
+    if (this.engine == null) {
+      throw new IllegalStateException("Only flat worlds have snapshots.");
+    }
+    if (this.pages == null) {
+      this.pages = new BoardPages(this.engine);
+    }
+    return this.pages.snapshot();
+  }
+
+  // EFFECT: puts this world back as it was when snapshot was taken, and redraws it whole
+  void restore(BoardSnapshot snapshot) {
+    this.pages.restore(snapshot);
+    this.started = this.engine.started;
+    this.over = this.engine.isOver();
+    this.redrawAll = true;
+    this.dirtyCount = 0;
+  }
+
+  // EFFECT: from now on draws only a width x height pixel window of the board, which the
+  // arrow keys pan and + and - zoom
+  void useViewport(int width, int height) {
+    this.view = new Viewport(width, height, this.columns, this.rows);
+  }
+
+  // is this world deferred with nothing built yet?
+  boolean unbuilt() {
+    return this.board == null && this.engine == null && this.chunks == null;
+  }
+
+  // EFFECT: builds this deferred world's board or engine with no mines, so flags can go on
+  // it before the first reveal
+  void build() {
+    if (this.flat) {
+      this.engine = new MSEngine(new FlatBoard(this.topology), this.mines, this.seed);
+    } else {
+      initCells();
+    }
+  }
+
+  // EFFECT: if this world is deferred, builds it and places its mines with the same
+  // generator an eager world uses, keeping (excludeRow, excludeCol) and its neighbors clear
+  // (pass -1, -1 to get exactly the board an eager world with this seed starts with)
+  void materialize(int excludeRow, int excludeCol) {
+    if (!this.deferred) {
+      return;
+    }
+    if (this.unbuilt()) {
+      this.build();
+    }
+    this.deferred = false;
+    placeMines(this.engine != null ? this.engine.rand : this.rand, excludeRow, excludeCol);
+  }
+
+  // EFFECT: creates an engine with a flat board of this world's topology and seed.
+  void initFlat() {
+    this.engine = new MSEngine(this.topology, this.mines, this.seed);
+    this.scene = null;
+  }
+
+  // EFFECT: add rows to this board of new, empty cells, then place the mines.
   void initGrid() {
+    initCells();
+    placeMines();
+  }
+
+  // EFFECT: add rows to this board of new, empty, linked cells.
+  void initCells() {
     this.board = new ArrayList<>();
     for (int i = 0; i < this.rows; i++) {
       ArrayList<Cell> row = new ArrayList<>();
@@ -82,166 +259,300 @@ class MSWorld extends World {
       this.board.add(row);
     }
     linkCells();
-    placeMines();
   }
 
-  // EFFECT: place mines randomly on the board. ensures no mine is placed on one cell twice.
+  // EFFECT: place mines randomly on the board using this world's seeded generator.
+  // every cell's neighboringMines is computed here, once, and read everywhere else.
   void placeMines() {
-    Random rand = new Random();
-    int minesPlaced = 0;
-    while (minesPlaced < this.mines) {
-      int randRow = rand.nextInt(this.rows);
-      int randCol = rand.nextInt(this.columns);
-      Cell cell = this.board.get(randRow).get(randCol);
-      if (!cell.hasMine) {
-        cell.hasMine = true;
-        minesPlaced++;
-      }
-    }
+    placeMines(this.rand, -1, -1);
   }
 
-  // EFFECT: place mines randomly on the board. ensures no mine is placed on one cell twice.
+  // EFFECT: place mines randomly on the board.
   // SEEDED RANDOM FOR TESTING
   void placeMinesForTesting(Random rand) {
-    int minesPlaced = 0;
-    while (minesPlaced < this.mines) {
-      int randRow = rand.nextInt(this.rows);
-      int randCol = rand.nextInt(this.columns);
-      Cell cell = this.board.get(randRow).get(randCol);
-      if (!cell.hasMine) {
-        cell.hasMine = true;
-        minesPlaced++;
+    placeMines(rand, -1, -1);
+  }
+
+  // EFFECT: clears the board's mines and places this.mines new ones with rand, never on the
+  // cell at (excludeRow, excludeCol) or its neighbors (pass -1, -1 to exclude nothing).
+  // the layout always comes from FlatBoard.placeMines, which takes O(mines) draws whatever
+  // the density; a Cell board copies it and then counts every cell once.
+  void placeMines(Random rand, int excludeRow, int excludeCol) {
+    if (this.engine != null) {
+      this.engine.placeMines(rand, excludeRow, excludeCol);
+      return;
+    }
+    FlatBoard layout = new FlatBoard(this.topology);
+    layout.placeMines(this.mines, rand, excludeRow, excludeCol);
+    this.safeHidden = 0;
+    this.mineRevealed = false;
+    for (int i = 0; i < layout.size(); i++) {
+      Cell cell = this.board.get(i / this.columns).get(i % this.columns);
+      cell.hasMine = layout.hasMine(i);
+      if (!cell.hasMine && !cell.isRevealed) {
+        this.safeHidden++;
+      }
+      this.mineRevealed = this.mineRevealed || cell.hasMine && cell.isRevealed;
+    }
+    countAllAdjacentMines();
+  }
+
+  // does the cell at the given flat index have a mine?
+  boolean hasMineAt(int index) {
+    if (this.engine != null) {
+      return this.engine.board.hasMine(index);
+    }
+    return this.board.get(index / this.columns).get(index % this.columns).hasMine;
+  }
+
+  // EFFECT: moves every mine on or next to (row, col) to a random hidden mine-free cell
+  // outside that neighborhood, so a first click there opens an empty region. only the
+  // moved mines' neighborhoods are recounted; the rest of the board is untouched.
+  void relocateMines(int row, int col) {
+    if (this.chunks != null) {
+      this.chunks.keepClear(row, col);
+      return;
+    }
+    if (this.engine != null) {
+      this.engine.board.relocateMines(row, col, this.rand);
+      return;
+    }
+    int size = this.rows * this.columns;
+    int index = row * this.columns + col;
+    int[] clear = new int[this.topology.maxNeighbors() + 1];
+    int n = this.topology.neighbors(index, clear);
+    clear[n] = index;
+    java.util.Arrays.sort(clear, 0, n + 1); // row-major, as the mines were always moved
+    for (int j = 0; j <= n; j++) {
+      if (this.hasMineAt(clear[j])) {
+        int start = this.rand.nextInt(size);
+        for (int k = 0; k < size; k++) {
+          int to = (start + k) % size;
+          if (!this.hasMineAt(to) && !this.revealedAt(to)
+              && to != index && !this.topology.adjacent(to, index)) {
+            this.moveMine(clear[j] / this.columns, clear[j] % this.columns,
+                to / this.columns, to % this.columns);
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  // is the cell at the given flat index revealed?
+  boolean revealedAt(int index) {
+    if (this.engine != null) {
+      return this.engine.board.isRevealed(index);
+    }
+    return this.board.get(index / this.columns).get(index % this.columns).isRevealed;
+  }
+
+  // EFFECT: stores the number of adjacent mines in every cell of the board.
+  void countAllAdjacentMines() {
+    for (ArrayList<Cell> row : this.board) {
+      for (Cell cell : row) {
+        this.countAdjacentMines(cell);
+      }
+    }
+  }
+
+  // EFFECT: moves the mine at (row, col) to the mine-free cell at (toRow, toCol), updating
+  // the stored counts of both neighborhoods instead of recounting the whole board.
+  void moveMine(int row, int col, int toRow, int toCol) {
+    if (this.engine != null) {
+      this.engine.board.moveMine(this.engine.index(row, col), this.engine.index(toRow, toCol));
+      return;
+    }
+    Cell from = this.board.get(row).get(col);
+    Cell to = this.board.get(toRow).get(toCol);
+    if (from.hasMine && !to.hasMine) {
+      from.hasMine = false;
+      for (Cell neighbor : from.neighbors) {
+        neighbor.neighboringMines--;
+      }
+      to.hasMine = true;
+      for (Cell neighbor : to.neighbors) {
+        neighbor.neighboringMines++;
       }
     }
   }
 
-  //EFFECT: links all the cells on the board.
+  //EFFECT: links every cell on the board to the cells the topology says are its neighbors.
   void linkCells() {
+    int[] around = new int[this.topology.maxNeighbors()];
     for (int i = 0; i < this.rows; i++) {
       for (int j = 0; j < this.columns; j++) {
-        // corners
-        // top left
-        if (i == 0 && j == 0) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j + 1)); // to the right
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j)); // down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j + 1)); // right down
-        }
-        // top right
-        else if (i == 0 && j == this.columns - 1) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j - 1)); // to the left
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j)); // down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j - 1)); // left down
-        }
-        // bottom right
-        else if (i == this.rows - 1 && j == this.columns - 1) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j - 1)); // to the left
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j)); // up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j - 1)); // left up
-        }
-        // bottom left
-        else if (i == this.rows - 1 && j == 0) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j + 1)); // to the right
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j)); // up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j + 1)); // right up
-        }
-        // border cells
-        // top row
-        else if (i == 0) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j - 1)); // left
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j + 1)); // right
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j)); // down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j + 1)); // right down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j - 1)); // left down
-        }
-        // bottom row
-        else if (i == this.rows - 1) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j - 1)); // left
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j + 1)); // right
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j)); // up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j + 1)); // right up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j - 1)); // left up
-        }
-        // left side
-        else if (j == 0) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j + 1)); // right
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j)); // up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j)); // down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j + 1)); // right up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j + 1)); // right down
-        }
-        // right side
-        else if (j == this.columns - 1) {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j - 1)); // left
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j)); // up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j)); // down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j - 1)); // left up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j - 1)); // left down
-        }
-        // non-border, non-corner cells
-        else {
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j - 1)); // left
-          this.board.get(i).get(j).addNeighbor(this.board.get(i).get(j + 1)); // right
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j)); // up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j)); // down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j - 1)); // left down
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j - 1)); // left up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i - 1).get(j + 1)); // right up
-          this.board.get(i).get(j).addNeighbor(this.board.get(i + 1).get(j + 1)); // right down
+        int n = this.topology.neighbors(i * this.columns + j, around);
+        for (int k = 0; k < n; k++) {
+          this.board.get(i).get(j).addNeighbor(
+              this.board.get(around[k] / this.columns).get(around[k] % this.columns));
         }
       }
     }
-
   }
 
   // check mouse clicks
   @Override
   public void onMouseClicked(Posn pos, String button) {
-    if (!this.gameOver()) {
+    boolean flag = button.equals("RightButton");
+    if (!this.over && (flag || button.equals("LeftButton"))) {
+      long start = this.metrics == null && this.events == null ? 0 : System.nanoTime();
       int row = pos.y / CELL_SIZE;
-      int col = pos.x / CELL_SIZE;
-      if (button.equals("RightButton")) {
+      int col = Math.floorDiv(pos.x - this.topology.halfShift(row) * CELL_SIZE / 2, CELL_SIZE);
+      if (this.view == null && (col < 0 || col >= this.columns)) {
+        return; // beside a shifted row of a hex board
+      }
+      if (this.view != null) {
+        int index = this.view.cellAt(pos);
+        if (index < 0) {
+          return;
+        }
+        row = index / this.columns;
+        col = index % this.columns;
+      }
+      int opened = 0;
+      if (flag) {
         flagCell(row, col);
-      } else if (button.equals("LeftButton")) {
-        revealCell(row, col);
+      } else {
+        opened = revealCell(row, col);
       }
-      checkWinLoss();
+      int outcome = checkWinLoss();
+      if (this.metrics != null) {
+        this.metrics.click(start, button);
+      }
+      if (this.events != null) {
+        this.events.record(this.session, flag ? MSEngine.FLAG : MSEngine.REVEAL, row, col,
+            opened, outcome, System.nanoTime() - start);
+      }
+    }
+  }
+
+  // EFFECT: from now on records every click on this world to events, as a new session
+  void recordEvents(GameEvents events) {
+    this.events = events;
+    this.session = events.newSession();
+  }
+
+  // pans and zooms the viewport, if there is one
+  @Override
+  public void onKeyEvent(String key) {
+    if (this.view == null) {
+      return;
+    }
+    if (key.equals("left")) {
+      this.view.pan(0, -Viewport.PAN_CELLS);
+    } else if (key.equals("right")) {
+      this.view.pan(0, Viewport.PAN_CELLS);
+    } else if (key.equals("up")) {
+      this.view.pan(-Viewport.PAN_CELLS, 0);
+    } else if (key.equals("down")) {
+      this.view.pan(Viewport.PAN_CELLS, 0);
+    } else if (key.equals("+") || key.equals("=")) {
+      this.view.zoomIn();
+    } else if (key.equals("-")) {
+      this.view.zoomOut();
     }
   }
 
-  // reveals a cell
-  void revealCell(int row, int col) {
+  // EFFECT: reveals a cell, flooding open its whole empty region if it has no adjacent
+  // mines. returns the number of cells opened (0 if it was flagged or already revealed).
+  int revealCell(int row, int col) {
+    if (this.metrics == null) {
+      return this.openCell(row, col);
+    }
+    long start = System.nanoTime();
+    int opened = this.openCell(row, col);
+    this.metrics.flood(start, opened);
+    return opened;
+  }
+
+  // EFFECT: does the work of revealCell, without instrumentation
+  int openCell(int row, int col) {
+    this.materialize(row, col);
+    if (this.engine != null) {
+      // the engine moves the mines itself, so a log of its moves replays the first click
+      this.engine.firstClickSafe = this.firstClickSafe;
+    } else if (this.firstClickSafe && !this.started) {
+      this.relocateMines(row, col);
+    }
+    this.started = true;
+    if (this.chunks != null) {
+      return (int) Math.min(Integer.MAX_VALUE, this.chunks.reveal(row, col));
+    }
+    if (this.engine != null) {
+      int opened = this.engine.reveal(row, col);
+      for (int k = 0; k < opened; k++) {
+        this.markDirty(this.engine.board.queue[k]);
+      }
+      return opened;
+    }
     Cell cell = this.board.get(row).get(col);
     if (!cell.isFlagged && !cell.isRevealed) {
       cell.isRevealed = true;
-      if (!cell.hasMine) {
-        if (this.countAdjacentMines(row, col) == 0) {
-          for (Cell neighbor : cell.neighbors) {
-            neighbor.flood();
-          }
-        }
+      if (cell.hasMine) {
+        this.mineRevealed = true;
+        return 1;
       }
+      int opened = cell.neighboringMines == 0 ? 1 + cell.flood() : 1;
+      this.safeHidden -= opened;
+      return opened;
     }
+    return 0;
   }
 
   //EFFECT: Flags or unflags a cell
   void flagCell(int row, int col) {
+    if (this.unbuilt()) {
+      this.build();
+    }
+    if (this.chunks != null) {
+      this.chunks.flag(row, col);
+      return;
+    }
+    if (this.engine != null) {
+      int index = this.engine.index(row, col);
+      this.engine.flagAt(index);
+      this.markDirty(index);
+      return;
+    }
     Cell cell = this.board.get(row).get(col);
     if (!cell.isRevealed) {
       cell.isFlagged = !cell.isFlagged;
     }
   }
 
-  //EFFECT: Checks for win/loss conditions and ends the game accordingly
-  void checkWinLoss() {
-    if (this.gameWon()) {
+  //EFFECT: Checks for win/loss conditions and ends the game accordingly. O(1) on every
+  //kind of board: a Cell board is judged by its running counters. returns the outcome as
+  //GameEvents.PLAYING, WON or LOST.
+  int checkWinLoss() {
+    long start = this.metrics == null ? 0 : System.nanoTime();
+    int outcome = GameEvents.PLAYING;
+    if (this.board != null ? this.safeHidden == 0 : this.gameWon()) {
+      this.over = true;
       this.endOfWorld("You win!");
-    } else if (this.gameLost()) {
+      outcome = GameEvents.WON;
+    } else if (this.board != null ? this.mineRevealed : this.gameLost()) {
+      this.over = true;
       this.endOfWorld("Game over! You hit a mine.");
+      outcome = GameEvents.LOST;
+    }
+    if (this.metrics != null) {
+      this.metrics.winLoss(start, outcome == GameEvents.WON ? "WON"
+          : outcome == GameEvents.LOST ? "LOST" : "PLAYING");
     }
+    return outcome;
   }
 
-  //Determines if the game is won
+  //Determines if the game is won. O(1) on a flat board, which keeps running counters;
+  //a Cell board is scanned since its fields can be changed directly (checkWinLoss uses
+  //the world's counters instead).
   boolean gameWon() {
+    if (this.chunks != null) {
+      return this.chunks.isWon();
+    }
+    if (this.engine != null) {
+      return this.engine.isWon();
+    }
     for (ArrayList<Cell> row : this.board) {
       for (Cell cell : row) {
         if (!cell.hasMine && !cell.isRevealed) {
@@ -252,8 +563,14 @@ class MSWorld extends World {
     return true;
   }
 
-  // Determines if the game is lost
+  // Determines if the game is lost. O(1) on a flat board, a scan on a Cell board.
   boolean gameLost() {
+    if (this.chunks != null) {
+      return this.chunks.isLost();
+    }
+    if (this.engine != null) {
+      return this.engine.isLost();
+    }
     for (ArrayList<Cell> row : this.board) {
       for (Cell cell : row) {
         if (cell.hasMine && cell.isRevealed) {
@@ -261,7 +578,6 @@ class MSWorld extends World {
         }
       }
     }
-    this.makeScene();
     return false;
   }
 
@@ -272,6 +588,12 @@ class MSWorld extends World {
 
   //Counts the number of adjacent mines to a cell
   int countAdjacentMines(int row, int col) {
+    if (this.engine != null) {
+      int index = this.engine.index(row, col);
+      int count = this.engine.board.countAdjacentMines(index);
+      this.engine.board.setNeighboringMines(index, count);
+      return count;
+    }
     int count = 0;
     for (Cell neighbor : this.board.get(row).get(col).neighbors) {
       if (neighbor.hasMine) {
@@ -294,35 +616,188 @@ class MSWorld extends World {
     return count;
   }
 
-  //to create the WorldScene.
+  // EFFECT: records that the flat cell at index must be placed again on the next frame.
+  // once more cells are dirty than the board holds, the next frame is simply rebuilt.
+  void markDirty(int index) {
+    if (this.redrawAll) {
+      return;
+    }
+    if (this.dirtyCount >= this.engine.board.size()) {
+      this.redrawAll = true;
+      this.dirtyCount = 0;
+      return;
+    }
+    if (this.dirtyCount == this.dirty.length) {
+      this.dirty = java.util.Arrays.copyOf(this.dirty,
+          Math.min(this.dirty.length * 2, this.engine.board.size()));
+    }
+    this.dirty[this.dirtyCount] = index;
+    this.dirtyCount++;
+  }
+
+  //to create the WorldScene, timing it when instrumented
   @Override
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(columns * CELL_SIZE, rows * CELL_SIZE);
+    if (this.metrics == null) {
+      return this.buildScene();
+    }
+    long start = System.nanoTime();
+    int drawn = this.cellsToDraw();
+    WorldScene scene = this.buildScene();
+    this.metrics.scene(start, drawn);
+    return scene;
+  }
+
+  // returns how many cells the next buildScene will place
+  int cellsToDraw() {
+    if (this.view != null) {
+      return (int) Math.min((long) this.view.visibleRows() * this.view.visibleColumns(),
+          (long) this.rows * this.columns);
+    }
+    if (this.unbuilt()) {
+      return 1;
+    }
+    if (this.engine == null || this.scene == null || this.redrawAll
+        || this.placedSinceRebuild > this.engine.board.size()) {
+      return this.columns * this.rows;
+    }
+    return this.dirtyCount;
+  }
+
+  //builds the next frame. on a flat board the previous frame is reused and only the
+  //dirty cells are placed over it; it is rebuilt once it has collected as many stale
+  //images as the board has cells.
+  WorldScene buildScene() {
+    if (this.view != null) {
+      this.dirtyCount = 0;
+      return this.view.draw(this);
+    }
+    if (this.unbuilt()) {
+      return this.hiddenScene();
+    }
+    if (this.engine == null) {
+      return this.drawScene();
+    }
+    if (this.scene == null || this.redrawAll
+        || this.placedSinceRebuild > this.engine.board.size()) {
+      this.scene = this.drawScene();
+      this.placedSinceRebuild = 0;
+      this.redrawAll = false;
+    } else {
+      for (int k = 0; k < this.dirtyCount; k++) {
+        int index = this.dirty[k];
+        this.scene.placeImageXY(this.drawFlatCell(index),
+            this.centerX(index / columns, index % columns),
+            (index / columns) * CELL_SIZE + CELL_SIZE / 2);
+      }
+      this.placedSinceRebuild += this.dirtyCount;
+    }
+    this.dirtyCount = 0;
+    return this.scene;
+  }
+
+  // draws every cell of the board onto a new scene
+  WorldScene drawScene() {
+    WorldScene scene = new WorldScene(this.sceneWidth(), rows * CELL_SIZE);
     for (int i = 0; i < rows; i++) {
       for (int j = 0; j < columns; j++) {
-        Cell cell = board.get(i).get(j);
-        WorldImage cellImage = drawCell(cell);
-        scene.placeImageXY(cellImage,
-            j * CELL_SIZE + CELL_SIZE / 2, i * CELL_SIZE + CELL_SIZE / 2);
+        scene.placeImageXY(TILES[this.tileAt(i, j)],
+            this.centerX(i, j), i * CELL_SIZE + CELL_SIZE / 2);
       }
     }
     return scene;
   }
 
+  // draws a board that has not been built: one hidden-colored rectangle, whatever its size
+  WorldScene hiddenScene() {
+    WorldScene scene = new WorldScene(this.sceneWidth(), rows * CELL_SIZE);
+    scene.placeImageXY(new OverlayImage(
+        new RectangleImage(scene.width, scene.height, OutlineMode.OUTLINE, Color.BLACK),
+        new RectangleImage(scene.width, scene.height, OutlineMode.SOLID, Color.LIGHT_GRAY)),
+        scene.width / 2, scene.height / 2);
+    return scene;
+  }
+
+  // returns the x coordinate of the center of the cell at (row, col). rows the topology
+  // shifts (hex boards) are drawn half a cell further right.
+  int centerX(int row, int col) {
+    return col * CELL_SIZE + CELL_SIZE / 2 + this.topology.halfShift(row) * CELL_SIZE / 2;
+  }
+
+  // returns the width of the whole board in pixels, with room for any shifted rows
+  int sceneWidth() {
+    int shift = 0;
+    for (int row = 0; row < Math.min(2, this.rows); row++) {
+      shift = Math.max(shift, this.topology.halfShift(row));
+    }
+    return columns * CELL_SIZE + shift * CELL_SIZE / 2;
+  }
+
+  // returns the visual state of the cell at (row, col), on any kind of board
+  int tileAt(int row, int col) {
+    if (this.unbuilt()) {
+      return HIDDEN_TILE;
+    } else if (this.chunks != null) {
+      return this.chunks.visible(row, col);
+    } else if (this.engine != null) {
+      return this.engine.visible(this.engine.index(row, col));
+    }
+    Cell cell = this.board.get(row).get(col);
+    return tileFor(cell.hasMine, cell.isRevealed, cell.isFlagged, cell.neighboringMines);
+  }
+
   // EFFECT: draws a cell and places it on the initial image.
   WorldImage drawCell(Cell cell) {
+    return drawTile(cell.hasMine, cell.isRevealed, cell.isFlagged, cell.neighboringMines);
+  }
+
+  // draws the engine's cell at index
+  WorldImage drawFlatCell(int index) {
+    return TILES[this.engine.visible(index)];
+  }
+
+  // returns the cached image of a cell with the given state and adjacent mine count
+  WorldImage drawTile(boolean hasMine, boolean isRevealed, boolean isFlagged, int count) {
+    return TILES[tileFor(hasMine, isRevealed, isFlagged, count)];
+  }
+
+  // returns the visual state of a cell: its count if revealed and safe, otherwise
+  // HIDDEN_TILE, FLAG_TILE or MINE_TILE
+  static int tileFor(boolean hasMine, boolean isRevealed, boolean isFlagged, int count) {
+    if (hasMine && isRevealed && !isFlagged) {
+      return MINE_TILE;
+    } else if (!hasMine && isRevealed && !isFlagged) {
+      return count;
+    } else if (isFlagged && !isRevealed) {
+      return FLAG_TILE;
+    } else {
+      return HIDDEN_TILE;
+    }
+  }
+
+  // builds the image for every visual state, indexed by tileFor
+  static WorldImage[] buildTiles() {
+    WorldImage[] tiles = new WorldImage[12];
+    for (int tile = 0; tile < tiles.length; tile++) {
+      tiles[tile] = buildTile(tile);
+    }
+    return tiles;
+  }
+
+  // builds the image for one visual state
+  static WorldImage buildTile(int tile) {
     WorldImage cellImage;
-    if (cell.hasMine && cell.isRevealed && !cell.isFlagged) {
+    if (tile == MINE_TILE) {
       cellImage = new OverlayImage(
           new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.OUTLINE, Color.BLACK),
           new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.SOLID, Color.RED));
-    } else if (!cell.hasMine && cell.isRevealed && !cell.isFlagged) {
+    } else if (tile < HIDDEN_TILE) {
       cellImage = new OverlayImage(
-          new TextImage(this.countAdjacentMines(cell) + "", Color.WHITE),
+          new TextImage(tile + "", Color.WHITE),
           new OverlayImage(
           new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.OUTLINE, Color.BLACK),
           new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.SOLID, Color.BLUE)));
-    } else if (cell.isFlagged && !cell.isRevealed) {
+    } else if (tile == FLAG_TILE) {
       cellImage = new OverlayImage(
           new TextImage("▲", Color.ORANGE),
           new OverlayImage(
@@ -338,7 +813,8 @@ class MSWorld extends World {
 
   // to create the ending scene for the game
   public WorldScene lastScene(String msg) {
-    WorldScene scene = new WorldScene(columns * CELL_SIZE, rows * CELL_SIZE);
+    WorldScene scene = this.view != null ? new WorldScene(this.view.width, this.view.height)
+        : new WorldScene(this.sceneWidth(), rows * CELL_SIZE);
     scene.placeImageXY(
         new TextImage(msg, Color.BLUE), scene.width / 2, scene.height / 2);
     return scene;
@@ -346,27 +822,6 @@ class MSWorld extends World {
 
 }
 
-// hold utility methods.
-class Utils {
-  Utils() {}
-
-  // returns true if all args > 0. throws exception with given message otherwise.
-  boolean overZero(int a, int b, int c, String msg) {
-    if (a > 0 && b > 0 && c > 0) {
-      return true;
-    }
-    throw new IllegalArgumentException(msg);
-  }
-
-  // returns true if m > r * c. throws exception with given message otherwise.
-  boolean notAbove(int c, int r, int m, String msg) {
-    if (m < r * c) {
-      return true;
-    }
-    throw new IllegalArgumentException(msg);
-  }
-}
-
 //examples and tests
 class ExamplesMinesweeper {
   ExamplesMinesweeper(){}
@@ -658,6 +1113,7 @@ class ExamplesMinesweeper {
       }
     }
     testWorld.board.get(0).get(0).hasMine = true;
+    testWorld.countAllAdjacentMines(); // counts are stored at placement, so recount after edits
     testWorld.countAdjacentMines(testWorld.board.get(0).get(1));
     t.checkExpect(testWorld.board.get(0).get(0).neighboringMines, 0);
     t.checkExpect(testWorld.board.get(0).get(1).neighboringMines, 1);
@@ -681,6 +1137,348 @@ class ExamplesMinesweeper {
     t.checkExpect(testWorld.lastScene("You lose."), scene);
   }
 
+  // to test a world backed by a flat board
+  void testFlatWorld(Tester t) {
+    MSWorld flatWorld = new MSWorld(4, 3, 1, true);
+    t.checkExpect(flatWorld.board, null);
+    t.checkExpect(flatWorld.engine.board.size(), 12);
+    int mines = 0;
+    for (int i = 0; i < flatWorld.engine.board.size(); i++) {
+      if (flatWorld.engine.board.hasMine(i)) {
+        mines++;
+      }
+    }
+    t.checkExpect(mines, 1);
+
+    flatWorld.engine.board = new FlatBoard(4, 3);
+    flatWorld.engine.board.placeMine(flatWorld.engine.board.index(0, 3));
+    t.checkExpect(flatWorld.countAdjacentMines(1, 2), 1);
+    t.checkExpect(flatWorld.countAdjacentMines(2, 0), 0);
+    flatWorld.flagCell(2, 0);
+    t.checkExpect(flatWorld.engine.board.isFlagged(8), true);
+    flatWorld.revealCell(2, 0);
+    t.checkExpect(flatWorld.engine.board.isRevealed(8), false);
+    flatWorld.flagCell(2, 0);
+    flatWorld.flagCell(1, 3);
+    flatWorld.revealCell(1, 1);
+    t.checkExpect(flatWorld.engine.board.isRevealed(5), true);
+    t.checkExpect(flatWorld.engine.board.isRevealed(0), true);
+    t.checkExpect(flatWorld.engine.board.isRevealed(8), true);
+    t.checkExpect(flatWorld.engine.board.isRevealed(7), false);
+    t.checkExpect(flatWorld.gameWon(), false);
+    t.checkExpect(flatWorld.gameLost(), false);
+    flatWorld.revealCell(0, 3);
+    t.checkExpect(flatWorld.gameLost(), true);
+
+    WorldScene scene = flatWorld.makeScene();
+    t.checkExpect(scene.width, 120);
+    t.checkExpect(scene.height, 90);
+  }
+
+  // to test that a seed always gives the same board, in both board modes
+  void testSeededPlacement(Tester t) {
+    MSWorld a = new MSWorld(30, 16, 99, true, 42L);
+    MSWorld b = new MSWorld(30, 16, 99, true, 42L);
+    MSWorld c = new MSWorld(30, 16, 99, false, 42L);
+    t.checkExpect(a.engine.board.cells, b.engine.board.cells);
+    t.checkExpect(a.engine.board.mineCount, 99);
+    for (int i = 0; i < a.engine.board.size(); i++) {
+      t.checkExpect(c.hasMineAt(i), a.engine.board.hasMine(i));
+    }
+  }
+
+  // to test placement on the densest board allowed and with an excluded neighborhood
+  void testDensePlacement(Tester t) {
+    MSWorld dense = new MSWorld(50, 50, 2499, true, 7L);
+    t.checkExpect(dense.engine.board.mineCount, 2499);
+    dense.placeMines(new Random(3), 10, 10);
+    t.checkExpect(dense.engine.board.mineCount, 2499);
+    t.checkExpect(dense.engine.board.hasMine(dense.engine.board.index(10, 10)), false);
+
+    MSWorld world = new MSWorld(5, 5, 16, false, 9L);
+    for (int n = 0; n < 20; n++) {
+      world.placeMines(new Random(n), 0, 4);
+      int mines = 0;
+      for (int i = 0; i < 25; i++) {
+        if (world.hasMineAt(i)) {
+          mines++;
+        }
+      }
+      t.checkExpect(mines, 16);
+      t.checkExpect(world.hasMineAt(3) || world.hasMineAt(4)
+          || world.hasMineAt(8) || world.hasMineAt(9), false);
+      t.checkExpect(world.board.get(2).get(2).neighboringMines,
+          world.countAdjacentMines(world.board.get(2).get(2)));
+    }
+  }
+
+  // to test that the first click is kept clear when firstClickSafe is set
+  void testFirstClickSafe(Tester t) {
+    for (long s = 0; s < 20; s++) {
+      MSWorld world = new MSWorld(9, 9, 30, true, s);
+      world.firstClickSafe = true;
+      t.checkExpect(world.revealCell(4, 4) > 1, true);
+      t.checkExpect(world.engine.board.neighboringMines(world.engine.board.index(4, 4)), 0);
+      t.checkExpect(world.engine.board.mineCount, 30);
+      t.checkExpect(world.gameLost(), false);
+      for (int i = 0; i < world.engine.board.size(); i++) {
+        t.checkExpect(world.engine.board.neighboringMines(i),
+            world.engine.board.countAdjacentMines(i));
+      }
+      MSWorld cells = new MSWorld(9, 9, 30, false, s);
+      cells.firstClickSafe = true;
+      cells.revealCell(0, 0);
+      t.checkExpect(cells.board.get(0).get(0).neighboringMines, 0);
+    }
+  }
+
+  // to test that placeMines fills in every cell's count
+  void testPlacedCounts(Tester t) {
+    init();
+    for (ArrayList<Cell> row : testWorld.board) {
+      for (Cell cell : row) {
+        int count = cell.neighboringMines;
+        t.checkExpect(testWorld.countAdjacentMines(cell), count);
+      }
+    }
+    MSWorld flatWorld = new MSWorld(30, 16, 99, true);
+    for (int i = 0; i < flatWorld.engine.board.size(); i++) {
+      t.checkExpect(flatWorld.engine.board.neighboringMines(i),
+          flatWorld.engine.board.countAdjacentMines(i));
+    }
+  }
+
+  // to test moving a mine keeps the counts correct
+  void testMoveMine(Tester t) {
+    testWorld = new MSWorld(3, 3, 1);
+    for (ArrayList<Cell> row : testWorld.board) {
+      for (Cell cell : row) {
+        cell.hasMine = false;
+      }
+    }
+    testWorld.board.get(0).get(0).hasMine = true;
+    testWorld.countAllAdjacentMines();
+    t.checkExpect(testWorld.board.get(1).get(1).neighboringMines, 1);
+    testWorld.moveMine(0, 0, 2, 2);
+    t.checkExpect(testWorld.board.get(0).get(0).hasMine, false);
+    t.checkExpect(testWorld.board.get(2).get(2).hasMine, true);
+    t.checkExpect(testWorld.board.get(0).get(1).neighboringMines, 0);
+    t.checkExpect(testWorld.board.get(1).get(1).neighboringMines, 1);
+    t.checkExpect(testWorld.board.get(2).get(1).neighboringMines, 1);
+
+    MSWorld flatWorld = new MSWorld(3, 3, 1, true);
+    flatWorld.engine.board = new FlatBoard(3, 3);
+    flatWorld.engine.board.placeMine(0);
+    flatWorld.moveMine(0, 0, 2, 2);
+    t.checkExpect(flatWorld.engine.board.neighboringMines(1), 0);
+    t.checkExpect(flatWorld.engine.board.neighboringMines(7), 1);
+  }
+
+  // to test that revealCell floods a whole region in both board modes
+  void testRevealFlood(Tester t) {
+    testWorld = new MSWorld(5, 4, 1);
+    for (ArrayList<Cell> row : testWorld.board) {
+      for (Cell cell : row) {
+        cell.hasMine = false;
+      }
+    }
+    testWorld.board.get(0).get(4).hasMine = true;
+    testWorld.countAllAdjacentMines();
+    testWorld.board.get(3).get(0).isFlagged = true;
+    t.checkExpect(testWorld.revealCell(3, 3), 18);
+    t.checkExpect(testWorld.board.get(0).get(0).isRevealed, true);
+    t.checkExpect(testWorld.board.get(0).get(3).isRevealed, true);
+    t.checkExpect(testWorld.board.get(0).get(4).isRevealed, false);
+    t.checkExpect(testWorld.board.get(3).get(0).isRevealed, false);
+    t.checkExpect(testWorld.revealCell(3, 3), 0);
+
+    MSWorld flatWorld = new MSWorld(5, 4, 1, true);
+    flatWorld.engine.board = new FlatBoard(5, 4);
+    flatWorld.engine.board.placeMine(flatWorld.engine.board.index(0, 4));
+    t.checkExpect(flatWorld.revealCell(0, 3), 1);
+    t.checkExpect(flatWorld.revealCell(3, 0), 18);
+    t.checkExpect(flatWorld.gameWon(), true);
+  }
+
+  // to test that a Cell board's counters decide the game without a scan
+  void testCellCounters(Tester t) {
+    MSWorld world = new MSWorld(4, 3, 1, false, 2L);
+    t.checkExpect(world.safeHidden, 11);
+    t.checkExpect(world.mineRevealed, false);
+    int mine = 0;
+    while (!world.hasMineAt(mine)) {
+      mine++;
+    }
+    for (int i = 0; i < 12 && !world.over; i++) {
+      if (i != mine) {
+        world.onMouseClicked(new Posn((i % 4) * MSWorld.CELL_SIZE + 1,
+            (i / 4) * MSWorld.CELL_SIZE + 1), "LeftButton");
+      }
+    }
+    t.checkExpect(world.safeHidden, 0);
+    t.checkExpect(world.over, true);
+    t.checkExpect(world.gameWon(), true);
+    MSWorld lost = new MSWorld(4, 3, 1, false, 2L);
+    lost.onMouseClicked(new Posn((mine % 4) * MSWorld.CELL_SIZE + 1,
+        (mine / 4) * MSWorld.CELL_SIZE + 1), "LeftButton");
+    t.checkExpect(lost.mineRevealed, true);
+    t.checkExpect(lost.over, true);
+    t.checkExpect(lost.gameLost(), true);
+  }
+
+  // to test that clicks stop once checkWinLoss has ended the game
+  void testClicksAfterGameOver(Tester t) {
+    MSWorld flatWorld = new MSWorld(3, 3, 1, true);
+    flatWorld.engine.board = new FlatBoard(3, 3);
+    flatWorld.engine.board.placeMine(4);
+    flatWorld.onMouseClicked(new Posn(75, 75), "LeftButton");
+    t.checkExpect(flatWorld.over, false);
+    flatWorld.onMouseClicked(new Posn(35, 35), "LeftButton");
+    t.checkExpect(flatWorld.over, true);
+    t.checkExpect(flatWorld.gameLost(), true);
+    flatWorld.onMouseClicked(new Posn(5, 5), "RightButton");
+    t.checkExpect(flatWorld.engine.board.isFlagged(0), false);
+    t.checkExpect(flatWorld.engine.board.flagsPlaced, 0);
+  }
+
+  // to test a world showing the corner of a chunked board
+  void testChunkedWorld(Tester t) {
+    ChunkedBoard chunks = new ChunkedBoard(1000000L, 1000000L, 150000000000L, 3L);
+    MSWorld world = new MSWorld(chunks, 30, 16);
+    t.checkExpect(world.columns, 30);
+    t.checkExpect(world.board, null);
+    t.checkExpect(world.engine, null);
+    t.checkExpect(world.makeScene().width, 30 * MSWorld.CELL_SIZE);
+    t.checkExpect(chunks.built, 0L);
+    world.firstClickSafe = true;
+    world.onMouseClicked(new Posn(5 * MSWorld.CELL_SIZE + 1, 5 * MSWorld.CELL_SIZE + 1),
+        "LeftButton");
+    t.checkExpect(chunks.visible(5, 5), 0);
+    t.checkExpect(world.over, false);
+    world.onMouseClicked(new Posn(20 * MSWorld.CELL_SIZE + 1, 1), "RightButton");
+    t.checkExpect(chunks.visible(0, 20) == MSEngine.FLAGGED
+        || chunks.visible(0, 20) < MSEngine.HIDDEN, true);
+    t.checkExpect(chunks.loaded.size() <= chunks.maxChunks, true);
+  }
+
+  // to test that tiles are prebuilt and shared
+  void testTileCache(Tester t) {
+    init();
+    t.checkExpect(MSWorld.tileFor(false, false, false, 3), MSWorld.HIDDEN_TILE);
+    t.checkExpect(MSWorld.tileFor(false, true, false, 3), 3);
+    t.checkExpect(MSWorld.tileFor(true, true, false, 3), MSWorld.MINE_TILE);
+    t.checkExpect(MSWorld.tileFor(true, false, true, 3), MSWorld.FLAG_TILE);
+    t.checkExpect(testWorld.drawTile(false, true, false, 2)
+        == testWorld.drawTile(false, true, false, 2), true);
+    t.checkExpect(testWorld.drawTile(false, true, false, 2), new OverlayImage(
+        new TextImage("2", Color.WHITE),
+        new OverlayImage(
+            new RectangleImage(MSWorld.CELL_SIZE, MSWorld.CELL_SIZE,
+                OutlineMode.OUTLINE, Color.BLACK),
+            new RectangleImage(MSWorld.CELL_SIZE, MSWorld.CELL_SIZE,
+                OutlineMode.SOLID, Color.BLUE))));
+  }
+
+  // to test that a flat world only redraws dirty cells between frames
+  void testDirtyRendering(Tester t) {
+    MSWorld flatWorld = new MSWorld(4, 4, 1, true);
+    flatWorld.engine.board = new FlatBoard(4, 4);
+    flatWorld.engine.board.placeMine(0);
+    WorldScene first = flatWorld.makeScene();
+    t.checkExpect(flatWorld.dirtyCount, 0);
+    flatWorld.flagCell(0, 0);
+    flatWorld.revealCell(0, 1);
+    t.checkExpect(flatWorld.dirtyCount, 2);
+    t.checkExpect(flatWorld.makeScene() == first, true);
+    t.checkExpect(flatWorld.dirtyCount, 0);
+    t.checkExpect(flatWorld.placedSinceRebuild, 2);
+    flatWorld.revealCell(3, 3);
+    t.checkExpect(flatWorld.redrawAll, false);
+    t.checkExpect(flatWorld.dirtyCount, 14);
+    flatWorld.flagCell(0, 0);
+    flatWorld.flagCell(0, 0);
+    flatWorld.flagCell(0, 0);
+    t.checkExpect(flatWorld.redrawAll, true);
+    t.checkExpect(flatWorld.makeScene() == first, false);
+    t.checkExpect(flatWorld.redrawAll, false);
+    t.checkExpect(flatWorld.placedSinceRebuild, 0);
+  }
+
+  // to test drawTile against drawCell
+  void testDrawTile(Tester t) {
+    init();
+    Cell cell = new Cell(false);
+    cell.isFlagged = true;
+    t.checkExpect(testWorld.drawTile(false, false, true, 0), testWorld.drawCell(cell));
+    cell.isFlagged = false;
+    cell.isRevealed = true;
+    t.checkExpect(testWorld.drawTile(false, true, false, 0), testWorld.drawCell(cell));
+  }
+
+  // to test worlds on other topologies: both kinds of board link and count the same
+  // neighbors, and hex rows are drawn and clicked half a cell over
+  void testTopologies(Tester t) {
+    MSWorld torus = new MSWorld(new TorusTopology(6, 5), 8, false, 3L);
+    t.checkExpect(torus.board.get(0).get(0).neighbors.size(), 8);
+    MSWorld flatTorus = new MSWorld(new TorusTopology(6, 5), 8, true, 3L);
+    for (int i = 0; i < 30; i++) {
+      t.checkExpect(flatTorus.engine.board.neighboringMines(i),
+          torus.board.get(i / 6).get(i % 6).neighboringMines);
+    }
+    MSWorld hex = new MSWorld(new HexTopology(4, 3), 1, true, 1L);
+    hex.engine.board = new FlatBoard(hex.topology);
+    hex.engine.board.placeMine(11);
+    t.checkExpect(hex.sceneWidth(), 4 * MSWorld.CELL_SIZE + MSWorld.CELL_SIZE / 2);
+    t.checkExpect(hex.centerX(1, 0), MSWorld.CELL_SIZE);
+    t.checkExpect(hex.centerX(2, 0), MSWorld.CELL_SIZE / 2);
+    hex.onMouseClicked(new Posn(5, 35), "RightButton"); // left of row 1's first cell
+    t.checkExpect(hex.engine.board.flagsPlaced, 0);
+    hex.onMouseClicked(new Posn(20, 35), "RightButton");
+    t.checkExpect(hex.engine.board.isFlagged(4), true);
+    hex.onMouseClicked(new Posn(20, 5), "LeftButton");
+    t.checkExpect(hex.engine.visible(0), 0);
+    t.checkExpect(hex.engine.visible(6), 1); // touches the mine at row 2, column 3
+    t.checkExpect(hex.engine.visible(7), 1);
+    t.checkExpect(hex.makeScene().width, hex.sceneWidth());
+    t.checkException(new IllegalArgumentException("Saving needs the square topology."),
+        hex, "save", java.nio.file.Paths.get("hex.board"));
+  }
+
+  // to test worlds that build nothing until they are played
+  void testDeferred(Tester t) {
+    MSWorld big = new MSWorld(new SquareTopology(4000, 4000), 100000, true, 2L, true);
+    t.checkExpect(big.unbuilt(), true);
+    t.checkExpect(big.cellsToDraw(), 1);
+    t.checkExpect(big.makeScene(), big.hiddenScene());
+    t.checkExpect(big.tileAt(3999, 0), MSWorld.HIDDEN_TILE);
+    MSWorld flat = new MSWorld(new SquareTopology(30, 16), 99, true, 4L, true);
+    flat.onMouseClicked(new Posn(15 * MSWorld.CELL_SIZE + 1, 8 * MSWorld.CELL_SIZE + 1),
+        "LeftButton");
+    t.checkExpect(flat.deferred, false);
+    t.checkExpect(flat.engine.visible(8, 15), 0);
+    t.checkExpect(flat.engine.board.mineCount, 99);
+    t.checkExpect(flat.over, false);
+    MSWorld eager = new MSWorld(30, 16, 99, true, 4L);
+    MSWorld saved = new MSWorld(new SquareTopology(30, 16), 99, true, 4L, true);
+    saved.snapshot();
+    t.checkExpect(saved.engine.board.cells, eager.engine.board.cells);
+    MSWorld cells = new MSWorld(new SquareTopology(9, 9), 70, false, 5L, true);
+    cells.flagCell(0, 0);
+    t.checkExpect(cells.board.get(0).get(0).isFlagged, true);
+    t.checkExpect(cells.hasMineAt(40), false);
+    t.checkExpect(cells.deferred, true);
+    cells.revealCell(4, 4);
+    t.checkExpect(cells.countAdjacentMines(4, 4), 0);
+    t.checkExpect(cells.board.get(4).get(4).isRevealed, true);
+    t.checkExpect(cells.board.get(0).get(0).isFlagged, true);
+    MSWorld grid = new MSWorld(new SquareTopology(9, 9), 30, false, 5L, true);
+    grid.materialize(-1, -1);
+    MSWorld eagerGrid = new MSWorld(9, 9, 30, false, 5L);
+    for (int i = 0; i < 81; i++) {
+      t.checkExpect(grid.hasMineAt(i), eagerGrid.hasMineAt(i));
+    }
+  }
+
   // not rly a test: just to see what the board looks like. uncomment to run.
 
   void testBigBang(Tester t) {
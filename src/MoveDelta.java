@@ -0,0 +1,470 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import tester.*;
+
+// to represent what changed on screen between two points of a game: the cells whose visible
+// state (MSEngine.visible) changed, in increasing flat index, with their new states. from and
+// to count the engine's moves, so a delta brings a view that has seen from moves up to to.
+// a delta is sent as bytes: varints for from, to and the cell count, then each run of
+// consecutive indices as a varint gap from the end of the last run, a varint length, and the
+// run's states packed two to a byte. a flood opens runs of whole rows, so it costs about
+// half a byte per cell instead of a board.
+class MoveDelta {
+  long from;
+  long to;
+  int count;
+  int[] indices; // increasing
+  byte[] values; // values[k] is the new visible state of indices[k]
+
+  MoveDelta(long from, long to, int[] indices, byte[] values, int count) {
+    this.from = from;
+    this.to = to;
+    this.indices = indices;
+    this.values = values;
+    this.count = count;
+  }
+
+  // returns the delta of the move engine just applied: the flagged cell, or every cell it
+  // opened (engine.board.queue[0, opened))
+  static MoveDelta of(MSEngine engine, int move, int opened) {
+    int[] indices;
+    if ((move & 1) == MSEngine.FLAG) {
+      indices = new int[] {move >>> 1};
+    } else {
+      indices = MoveDelta.sorted(engine.board.queue, opened);
+    }
+    return MoveDelta.states(engine, engine.movesApplied - 1, engine.movesApplied, indices,
+        indices.length);
+  }
+
+  // returns the first count of the distinct indices in queue, in increasing order. they are
+  // set in a bitset over the span from the least to the greatest and read back a word at a
+  // time, which is linear where sorting a large flood is not.
+  static int[] sorted(int[] queue, int count) {
+    int min = Integer.MAX_VALUE;
+    int max = -1;
+    for (int k = 0; k < count; k++) {
+      min = Math.min(min, queue[k]);
+      max = Math.max(max, queue[k]);
+    }
+    int[] indices = new int[count];
+    if (count == 0) {
+      return indices;
+    }
+    long[] bits = new long[((max - min) >>> 6) + 1];
+    for (int k = 0; k < count; k++) {
+      int offset = queue[k] - min;
+      bits[offset >>> 6] |= 1L << offset;
+    }
+    int n = 0;
+    for (int w = 0; w < bits.length; w++) {
+      for (long word = bits[w]; word != 0; word &= word - 1) {
+        indices[n] = min + (w << 6) + Long.numberOfTrailingZeros(word);
+        n++;
+      }
+    }
+    return indices;
+  }
+
+  // returns a delta from no moves to engine's current state: every cell that isn't hidden
+  static MoveDelta keyframe(MSEngine engine) {
+    int[] indices = new int[64];
+    int count = 0;
+    for (int i = 0; i < engine.board.size(); i++) {
+      if (engine.board.isRevealed(i) || engine.board.isFlagged(i)) {
+        if (count == indices.length) {
+          indices = Arrays.copyOf(indices, count * 2);
+        }
+        indices[count] = i;
+        count++;
+      }
+    }
+    return MoveDelta.states(engine, 0, engine.movesApplied, indices, count);
+  }
+
+  // returns the delta setting the first count cells of indices to their states on engine
+  static MoveDelta states(MSEngine engine, long from, long to, int[] indices, int count) {
+    byte[] values = new byte[count];
+    for (int k = 0; k < count; k++) {
+      values[k] = (byte) engine.visible(indices[k]);
+    }
+    return new MoveDelta(from, to, indices, values, count);
+  }
+
+  // returns one delta doing what the given deltas do in order, each starting where the one
+  // before it ends. a cell changed by several keeps its latest state.
+  static MoveDelta coalesce(MoveDelta... deltas) {
+    if (deltas.length == 1) {
+      return deltas[0];
+    }
+    int total = 0;
+    for (MoveDelta delta : deltas) {
+      total += delta.count;
+    }
+    // sort by index, then by the order the changes came in, so the last of each index wins
+    long[] keys = new long[total];
+    int at = 0;
+    for (MoveDelta delta : deltas) {
+      for (int k = 0; k < delta.count; k++) {
+        keys[at] = (long) delta.indices[k] << 32 | at;
+        at++;
+      }
+    }
+    Arrays.sort(keys);
+    byte[] all = new byte[total];
+    at = 0;
+    for (MoveDelta delta : deltas) {
+      System.arraycopy(delta.values, 0, all, at, delta.count);
+      at += delta.count;
+    }
+    int[] indices = new int[total];
+    byte[] values = new byte[total];
+    int count = 0;
+    for (int k = 0; k < total; k++) {
+      int index = (int) (keys[k] >>> 32);
+      if (k + 1 < total && (int) (keys[k + 1] >>> 32) == index) {
+        continue; // a later change to the same cell follows
+      }
+      indices[count] = index;
+      values[count] = all[(int) keys[k]];
+      count++;
+    }
+    return new MoveDelta(deltas[0].from, deltas[deltas.length - 1].to, indices, values, count);
+  }
+
+  // returns this delta's bytes
+  byte[] encode() {
+    byte[] out = new byte[3 * 10 + 7 * this.count];
+    int at = MoveDelta.putVarint(out, 0, this.from);
+    at = MoveDelta.putVarint(out, at, this.to);
+    at = MoveDelta.putVarint(out, at, this.count);
+    int end = 0; // one past the last index of the previous run
+    for (int k = 0; k < this.count;) {
+      int run = 1;
+      while (k + run < this.count && this.indices[k + run] == this.indices[k] + run) {
+        run++;
+      }
+      at = MoveDelta.putVarint(out, at, this.indices[k] - end);
+      at = MoveDelta.putVarint(out, at, run);
+      for (int j = 0; j < run; j += 2) {
+        int high = j + 1 < run ? this.values[k + j + 1] : 0;
+        out[at] = (byte) (this.values[k + j] | high << 4);
+        at++;
+      }
+      end = this.indices[k] + run;
+      k += run;
+    }
+    return Arrays.copyOf(out, at);
+  }
+
+  // returns the delta encoded in bytes
+  static MoveDelta decode(byte[] bytes) {
+    DeltaReader in = new DeltaReader(bytes);
+    long from = in.varint();
+    long to = in.varint();
+    int count = (int) in.varint();
+    int[] indices = new int[count];
+    byte[] values = new byte[count];
+    int k = 0;
+    int end = 0;
+    while (k < count) {
+      int start = end + (int) in.varint();
+      int run = (int) in.varint();
+      for (int j = 0; j < run; j++) {
+        indices[k + j] = start + j;
+        values[k + j] = in.state(j);
+      }
+      in.skipStates(run);
+      k += run;
+      end = start + run;
+    }
+    return new MoveDelta(from, to, indices, values, count);
+  }
+
+  // EFFECT: writes v into out at at as an unsigned varint: 7 bits per byte, low bits first,
+  // the high bit set on every byte but the last. returns the index after it.
+  static int putVarint(byte[] out, int at, long v) {
+    while ((v & ~0x7FL) != 0) {
+      out[at] = (byte) (v | 0x80);
+      at++;
+      v >>>= 7;
+    }
+    out[at] = (byte) v;
+    return at + 1;
+  }
+}
+
+// to read a delta's bytes in order
+class DeltaReader {
+  byte[] bytes;
+  int at;
+
+  DeltaReader(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  // EFFECT: reads the varint at this.at and moves past it. returns it.
+  long varint() {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (this.at == this.bytes.length || shift > 63) {
+        throw new IllegalArgumentException("Delta is truncated.");
+      }
+      byte b = this.bytes[this.at];
+      this.at++;
+      v |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return v;
+      }
+    }
+  }
+
+  // returns the j-th packed state of the run starting at this.at
+  byte state(int j) {
+    if (this.at + j / 2 >= this.bytes.length) {
+      throw new IllegalArgumentException("Delta is truncated.");
+    }
+    return (byte) (this.bytes[this.at + j / 2] >> (j & 1) * 4 & 0x0F);
+  }
+
+  // EFFECT: moves past the packed states of a run of the given length
+  void skipStates(int run) {
+    this.at += (run + 1) / 2;
+  }
+}
+
+// to represent a copy of a game's visible board kept up to date from its deltas alone, as
+// a spectator or remote client would. every cell starts hidden.
+class DeltaMirror {
+  byte[] visible;
+  long moves; // moves applied so far; the next delta must start here
+
+  DeltaMirror(int columns, int rows) {
+    this.visible = new byte[columns * rows];
+    Arrays.fill(this.visible, (byte) MSEngine.HIDDEN);
+  }
+
+  // EFFECT: applies the encoded delta straight from its bytes. throws an
+  // IllegalStateException if it doesn't start where this mirror is.
+  void apply(byte[] delta) {
+    DeltaReader in = new DeltaReader(delta);
+    long from = in.varint();
+    if (from != this.moves) {
+      throw new IllegalStateException(
+          "Delta starts at move " + from + " but the mirror is at " + this.moves + ".");
+    }
+    long to = in.varint();
+    int count = (int) in.varint();
+    int end = 0;
+    for (int k = 0; k < count;) {
+      int start = end + (int) in.varint();
+      int run = (int) in.varint();
+      if (start < 0 || run <= 0 || start + run > this.visible.length) {
+        throw new IllegalArgumentException("Delta doesn't fit the board.");
+      }
+      for (int j = 0; j < run; j++) {
+        this.visible[start + j] = in.state(j);
+      }
+      in.skipStates(run);
+      k += run;
+      end = start + run;
+    }
+    this.moves = to;
+  }
+}
+
+// to hand an engine's deltas to any number of subscribers, each draining at its own pace.
+// a move's delta is built once, and only if someone is subscribed.
+class DeltaHub implements IMoveListener {
+  MSEngine engine;
+  DeltaSubscription[] subscriptions = new DeltaSubscription[0];
+
+  // attaches to engine, so every move from now on makes a delta
+  DeltaHub(MSEngine engine) {
+    this.engine = engine;
+    engine.addListener(this);
+  }
+
+  // EFFECT: offers the move's delta to every subscription
+  public void moveApplied(MSEngine engine, int move, int opened) {
+    DeltaSubscription[] subscriptions = this.subscriptions;
+    if (subscriptions.length > 0) {
+      MoveDelta delta = MoveDelta.of(engine, move, opened);
+      for (DeltaSubscription subscription : subscriptions) {
+        subscription.offer(delta);
+      }
+    }
+  }
+
+  // EFFECT: returns a new subscription, whose first delta is a keyframe of the board as it
+  // is now. it holds at most about limit changed cells before coalescing what it holds.
+  // must not run during a move.
+  synchronized DeltaSubscription subscribe(int limit) {
+    DeltaSubscription subscription = new DeltaSubscription(limit);
+    subscription.offer(MoveDelta.keyframe(this.engine));
+    DeltaSubscription[] more = Arrays.copyOf(this.subscriptions, this.subscriptions.length + 1);
+    more[more.length - 1] = subscription;
+    this.subscriptions = more;
+    return subscription;
+  }
+
+  // EFFECT: stops offering deltas to subscription
+  synchronized void unsubscribe(DeltaSubscription subscription) {
+    DeltaSubscription[] fewer = new DeltaSubscription[this.subscriptions.length];
+    int n = 0;
+    for (DeltaSubscription s : this.subscriptions) {
+      if (s != subscription) {
+        fewer[n] = s;
+        n++;
+      }
+    }
+    this.subscriptions = Arrays.copyOf(fewer, n);
+  }
+}
+
+// to represent one consumer's queue of deltas. poll hands over everything pending as one
+// batch. if the consumer falls behind and more than limit cells are pending, they are
+// coalesced into one delta, so a slow consumer holds at most one copy of each changed cell
+// and gets fewer, larger deltas instead of making the game wait. offer and poll may run on
+// different threads.
+class DeltaSubscription {
+  int limit;
+  ArrayDeque<MoveDelta> pending = new ArrayDeque<>();
+  int pendingCells; // cells in pending, counting each delta as at least one
+  long offered;
+  long polled;
+  long coalesced; // times pending was coalesced because it was over limit
+
+  DeltaSubscription(int limit) {
+    this.limit = limit;
+  }
+
+  // EFFECT: queues delta, coalescing the queue if it is over the limit
+  synchronized void offer(MoveDelta delta) {
+    this.pending.add(delta);
+    this.pendingCells += Math.max(1, delta.count);
+    this.offered++;
+    if (this.pendingCells > this.limit && this.pending.size() > 1) {
+      MoveDelta all = MoveDelta.coalesce(this.pending.toArray(new MoveDelta[0]));
+      this.pending.clear();
+      this.pending.add(all);
+      this.pendingCells = Math.max(1, all.count);
+      this.coalesced++;
+    }
+  }
+
+  // EFFECT: takes everything pending. returns it as one encoded delta, or null if nothing
+  // is pending.
+  synchronized byte[] poll() {
+    if (this.pending.isEmpty()) {
+      return null;
+    }
+    MoveDelta all = MoveDelta.coalesce(this.pending.toArray(new MoveDelta[0]));
+    this.pending.clear();
+    this.pendingCells = 0;
+    this.polled++;
+    return all.encode();
+  }
+}
+
+//examples and tests for move deltas
+class ExamplesMoveDelta {
+  ExamplesMoveDelta() {}
+
+  // returns a 4 x 3 engine whose only mine is in the top right corner
+  MSEngine corner() {
+    MSEngine engine = new MSEngine(4, 3, 1, 5L);
+    engine.board.clearMines();
+    engine.board.placeMine(3);
+    return engine;
+  }
+
+  // to test a flood's delta and its bytes
+  void testEncode(Tester t) {
+    MSEngine engine = this.corner();
+    int opened = engine.reveal(2, 0);
+    MoveDelta delta = MoveDelta.of(engine, MSEngine.encode(MSEngine.REVEAL, 8), opened);
+    t.checkExpect(delta.from, 0L);
+    t.checkExpect(delta.to, 1L);
+    t.checkExpect(delta.count, 11);
+    t.checkExpect(delta.indices, new int[] {0, 1, 2, 4, 5, 6, 7, 8, 9, 10, 11});
+    t.checkExpect(delta.values, new byte[] {0, 0, 1, 0, 0, 1, 1, 0, 0, 0, 0});
+    // from, to, count; a run of 3 at 0; a run of 8 after a gap of 1
+    t.checkExpect(delta.encode(), new byte[] {0, 1, 11, 0, 3, 0, 1, 1, 8, 0, 0x11, 0, 0});
+    MoveDelta decoded = MoveDelta.decode(delta.encode());
+    t.checkExpect(decoded.indices, delta.indices);
+    t.checkExpect(decoded.values, delta.values);
+    t.checkExpect(decoded.to, 1L);
+    engine = this.corner();
+    engine.flag(0, 3);
+    MoveDelta flag = MoveDelta.of(engine, MSEngine.encode(MSEngine.FLAG, 3), 0);
+    t.checkExpect(flag.values, new byte[] {MSEngine.FLAGGED});
+    t.checkExpect(MoveDelta.decode(flag.encode()).indices, new int[] {3});
+    byte[] big = new MoveDelta(300, 301, new int[] {200000}, new byte[] {11}, 1).encode();
+    t.checkExpect(big, new byte[] {(byte) 0xAC, 2, (byte) 0xAD, 2, 1, (byte) 0xC0,
+        (byte) 0x9A, 12, 1, 11});
+    t.checkExpect(MoveDelta.decode(big).indices, new int[] {200000});
+    t.checkException(new IllegalArgumentException("Delta is truncated."),
+        new DeltaMirror(4, 3), "apply", new byte[] {0, 1, 2, 0});
+    t.checkException(new IllegalArgumentException("Delta doesn't fit the board."),
+        new DeltaMirror(4, 3), "apply", new byte[] {0, 1, 1, 12, 1, 0});
+  }
+
+  // to test that later changes to a cell win when deltas are coalesced
+  void testCoalesce(Tester t) {
+    MoveDelta a = new MoveDelta(0, 2, new int[] {1, 5, 9}, new byte[] {9, 10, 3}, 3);
+    MoveDelta b = new MoveDelta(2, 3, new int[] {5}, new byte[] {9}, 1);
+    MoveDelta c = new MoveDelta(3, 5, new int[] {0, 9, 12}, new byte[] {2, 4, 10}, 3);
+    MoveDelta all = MoveDelta.coalesce(a, b, c);
+    t.checkExpect(all.from, 0L);
+    t.checkExpect(all.to, 5L);
+    t.checkExpect(Arrays.copyOf(all.indices, all.count), new int[] {0, 1, 5, 9, 12});
+    t.checkExpect(Arrays.copyOf(all.values, all.count), new byte[] {2, 9, 9, 4, 10});
+    t.checkExpect(MoveDelta.coalesce(b), b);
+    t.checkExpect(MoveDelta.sorted(new int[] {70, 3, 200, 64, 9}, 4), new int[] {3, 64, 70, 200});
+    t.checkExpect(MoveDelta.sorted(new int[] {5}, 0), new int[] {});
+  }
+
+  // to test that a mirror fed only deltas matches the game, however they are batched
+  void testMirror(Tester t) {
+    MSEngine engine = new MSEngine(30, 16, 20, 12L);
+    engine.firstClickSafe = true;
+    DeltaHub hub = new DeltaHub(engine);
+    engine.flag(0, 0);
+    DeltaSubscription eager = hub.subscribe(1 << 20);
+    DeltaSubscription slow = hub.subscribe(40);
+    DeltaSubscription gone = hub.subscribe(40);
+    DeltaMirror each = new DeltaMirror(30, 16);
+    DeltaMirror batched = new DeltaMirror(30, 16);
+    each.apply(eager.poll());
+    t.checkExpect(each.visible[0], (byte) MSEngine.FLAGGED);
+    t.checkExpect(each.moves, 1L);
+    hub.unsubscribe(gone);
+    java.util.Random rand = new java.util.Random(3L);
+    engine.reveal(8, 15);
+    for (int k = 0; !engine.isOver(); k++) {
+      byte[] delta = eager.poll();
+      if (delta != null) { // null when the last move changed nothing
+        each.apply(delta);
+      }
+      engine.applyMove(MSEngine.encode(k % 3 == 0 ? MSEngine.FLAG : MSEngine.REVEAL,
+          rand.nextInt(engine.board.size())));
+    }
+    each.apply(eager.poll());
+    batched.apply(slow.poll());
+    byte[] truth = new byte[engine.board.size()];
+    for (int i = 0; i < truth.length; i++) {
+      truth[i] = (byte) engine.visible(i);
+    }
+    t.checkExpect(each.visible, truth);
+    t.checkExpect(batched.visible, truth);
+    t.checkExpect(batched.moves, (long) engine.movesApplied);
+    t.checkExpect(slow.coalesced > 0, true);
+    t.checkExpect(slow.offered, eager.offered);
+    t.checkExpect(slow.polled, 1L);
+    t.checkExpect(slow.poll(), null);
+    t.checkExpect(gone.offered, 1L);
+    t.checkException(new IllegalStateException("Delta starts at move 0 but the mirror is at "
+        + engine.movesApplied + "."), batched, "apply", gone.poll());
+  }
+}
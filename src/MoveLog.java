@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import javalib.worldimages.Posn;
+import tester.*;
+
+// to represent the append-only record of a game: the settings that lay out its board, and
+// every move its engine applied, as encoded ints in order. the same settings always give
+// the same board and the same first-click relocation, so re-applying the moves to a fresh
+// engine rebuilds the game exactly. attach one with record before the first move.
+// saved files are a 32-byte header (magic "MSML", version, columns, rows, mines, seed,
+// first-click flag) then the event count and the events, as big-endian ints.
+class MoveLog implements IMoveListener {
+  static final int MAGIC = 0x4D534D4C; // "MSML"
+  static final int VERSION = 1;
+  static final int HEADER = 32;
+
+  int columns;
+  int rows;
+  int mines;
+  long seed;
+  boolean firstClickSafe; // as it was when the first move was applied
+  int[] events = new int[64];
+  int count;
+
+  MoveLog(int columns, int rows, int mines, long seed, boolean firstClickSafe) {
+    this.columns = columns;
+    this.rows = rows;
+    this.mines = mines;
+    this.seed = seed;
+    this.firstClickSafe = firstClickSafe;
+  }
+
+  // returns a new log of engine's game, attached so it records every move from now on.
+  // throws an IllegalArgumentException if engine has already made a move or was started
+  // (say, loaded mid-game), or if its board isn't the one its seed lays out, since a log
+  // only keeps the seed.
+  static MoveLog record(MSEngine engine) {
+    if (engine.movesApplied > 0 || engine.started) {
+      throw new IllegalArgumentException("Moves must be logged from the start of a game.");
+    }
+    engine.board.topology.requireSquare("Logging");
+    MSEngine fresh = new MSEngine(engine.columns, engine.rows, engine.mines, engine.seed);
+    if (!Arrays.equals(fresh.board.cells, engine.board.cells)) {
+      throw new IllegalArgumentException("Only a board laid out by its seed can be logged.");
+    }
+    MoveLog log = new MoveLog(engine.columns, engine.rows, engine.mines, engine.seed,
+        engine.firstClickSafe);
+    engine.addListener(log);
+    return log;
+  }
+
+  // EFFECT: appends move to this log
+  public void moveApplied(MSEngine engine, int move, int opened) {
+    if (this.count == 0) {
+      this.firstClickSafe = engine.firstClickSafe;
+    }
+    this.append(move);
+  }
+
+  // EFFECT: appends move to this log, growing it by doubling
+  void append(int move) {
+    if (this.count == this.events.length) {
+      this.events = Arrays.copyOf(this.events, this.events.length * 2);
+    }
+    this.events[this.count] = move;
+    this.count++;
+  }
+
+  // returns a fresh engine with this log's board, before any move
+  MSEngine newEngine() {
+    MSEngine engine = new MSEngine(this.columns, this.rows, this.mines, this.seed);
+    engine.firstClickSafe = this.firstClickSafe;
+    return engine;
+  }
+
+  // EFFECT: writes this log to path, replacing any file there
+  void save(Path path) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER + 4 + 4 * this.count);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(this.columns).putInt(this.rows)
+        .putInt(this.mines).putLong(this.seed).putInt(this.firstClickSafe ? 1 : 0);
+    buffer.putInt(this.count);
+    buffer.asIntBuffer().put(this.events, 0, this.count);
+    buffer.rewind();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      BoardFile.writeFully(channel, buffer);
+    }
+  }
+
+  // returns the log saved at path. throws an IllegalArgumentException if the file isn't a
+  // move log this version can read.
+  static MoveLog load(Path path) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+    if (buffer.remaining() < HEADER + 4 || buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a minesweeper move log.");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported move log version " + version + ".");
+    }
+    MoveLog log = new MoveLog(buffer.getInt(), buffer.getInt(), buffer.getInt(),
+        buffer.getLong(), buffer.getInt() != 0);
+    int count = buffer.getInt();
+    if (buffer.remaining() != 4 * count) {
+      throw new IllegalArgumentException("Move log is truncated.");
+    }
+    log.events = new int[Math.max(64, count)];
+    buffer.asIntBuffer().get(log.events, 0, count);
+    log.count = count;
+    return log;
+  }
+}
+
+// to rebuild any point of a logged game. replaying is just MSEngine.apply over the
+// events, with no rendering and no allocation per event. index takes a snapshot every
+// interval events, so seeking costs at most interval events from the nearest one.
+class MSReplay {
+  MoveLog log;
+  int interval; // events between snapshots; 0 keeps none
+  ArrayList<EngineSnapshot> snapshots = new ArrayList<>(); // in increasing position
+
+  MSReplay(MoveLog log, int interval) {
+    this.log = log;
+    this.interval = interval;
+  }
+
+  // EFFECT: replays the whole log once, keeping a snapshot every interval events. a point
+  // before the first reveal is never kept, since the first reveal may still move mines.
+  void index() {
+    this.snapshots.clear();
+    if (this.interval <= 0) {
+      return;
+    }
+    MSEngine engine = this.log.newEngine();
+    for (int p = this.interval; p <= this.log.count; p += this.interval) {
+      engine.apply(this.log.events, p - this.interval, p);
+      if (engine.started) {
+        this.snapshots.add(new EngineSnapshot(engine, p));
+      }
+    }
+  }
+
+  // returns a new engine in the state the game was in after its first position events
+  MSEngine seek(int position) {
+    EngineSnapshot from = this.nearest(position);
+    MSEngine engine = from == null ? this.log.newEngine() : from.restore(this.log);
+    engine.apply(this.log.events, from == null ? 0 : from.position, position);
+    return engine;
+  }
+
+  // returns the last snapshot at or before position, or null if there is none
+  EngineSnapshot nearest(int position) {
+    int lo = 0;
+    int hi = this.snapshots.size() - 1;
+    EngineSnapshot best = null;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.snapshots.get(mid).position <= position) {
+        best = this.snapshots.get(mid);
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return best;
+  }
+}
+
+// to represent an engine's state after some number of logged events: a copy of its board
+// and the move bookkeeping
+class EngineSnapshot {
+  int position;
+  FlatBoard board;
+  int movesApplied;
+
+  EngineSnapshot(MSEngine engine, int position) {
+    this.position = position;
+    this.board = engine.board.copy();
+    this.movesApplied = engine.movesApplied;
+  }
+
+  // returns a new started engine in this state, with log's settings
+  MSEngine restore(MoveLog log) {
+    MSEngine engine = new MSEngine(this.board.copy(), log.mines, log.seed);
+    engine.firstClickSafe = log.firstClickSafe;
+    engine.started = true;
+    engine.movesApplied = this.movesApplied;
+    return engine;
+  }
+}
+
+//examples and tests for move logs and replay
+class ExamplesMoveLog {
+  ExamplesMoveLog() {}
+
+  // returns the log of a solver game on a board of the given size, with some flags
+  MoveLog game(int columns, int rows, int mines, long seed) {
+    MSEngine engine = new MSEngine(columns, rows, mines, seed);
+    engine.firstClickSafe = true;
+    MoveLog log = MoveLog.record(engine);
+    engine.flag(0, 0);
+    engine.flag(0, 0);
+    new MSSolver(engine).play(rows / 2, columns / 2);
+    return log;
+  }
+
+  // to test that a replayed game ends the same way
+  void testRecord(Tester t) {
+    MSEngine engine = new MSEngine(16, 16, 40, 8L);
+    engine.firstClickSafe = true;
+    MoveLog log = MoveLog.record(engine);
+    new MSSolver(engine).play(8, 8);
+    t.checkExpect(log.count, engine.movesApplied);
+    t.checkExpect(log.firstClickSafe, true);
+    MSEngine replayed = new MSReplay(log, 0).seek(log.count);
+    t.checkExpect(replayed.board.cells, engine.board.cells);
+    t.checkExpect(replayed.isWon(), engine.isWon());
+    t.checkExpect(replayed.movesApplied, engine.movesApplied);
+    for (int i = 0; i < engine.board.size(); i++) {
+      engine.revealAt(i);
+    }
+    t.checkExpect(engine.isOver(), true);
+    int count = log.count;
+    engine.reveal(0, 0);
+    engine.flag(0, 0);
+    t.checkExpect(log.count, count);
+    t.checkExpect(new MSReplay(log, 0).seek(count).board.cells, engine.board.cells);
+    t.checkException(
+        new IllegalArgumentException("Moves must be logged from the start of a game."),
+        new MoveLog(1, 1, 1, 1L, false), "record", engine);
+    MSEngine loaded = new MSEngine(16, 16, 40, 8L);
+    loaded.started = true;
+    t.checkException(
+        new IllegalArgumentException("Moves must be logged from the start of a game."),
+        new MoveLog(1, 1, 1, 1L, false), "record", loaded);
+    MSEngine edited = new MSEngine(16, 16, 40, 8L);
+    edited.board.clearMines();
+    edited.board.placeMine(0);
+    t.checkException(
+        new IllegalArgumentException("Only a board laid out by its seed can be logged."),
+        new MoveLog(1, 1, 1, 1L, false), "record", edited);
+    t.checkExpect(MoveLog.record(new MSEngine(16, 16, 40, 8L)).count, 0);
+  }
+
+  // to test that seeking through snapshots gives the same state as replaying from the start
+  void testSeek(Tester t) {
+    MoveLog log = this.game(30, 16, 60, 3L);
+    MSReplay indexed = new MSReplay(log, 7);
+    indexed.index();
+    MSReplay plain = new MSReplay(log, 0);
+    plain.index();
+    t.checkExpect(plain.snapshots.size(), 0);
+    t.checkExpect(indexed.snapshots.size(), log.count / 7);
+    t.checkExpect(indexed.nearest(6), null);
+    t.checkExpect(indexed.nearest(15).position, 14);
+    boolean same = true;
+    for (int p = 0; p <= log.count; p++) {
+      MSEngine a = indexed.seek(p);
+      MSEngine b = plain.seek(p);
+      same = same && Arrays.equals(a.board.cells, b.board.cells)
+          && a.board.safeHidden == b.board.safeHidden && a.movesApplied == p;
+    }
+    t.checkExpect(same, true);
+    MSEngine seeked = indexed.seek(log.count - 1);
+    seeked.apply(log.events, log.count - 1, log.count);
+    t.checkExpect(seeked.board.cells, plain.seek(log.count).board.cells);
+  }
+
+  // to test saving and loading a log
+  void testSaveLoad(Tester t) throws IOException {
+    MoveLog log = this.game(20, 20, 50, 9L);
+    Path path = Files.createTempFile("moves", ".msl");
+    path.toFile().deleteOnExit();
+    log.save(path);
+    t.checkExpect(Files.size(path), (long) MoveLog.HEADER + 4 + 4 * log.count);
+    MoveLog loaded = MoveLog.load(path);
+    t.checkExpect(loaded.count, log.count);
+    t.checkExpect(Arrays.copyOf(loaded.events, loaded.count),
+        Arrays.copyOf(log.events, log.count));
+    t.checkExpect(loaded.seed, 9L);
+    t.checkExpect(loaded.firstClickSafe, true);
+    t.checkExpect(new MSReplay(loaded, 0).seek(loaded.count).board.cells,
+        new MSReplay(log, 0).seek(log.count).board.cells);
+    Files.write(path, new byte[8]);
+    t.checkException(new IllegalArgumentException("Not a minesweeper move log."),
+        new MoveLog(1, 1, 1, 1L, false), "load", path);
+  }
+
+  // to test logging a world's clicks
+  void testWorld(Tester t) {
+    MSWorld world = new MSWorld(12, 12, 20, true, 5L);
+    world.firstClickSafe = true;
+    MoveLog log = world.startLog();
+    world.onMouseClicked(new Posn(6 * MSWorld.CELL_SIZE, 6 * MSWorld.CELL_SIZE), "LeftButton");
+    world.onMouseClicked(new Posn(1, 1), "RightButton");
+    t.checkExpect(log.count, 2);
+    t.checkExpect(log.events[1], MSEngine.encode(MSEngine.FLAG, 0));
+    t.checkExpect(new MSReplay(log, 0).seek(2).board.cells, world.engine.board.cells);
+    t.checkException(
+        new IllegalStateException("Only flat worlds can be logged, from their first move."),
+        world, "startLog");
+  }
+}
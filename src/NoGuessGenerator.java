@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import tester.*;
+
+// to generate boards that can be won without guessing. an attempt lays out a seeded board
+// with placeMines, opens its center with first-click safety, and lets MSSolver play it; the
+// board is kept only if the solver wins. kept boards are handed out with that opening
+// already revealed, so the player starts where the solver did.
+// generate races attempts on every worker and the calling thread; the first verified board
+// cancels the rest, even in the middle of a solve. take serves boards from a bounded queue
+// per (columns, rows, mines), which the workers keep topped up in the background, and only
+// generates on the caller's thread when the queue is empty.
+class NoGuessGenerator {
+  int threads;
+  int poolSize; // verified boards kept ready per size
+  int maxAttempts = 100000; // per generate, before giving up on a size
+  long seed; // attempt n lays out the board seeded by ChunkedBoard.mix(seed + n * golden)
+  AtomicLong nextAttempt = new AtomicLong();
+  ExecutorService workers;
+  ConcurrentHashMap<BoardConfig, BoardPool> pools = new ConcurrentHashMap<>();
+  volatile boolean stopped;
+
+  LongAdder attempts = new LongAdder();
+  LongAdder verified = new LongAdder();
+  LongAdder cancelled = new LongAdder(); // attempts stopped early by another's success
+  LongAdder served = new LongAdder(); // boards taken from a queue
+  LongAdder misses = new LongAdder(); // takes that found their queue empty
+
+  // a generator with one worker per core, keeping 8 boards ready per size
+  NoGuessGenerator(long seed) {
+    this(Runtime.getRuntime().availableProcessors(), 8, seed);
+  }
+
+  NoGuessGenerator(int threads, int poolSize, long seed) {
+    this.threads = threads;
+    this.poolSize = poolSize;
+    this.seed = seed;
+    this.workers = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "ms-no-guess");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // returns an engine playing a board of the given size that can be won without guessing,
+  // with its opening revealed: from the queue if one is ready, otherwise generated now.
+  // either way the queue is topped up in the background.
+  MSEngine take(int columns, int rows, int mines) {
+    new Utils().overZero(columns, rows, mines, "Must have at least 1 row, column, and mine.");
+    new Utils().notAbove(columns, rows, mines,
+        "Number of mines cannot be greater than number of cells.");
+    BoardPool pool = this.poolFor(columns, rows, mines);
+    MSEngine engine = pool.boards.poll();
+    if (engine != null) {
+      this.served.increment();
+    } else {
+      this.misses.increment();
+      engine = this.generate(columns, rows, mines);
+    }
+    this.refill(pool);
+    return engine;
+  }
+
+  // EFFECT: starts filling the queue for the given size, so later takes are served at once
+  void prefill(int columns, int rows, int mines) {
+    this.refill(this.poolFor(columns, rows, mines));
+  }
+
+  // returns the queue for the given size, making it if this is the first request for it
+  BoardPool poolFor(int columns, int rows, int mines) {
+    return this.pools.computeIfAbsent(new BoardConfig(columns, rows, mines),
+        config -> new BoardPool(config, this.poolSize));
+  }
+
+  // EFFECT: makes sure pool has a worker filling it, while it has room
+  void refill(BoardPool pool) {
+    if (!this.stopped && pool.boards.remainingCapacity() > 0
+        && pool.filling.compareAndSet(false, true)) {
+      this.workers.execute(() -> this.fill(pool));
+    }
+  }
+
+  // EFFECT: adds verified boards to pool until it is full or the generator stops. the
+  // check after clearing filling catches a take that emptied a slot in between.
+  void fill(BoardPool pool) {
+    AtomicBoolean never = new AtomicBoolean();
+    while (!this.stopped && pool.boards.remainingCapacity() > 0) {
+      MSEngine engine = this.attempt(pool.config, never);
+      if (engine != null && !pool.boards.offer(engine)) {
+        break;
+      }
+    }
+    pool.filling.set(false);
+    this.refill(pool);
+  }
+
+  // returns a board of the given size that can be won without guessing, racing attempts
+  // on every worker and this thread. throws an IllegalStateException if none is found in
+  // maxAttempts attempts.
+  MSEngine generate(int columns, int rows, int mines) {
+    BoardConfig config = new BoardConfig(columns, rows, mines);
+    AtomicReference<MSEngine> found = new AtomicReference<>();
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicInteger left = new AtomicInteger(this.maxAttempts);
+    Runnable race = () -> {
+      while (!done.get() && left.getAndDecrement() > 0) {
+        MSEngine engine = this.attempt(config, done);
+        if (engine != null && found.compareAndSet(null, engine)) {
+          done.set(true);
+        }
+      }
+    };
+    ArrayList<Future<?>> helpers = new ArrayList<>();
+    for (int k = 0; k < this.threads && !this.stopped; k++) {
+      helpers.add(this.workers.submit(race));
+    }
+    race.run();
+    done.set(true);
+    for (Future<?> helper : helpers) {
+      helper.cancel(false);
+    }
+    if (found.get() == null) {
+      throw new IllegalStateException("No board without guessing found in "
+          + this.maxAttempts + " attempts.");
+    }
+    return found.get();
+  }
+
+  // returns a verified board for one new seed, or null if the solver needs to guess on it
+  // or cancel is set before it finishes
+  MSEngine attempt(BoardConfig config, AtomicBoolean cancel) {
+    this.attempts.increment();
+    long boardSeed = ChunkedBoard.mix(this.seed
+        + this.nextAttempt.getAndIncrement() * 0x9E3779B97F4A7C15L);
+    MSEngine engine = new MSEngine(config.columns, config.rows, config.mines, boardSeed);
+    engine.firstClickSafe = true;
+    MSSolver solver = new MSSolver(engine);
+    solver.reveal(engine.index(config.rows / 2, config.columns / 2));
+    FlatBoard opening = engine.board.copy();
+    while (!engine.isOver()) {
+      if (cancel.get()) {
+        this.cancelled.increment();
+        return null;
+      }
+      int move = solver.nextMove();
+      if (move < 0) {
+        break;
+      }
+      solver.observe(move, engine.applyMove(move));
+    }
+    if (!engine.isWon()) {
+      return null;
+    }
+    this.verified.increment();
+    MSEngine verified = new MSEngine(opening, config.mines, boardSeed);
+    verified.firstClickSafe = true;
+    verified.started = true;
+    verified.movesApplied = 1;
+    return verified;
+  }
+
+  // EFFECT: stops refilling and shuts the workers down, waiting briefly for them to finish
+  void stop() throws InterruptedException {
+    this.stopped = true;
+    this.workers.shutdownNow();
+    this.workers.awaitTermination(5, TimeUnit.SECONDS);
+  }
+
+  // returns the counters on one line
+  String report() {
+    return String.format("attempts %d, verified %d, cancelled %d, served %d, misses %d",
+        this.attempts.sum(), this.verified.sum(), this.cancelled.sum(), this.served.sum(),
+        this.misses.sum());
+  }
+}
+
+// to represent the size of a board the generator keeps a queue for
+class BoardConfig {
+  int columns;
+  int rows;
+  int mines;
+
+  BoardConfig(int columns, int rows, int mines) {
+    this.columns = columns;
+    this.rows = rows;
+    this.mines = mines;
+  }
+
+  public boolean equals(Object other) {
+    if (!(other instanceof BoardConfig)) {
+      return false;
+    }
+    BoardConfig that = (BoardConfig) other;
+    return this.columns == that.columns && this.rows == that.rows && this.mines == that.mines;
+  }
+
+  public int hashCode() {
+    return (this.columns * 31 + this.rows) * 31 + this.mines;
+  }
+}
+
+// to represent the verified boards ready for one size, and whether a worker is filling them
+class BoardPool {
+  BoardConfig config;
+  ArrayBlockingQueue<MSEngine> boards;
+  AtomicBoolean filling = new AtomicBoolean();
+
+  BoardPool(BoardConfig config, int capacity) {
+    this.config = config;
+    this.boards = new ArrayBlockingQueue<>(capacity);
+  }
+}
+
+//examples and tests for the no-guess generator
+class ExamplesNoGuessGenerator {
+  ExamplesNoGuessGenerator() {}
+
+  // returns whether a fresh solver wins engine's game without guessing
+  boolean solvable(MSEngine engine) {
+    return new MSSolver(engine).solve();
+  }
+
+  // to test that every kept board is opened and can be won by logic alone
+  void testAttempt(Tester t) throws InterruptedException {
+    NoGuessGenerator generator = new NoGuessGenerator(1, 1, 4L);
+    generator.stop();
+    BoardConfig config = new BoardConfig(9, 9, 10);
+    AtomicBoolean never = new AtomicBoolean();
+    int kept = 0;
+    boolean allSolvable = true;
+    for (int k = 0; k < 40; k++) {
+      MSEngine engine = generator.attempt(config, never);
+      if (engine != null) {
+        kept++;
+        allSolvable = allSolvable && engine.started && engine.board.isRevealed(40)
+            && engine.board.neighboringMines(40) == 0 && this.solvable(engine);
+      }
+    }
+    t.checkExpect(kept > 0, true);
+    t.checkExpect(allSolvable, true);
+    t.checkExpect(generator.attempts.sum(), 40L);
+    t.checkExpect(generator.verified.sum(), (long) kept);
+    t.checkExpect(generator.attempt(config, new AtomicBoolean(true)), null);
+    t.checkExpect(generator.cancelled.sum(), 1L);
+  }
+
+  // to test racing attempts on several threads
+  void testGenerate(Tester t) throws InterruptedException {
+    NoGuessGenerator generator = new NoGuessGenerator(4, 2, 8L);
+    MSEngine engine = generator.generate(16, 16, 40);
+    t.checkExpect(engine.columns, 16);
+    t.checkExpect(engine.mines, 40);
+    t.checkExpect(engine.board.mineCount, 40);
+    t.checkExpect(this.solvable(engine), true);
+    generator.maxAttempts = 20;
+    t.checkException(
+        new IllegalStateException("No board without guessing found in 20 attempts."),
+        generator, "generate", 8, 8, 40);
+    generator.stop();
+  }
+
+  // to test that prefilled sizes are served from the queue and topped up again
+  void testTake(Tester t) throws InterruptedException {
+    NoGuessGenerator generator = new NoGuessGenerator(2, 3, 1L);
+    generator.prefill(9, 9, 10);
+    BoardPool pool = generator.poolFor(9, 9, 10);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+    while (pool.boards.remainingCapacity() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    t.checkExpect(pool.boards.size(), 3);
+    MSEngine engine = generator.take(9, 9, 10);
+    t.checkExpect(generator.served.sum(), 1L);
+    t.checkExpect(generator.misses.sum(), 0L);
+    t.checkExpect(this.solvable(engine), true);
+    generator.take(5, 5, 3);
+    t.checkExpect(generator.misses.sum(), 1L);
+    t.checkExpect(generator.pools.size(), 2);
+    t.checkException(
+        new IllegalArgumentException("Number of mines cannot be greater than number of cells."),
+        generator, "take", 2, 2, 5);
+    MSWorld world = new MSWorld(generator, 9, 9, 10);
+    t.checkExpect(world.started, true);
+    t.checkExpect(world.engine.board.isRevealed(40), true);
+    t.checkExpect(world.gameOver(), false);
+    generator.stop();
+  }
+}
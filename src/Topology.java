@@ -0,0 +1,304 @@
+import tester.*;
+
+// to represent which cells of a columns x rows board are neighbors, as a table of offsets
+// built once per board: the row and column steps to each neighbor and the matching steps
+// in flat index. a table is picked by row parity, so layouts whose neighbors depend on the
+// row (hex) need no branching either. a cell at least reach rows and columns from every
+// edge is interior: its neighbors are its index plus each flat offset, with no checks.
+// only cells near an edge go through edge, where each topology decides what lies beyond
+// it. a topology has at most 8 neighbors, since counts are drawn as the tiles 0-8.
+abstract class Topology {
+  int columns;
+  int rows;
+  int[][] dr; // dr[parity][k]: rows to the k-th neighbor of a cell in a row of that parity
+  int[][] dc;
+  int[][] offsets; // offsets[parity][k] = dr[parity][k] * columns + dc[parity][k]
+  int reach; // the largest row or column step in the table
+
+  Topology(int columns, int rows, int[][] dr, int[][] dc) {
+    if (dr[0].length > 8 || dr[1].length > 8) {
+      throw new IllegalArgumentException("Topologies can have up to 8 neighbors.");
+    }
+    this.columns = columns;
+    this.rows = rows;
+    this.dr = dr;
+    this.dc = dc;
+    this.offsets = new int[2][];
+    for (int p = 0; p < 2; p++) {
+      this.offsets[p] = new int[dr[p].length];
+      for (int k = 0; k < dr[p].length; k++) {
+        this.offsets[p][k] = dr[p][k] * columns + dc[p][k];
+        this.reach = Math.max(this.reach, Math.max(Math.abs(dr[p][k]), Math.abs(dc[p][k])));
+      }
+    }
+  }
+
+  // returns the largest number of neighbors a cell can have
+  int maxNeighbors() {
+    return Math.max(this.offsets[0].length, this.offsets[1].length);
+  }
+
+  // EFFECT: writes the flat indices of the neighbors of index into out (which must hold
+  // maxNeighbors ints) and returns how many were written
+  int neighbors(int index, int[] out) {
+    int row = index / this.columns;
+    int col = index - row * this.columns;
+    int[] offsets = this.offsets[row & 1];
+    if (row >= this.reach && row < this.rows - this.reach
+        && col >= this.reach && col < this.columns - this.reach) {
+      for (int k = 0; k < offsets.length; k++) {
+        out[k] = index + offsets[k];
+      }
+      return offsets.length;
+    }
+    return this.edge(row, col, row & 1, out);
+  }
+
+  // EFFECT: writes the neighbors of (row, col), a cell near an edge, into out. returns how
+  // many were written.
+  abstract int edge(int row, int col, int parity, int[] out);
+
+  // is the cell at a a neighbor of the cell at b? steps from b by its row's table and
+  // compares rows and columns, so nothing is allocated; a step off the board can't land on
+  // a unless this topology wraps it back on
+  boolean adjacent(int a, int b) {
+    int row = b / this.columns;
+    int col = b - row * this.columns;
+    int aRow = a / this.columns;
+    int aCol = a - aRow * this.columns;
+    int parity = row & 1;
+    for (int k = 0; k < this.dr[parity].length; k++) {
+      if (this.wrap(row + this.dr[parity][k], this.rows) == aRow
+          && this.wrap(col + this.dc[parity][k], this.columns) == aCol) {
+        return a != b;
+      }
+    }
+    return false;
+  }
+
+  // returns where a row or column step to value ends up on a side of the given size:
+  // value itself, on a board that doesn't wrap
+  int wrap(int value, int size) {
+    return value;
+  }
+
+  // returns how many half cells the given row is drawn to the right
+  int halfShift(int row) {
+    return 0;
+  }
+
+  // is this the standard 8-neighbor square grid, which the solver and the other
+  // whole-board structures are written for?
+  boolean isSquare() {
+    return false;
+  }
+
+  // EFFECT: throws an IllegalArgumentException naming what, unless this is the standard
+  // square grid
+  void requireSquare(String what) {
+    if (!this.isSquare()) {
+      throw new IllegalArgumentException(what + " needs the square topology.");
+    }
+  }
+
+  // writes the neighbors of (row, col) into out, skipping any off the board
+  int bounded(int row, int col, int parity, int[] out) {
+    int n = 0;
+    for (int k = 0; k < this.dr[parity].length; k++) {
+      int r = row + this.dr[parity][k];
+      int c = col + this.dc[parity][k];
+      if (r >= 0 && r < this.rows && c >= 0 && c < this.columns) {
+        out[n] = r * this.columns + c;
+        n++;
+      }
+    }
+    return n;
+  }
+}
+
+// to represent the usual grid: the 8 cells around a cell, with nothing past the edges
+class SquareTopology extends Topology {
+  static final int[] KING_DR = {-1, -1, -1, 0, 0, 1, 1, 1};
+  static final int[] KING_DC = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+  SquareTopology(int columns, int rows) {
+    super(columns, rows, new int[][] {KING_DR, KING_DR}, new int[][] {KING_DC, KING_DC});
+  }
+
+  int edge(int row, int col, int parity, int[] out) {
+    return this.bounded(row, col, parity, out);
+  }
+
+  boolean isSquare() {
+    return true;
+  }
+}
+
+// to represent the usual 8 neighbors on a board whose edges wrap around: the last column
+// touches the first, and the last row the first. on a board narrower than 3 cells a cell
+// can reach the same neighbor both ways, or itself; each neighbor is listed once, and a
+// cell is never its own neighbor.
+class TorusTopology extends Topology {
+  TorusTopology(int columns, int rows) {
+    super(columns, rows, new int[][] {SquareTopology.KING_DR, SquareTopology.KING_DR},
+        new int[][] {SquareTopology.KING_DC, SquareTopology.KING_DC});
+  }
+
+  int wrap(int value, int size) {
+    return Math.floorMod(value, size);
+  }
+
+  int edge(int row, int col, int parity, int[] out) {
+    int self = row * this.columns + col;
+    int n = 0;
+    for (int k = 0; k < this.dr[parity].length; k++) {
+      int r = Math.floorMod(row + this.dr[parity][k], this.rows);
+      int c = Math.floorMod(col + this.dc[parity][k], this.columns);
+      int next = r * this.columns + c;
+      boolean seen = next == self;
+      for (int j = 0; j < n && !seen; j++) {
+        seen = out[j] == next;
+      }
+      if (!seen) {
+        out[n] = next;
+        n++;
+      }
+    }
+    return n;
+  }
+}
+
+// to represent a hexagonal board in "odd-r" layout: odd rows are drawn half a cell to the
+// right, so a cell touches 2 cells in its own row and 2 in each row above and below, which
+// ones depending on whether its row is even or odd
+class HexTopology extends Topology {
+  HexTopology(int columns, int rows) {
+    super(columns, rows, new int[][] {{-1, -1, 0, 0, 1, 1}, {-1, -1, 0, 0, 1, 1}},
+        new int[][] {{-1, 0, -1, 1, -1, 0}, {0, 1, -1, 1, 0, 1}});
+  }
+
+  int edge(int row, int col, int parity, int[] out) {
+    return this.bounded(row, col, parity, out);
+  }
+
+  int halfShift(int row) {
+    return row & 1;
+  }
+}
+
+// to represent a board where a cell's neighbors are the 8 cells a chess knight could jump
+// to, so numbers count mines up to two rows and columns away
+class KnightTopology extends Topology {
+  static final int[] DR = {-2, -2, -1, -1, 1, 1, 2, 2};
+  static final int[] DC = {-1, 1, -2, 2, -2, 2, -1, 1};
+
+  KnightTopology(int columns, int rows) {
+    super(columns, rows, new int[][] {DR, DR}, new int[][] {DC, DC});
+  }
+
+  int edge(int row, int col, int parity, int[] out) {
+    return this.bounded(row, col, parity, out);
+  }
+}
+
+//examples and tests for topologies
+class ExamplesTopology {
+  ExamplesTopology() {}
+
+  // returns the neighbors of index on topology, sorted
+  int[] around(Topology topology, int index) {
+    int[] out = new int[topology.maxNeighbors()];
+    int n = topology.neighbors(index, out);
+    int[] sorted = java.util.Arrays.copyOf(out, n);
+    java.util.Arrays.sort(sorted);
+    return sorted;
+  }
+
+  // to test the square grid against the neighbors FlatBoard used to compute by hand
+  void testSquare(Tester t) {
+    Topology square = new SquareTopology(5, 4);
+    t.checkExpect(square.reach, 1);
+    t.checkExpect(square.offsets[0], new int[] {-6, -5, -4, -1, 1, 4, 5, 6});
+    t.checkExpect(this.around(square, 0), new int[] {1, 5, 6});
+    t.checkExpect(this.around(square, 7), new int[] {1, 2, 3, 6, 8, 11, 12, 13});
+    t.checkExpect(this.around(square, 19), new int[] {13, 14, 18});
+    t.checkExpect(this.around(new SquareTopology(1, 1), 0), new int[] {});
+    t.checkExpect(square.adjacent(13, 19), true);
+    t.checkExpect(square.adjacent(12, 19), false);
+    t.checkExpect(square.isSquare(), true);
+  }
+
+  // to test wrapping edges, including boards too small to wrap cleanly
+  void testTorus(Tester t) {
+    Topology torus = new TorusTopology(5, 4);
+    t.checkExpect(this.around(torus, 0), new int[] {1, 4, 5, 6, 9, 15, 16, 19});
+    t.checkExpect(this.around(torus, 7), this.around(new SquareTopology(5, 4), 7));
+    t.checkExpect(this.around(new TorusTopology(2, 2), 0), new int[] {1, 2, 3});
+    t.checkExpect(this.around(new TorusTopology(1, 3), 1), new int[] {0, 2});
+    t.checkExpect(torus.isSquare(), false);
+    t.checkConstructorException(
+        new IllegalArgumentException("Solving needs the square topology."),
+        "MSSolver", new MSEngine(torus, 3, 1L));
+  }
+
+  // to test the hex layout on even and odd rows
+  void testHex(Tester t) {
+    Topology hex = new HexTopology(5, 4);
+    t.checkExpect(this.around(hex, 7), new int[] {2, 3, 6, 8, 12, 13}); // row 1, odd
+    t.checkExpect(this.around(hex, 12), new int[] {6, 7, 11, 13, 16, 17}); // row 2, even
+    t.checkExpect(this.around(hex, 0), new int[] {1, 5});
+    t.checkExpect(this.around(hex, 9), new int[] {4, 8, 14});
+    t.checkExpect(hex.halfShift(1), 1);
+    t.checkExpect(hex.halfShift(2), 0);
+    t.checkExpect(hex.maxNeighbors(), 6);
+  }
+
+  // to test knight neighborhoods
+  void testKnight(Tester t) {
+    Topology knight = new KnightTopology(5, 5);
+    t.checkExpect(knight.reach, 2);
+    t.checkExpect(this.around(knight, 12), new int[] {1, 3, 5, 9, 15, 19, 21, 23});
+    t.checkExpect(this.around(knight, 0), new int[] {7, 11});
+  }
+
+  // to test that adjacent agrees with the neighbor lists, including on boards so narrow
+  // that a torus reaches the same cell both ways
+  void testAdjacent(Tester t) {
+    Topology[] all = {new SquareTopology(6, 5), new TorusTopology(6, 5),
+        new TorusTopology(2, 3), new TorusTopology(1, 1), new HexTopology(6, 5),
+        new KnightTopology(6, 5)};
+    for (Topology topology : all) {
+      int size = topology.columns * topology.rows;
+      boolean same = true;
+      for (int b = 0; b < size; b++) {
+        int[] around = this.around(topology, b);
+        for (int a = 0; a < size; a++) {
+          boolean listed = java.util.Arrays.binarySearch(around, a) >= 0;
+          same = same && topology.adjacent(a, b) == listed;
+        }
+      }
+      t.checkExpect(same, true);
+    }
+  }
+
+  // to test that boards count and flood through the table, across wrapped edges too
+  void testBoards(Tester t) {
+    FlatBoard torus = new FlatBoard(new TorusTopology(5, 4));
+    torus.placeMine(0);
+    t.checkExpect(torus.neighboringMines(19), 1);
+    t.checkExpect(torus.neighboringMines(4), 1);
+    t.checkExpect(torus.countAdjacentMines(16), 1);
+    t.checkExpect(torus.reveal(12), 19);
+    FlatBoard copy = torus.copy();
+    t.checkExpect(copy.topology == torus.topology, true);
+    FlatBoard knight = new FlatBoard(new KnightTopology(5, 5));
+    knight.placeMines(16, new java.util.Random(2L), 2, 2); // every cell but 12's knights
+    t.checkExpect(knight.hasMine(12) || knight.hasMine(1) || knight.hasMine(23), false);
+    t.checkExpect(knight.hasMine(6) && knight.hasMine(13), true);
+    MSEngine hex = new MSEngine(new HexTopology(9, 9), 30, 5L);
+    hex.firstClickSafe = true;
+    hex.reveal(4, 4);
+    t.checkExpect(hex.visible(4, 4), 0);
+    t.checkExpect(hex.board.mineCount, 30);
+  }
+}
@@ -0,0 +1,20 @@
+// hold utility methods.
+class Utils {
+  Utils() {}
+
+  // returns true if all args > 0. throws exception with given message otherwise.
+  boolean overZero(int a, int b, int c, String msg) {
+    if (a > 0 && b > 0 && c > 0) {
+      return true;
+    }
+    throw new IllegalArgumentException(msg);
+  }
+
+  // returns true if m > r * c. throws exception with given message otherwise.
+  boolean notAbove(int c, int r, int m, String msg) {
+    if (m < (long) r * c) {
+      return true;
+    }
+    throw new IllegalArgumentException(msg);
+  }
+}
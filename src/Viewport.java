@@ -0,0 +1,285 @@
+import java.awt.Color;
+import java.util.Arrays;
+import javalib.impworld.*;
+import javalib.worldimages.*;
+import tester.*;
+
+// to represent the window onto a board that may be far larger than the screen: the cell
+// in the top left corner and the zoom. at cellPixels of TILE_PIXELS or more each visible
+// cell is drawn as its tile, scaled. below that the view is one ComputedPixelImage: each
+// cell fills a cellPixels square, and once cells are a pixel wide, each pixel stands for a
+// cellsPerPixel square of cells and takes the color of at most SAMPLES x SAMPLES of them.
+// either way only what is on the screen is visited, so a frame costs the same on any size
+// of board. screen positions map back to cells through cellAt.
+class Viewport {
+  static final int TILE_PIXELS = 8; // smallest cell drawn as a tile
+  static final int SAMPLES = 2; // cells sampled per side of a pixel's block
+  static final int PAN_CELLS = 5; // cells an arrow key moves the view
+  // the pixel color of each visible state, indexed like MSWorld.TILES
+  static final Color[] COLORS = {
+      new Color(150, 170, 255), Color.BLUE, Color.BLUE, Color.BLUE, Color.BLUE, Color.BLUE,
+      Color.BLUE, Color.BLUE, Color.BLUE, Color.LIGHT_GRAY, Color.ORANGE, Color.RED};
+
+  int width; // screen size in pixels
+  int height;
+  int columns; // board size in cells
+  int rows;
+  int row; // the cell in the top left corner of the screen
+  int col;
+  int cellPixels = MSWorld.CELL_SIZE; // side of a cell on screen, at least 1
+  int cellsPerPixel = 1; // side of the block of cells a pixel shows, above 1 only when
+                         // cellPixels is 1
+  WorldImage[] tiles = MSWorld.TILES; // the tiles scaled to cellPixels
+  int lastDrawn; // cells visited by the last draw
+  int[] seen = new int[MSWorld.TILES.length]; // scratch: sampled cells per tile in a block
+
+  Viewport(int width, int height, int columns, int rows) {
+    this.width = width;
+    this.height = height;
+    this.columns = columns;
+    this.rows = rows;
+  }
+
+  // returns the number of cells that fit across the screen, or would if the board were
+  // wide enough
+  int visibleColumns() {
+    return (this.width + this.cellPixels - 1) / this.cellPixels * this.cellsPerPixel;
+  }
+
+  // returns the number of cells that fit down the screen
+  int visibleRows() {
+    return (this.height + this.cellPixels - 1) / this.cellPixels * this.cellsPerPixel;
+  }
+
+  // EFFECT: moves the view by the given numbers of cells, keeping it over the board
+  void pan(int rows, int columns) {
+    this.moveTo(this.row + rows, this.col + columns);
+  }
+
+  // EFFECT: puts (row, col) in the top left corner, or as near as the board allows
+  void moveTo(long row, long col) {
+    this.row = (int) Math.max(0, Math.min(row, this.rows - (long) this.visibleRows()));
+    this.col = (int) Math.max(0, Math.min(col, this.columns - (long) this.visibleColumns()));
+  }
+
+  // EFFECT: doubles the size of every cell on screen, keeping the center cell centered
+  void zoomIn() {
+    long centerRow = this.row + this.visibleRows() / 2;
+    long centerCol = this.col + this.visibleColumns() / 2;
+    if (this.cellsPerPixel > 1) {
+      this.cellsPerPixel /= 2;
+    } else {
+      this.cellPixels = Math.min(MSWorld.CELL_SIZE, this.cellPixels * 2);
+    }
+    this.rezoomed(centerRow, centerCol);
+  }
+
+  // EFFECT: halves the size of every cell on screen, keeping the center cell centered
+  void zoomOut() {
+    long centerRow = this.row + this.visibleRows() / 2;
+    long centerCol = this.col + this.visibleColumns() / 2;
+    if (this.cellPixels > 1) {
+      this.cellPixels = (this.cellPixels + 1) / 2;
+    } else if (this.visibleColumns() < this.columns || this.visibleRows() < this.rows) {
+      this.cellsPerPixel *= 2;
+    }
+    this.rezoomed(centerRow, centerCol);
+  }
+
+  // EFFECT: rescales the tiles for the new zoom and centers the view on (row, col)
+  void rezoomed(long centerRow, long centerCol) {
+    if (this.cellPixels == MSWorld.CELL_SIZE) {
+      this.tiles = MSWorld.TILES;
+    } else if (this.cellPixels >= TILE_PIXELS) {
+      this.tiles = new WorldImage[MSWorld.TILES.length];
+      for (int k = 0; k < this.tiles.length; k++) {
+        this.tiles[k] = new ScaleImage(MSWorld.TILES[k],
+            (double) this.cellPixels / MSWorld.CELL_SIZE);
+      }
+    }
+    this.moveTo(centerRow - this.visibleRows() / 2, centerCol - this.visibleColumns() / 2);
+  }
+
+  // returns the flat index row * columns + col of the cell under the screen position pos,
+  // or -1 if there is no board there or a pixel shows more than one cell
+  int cellAt(Posn pos) {
+    if (this.cellsPerPixel > 1 || pos.x < 0 || pos.y < 0) {
+      return -1;
+    }
+    long r = this.row + pos.y / this.cellPixels;
+    long c = this.col + pos.x / this.cellPixels;
+    return r < this.rows && c < this.columns ? (int) (r * this.columns + c) : -1;
+  }
+
+  // returns the frame of world seen through this view, visiting only the cells on screen
+  WorldScene draw(MSWorld world) {
+    WorldScene scene = new WorldScene(this.width, this.height);
+    int lastRow = (int) Math.min(this.rows, (long) this.row + this.visibleRows());
+    int lastCol = (int) Math.min(this.columns, (long) this.col + this.visibleColumns());
+    this.lastDrawn = 0;
+    if (this.cellPixels >= TILE_PIXELS) {
+      int half = this.cellPixels / 2;
+      for (int r = this.row; r < lastRow; r++) {
+        for (int c = this.col; c < lastCol; c++) {
+          scene.placeImageXY(this.tiles[world.tileAt(r, c)],
+              (c - this.col) * this.cellPixels + half, (r - this.row) * this.cellPixels + half);
+        }
+      }
+      this.lastDrawn = (lastRow - this.row) * (lastCol - this.col);
+      return scene;
+    }
+    ComputedPixelImage image = new ComputedPixelImage(this.width, this.height);
+    int shownRows = (lastRow - this.row + this.cellsPerPixel - 1) / this.cellsPerPixel;
+    int shownCols = (lastCol - this.col + this.cellsPerPixel - 1) / this.cellsPerPixel;
+    for (int y = 0; y < shownRows; y++) {
+      for (int x = 0; x < shownCols; x++) {
+        Color color = this.blockColor(world, this.row + y * this.cellsPerPixel,
+            this.col + x * this.cellsPerPixel);
+        for (int py = y * this.cellPixels; py < Math.min(this.height, (y + 1) * this.cellPixels);
+             py++) {
+          for (int px = x * this.cellPixels;
+               px < Math.min(this.width, (x + 1) * this.cellPixels); px++) {
+            image.setPixel(px, py, color);
+          }
+        }
+      }
+    }
+    scene.placeImageXY(image, this.width / 2, this.height / 2);
+    return scene;
+  }
+
+  // returns the color of the pixel block whose top left cell is (r, c): the color of the
+  // cell itself, or for a block of several cells, red if a sampled cell is a revealed mine
+  // and otherwise the color of the state most of the sampled cells are in
+  Color blockColor(MSWorld world, int r, int c) {
+    int step = Math.max(1, this.cellsPerPixel / SAMPLES);
+    int[] seen = this.seen;
+    Arrays.fill(seen, 0);
+    int best = MSEngine.HIDDEN;
+    for (int dr = 0; dr < this.cellsPerPixel && r + dr < this.rows; dr += step) {
+      for (int dc = 0; dc < this.cellsPerPixel && c + dc < this.columns; dc += step) {
+        int tile = world.tileAt(r + dr, c + dc);
+        this.lastDrawn++;
+        if (tile == MSEngine.MINE) {
+          return COLORS[MSEngine.MINE];
+        }
+        seen[tile]++;
+        if (seen[tile] > seen[best]) {
+          best = tile;
+        }
+      }
+    }
+    return COLORS[best];
+  }
+}
+
+//examples and tests for viewports
+class ExamplesViewport {
+  ExamplesViewport() {}
+
+  // to test mapping screen positions to cells, panned and zoomed
+  void testCellAt(Tester t) {
+    Viewport view = new Viewport(300, 240, 2000, 1500);
+    t.checkExpect(view.visibleColumns(), 10);
+    t.checkExpect(view.visibleRows(), 8);
+    t.checkExpect(view.cellAt(new Posn(65, 31)), 2000 + 2);
+    view.pan(100, 50);
+    t.checkExpect(view.cellAt(new Posn(0, 0)), 100 * 2000 + 50);
+    view.pan(-500, 5000);
+    t.checkExpect(view.row, 0);
+    t.checkExpect(view.col, 1990);
+    t.checkExpect(view.cellAt(new Posn(299, 239)), 7 * 2000 + 1999);
+    t.checkExpect(view.cellAt(new Posn(-1, 0)), -1);
+    Viewport small = new Viewport(300, 240, 4, 4);
+    t.checkExpect(small.cellAt(new Posn(200, 10)), -1);
+  }
+
+  // to test zooming around the center of the view
+  void testZoom(Tester t) {
+    Viewport view = new Viewport(300, 240, 2000, 1500);
+    view.moveTo(500, 500);
+    view.zoomOut();
+    t.checkExpect(view.cellPixels, 15);
+    t.checkExpect(view.visibleColumns(), 20);
+    t.checkExpect(view.row + view.visibleRows() / 2, 504);
+    t.checkExpect(view.col + view.visibleColumns() / 2, 505);
+    t.checkExpect(view.tiles[0] instanceof ScaleImage, true);
+    for (int k = 0; k < 8; k++) {
+      view.zoomOut();
+    }
+    t.checkExpect(view.cellPixels, 1);
+    t.checkExpect(view.cellsPerPixel, 8);
+    t.checkExpect(view.cellAt(new Posn(10, 10)), -1);
+    for (int k = 0; k < 10; k++) {
+      view.zoomOut();
+    }
+    t.checkExpect(view.cellsPerPixel, 8); // the whole board is already on screen
+    for (int k = 0; k < 20; k++) {
+      view.zoomIn();
+    }
+    t.checkExpect(view.cellPixels, MSWorld.CELL_SIZE);
+    t.checkExpect(view.tiles, MSWorld.TILES);
+  }
+
+  // to test that a frame visits only the cells on screen
+  void testCulling(Tester t) {
+    MSWorld world = new MSWorld(2000, 2000, 400000, true, 3L);
+    world.useViewport(300, 240);
+    WorldScene scene = world.makeScene();
+    t.checkExpect(scene.width, 300);
+    t.checkExpect(world.view.lastDrawn, 80);
+    t.checkExpect(world.cellsToDraw(), 80);
+    world.view.zoomOut();
+    world.view.zoomOut();
+    world.view.zoomOut();
+    world.makeScene();
+    t.checkExpect(world.view.cellPixels, 4);
+    t.checkExpect(world.view.lastDrawn, 75 * 60);
+    for (int k = 0; k < 6; k++) {
+      world.view.zoomOut();
+    }
+    world.makeScene();
+    t.checkExpect(world.view.cellsPerPixel, 16);
+    t.checkExpect(world.view.lastDrawn, 125 * 125 * Viewport.SAMPLES * Viewport.SAMPLES);
+  }
+
+  // to test the colors of zoomed-out pixels
+  void testBlockColor(Tester t) {
+    MSWorld world = new MSWorld(8, 8, 1, true, 1L);
+    world.engine.board.clearMines();
+    world.engine.board.placeMine(world.engine.index(7, 7));
+    Viewport view = new Viewport(4, 4, 8, 8);
+    view.cellPixels = 1;
+    view.cellsPerPixel = 4;
+    t.checkExpect(view.blockColor(world, 0, 0), Color.LIGHT_GRAY);
+    world.flagCell(7, 7);
+    world.revealCell(0, 0);
+    t.checkExpect(view.blockColor(world, 0, 0), Viewport.COLORS[0]);
+    t.checkExpect(view.blockColor(world, 4, 4), Viewport.COLORS[0]);
+    view.cellsPerPixel = 1;
+    t.checkExpect(view.blockColor(world, 7, 7), Color.ORANGE);
+    t.checkExpect(view.blockColor(world, 6, 6), Color.BLUE);
+  }
+
+  // to test clicks and keys on a world seen through a viewport
+  void testWorldInput(Tester t) {
+    MSWorld world = new MSWorld(500, 400, 100, true, 2L);
+    world.useViewport(300, 240);
+    world.onKeyEvent("right");
+    world.onKeyEvent("down");
+    t.checkExpect(world.view.col, Viewport.PAN_CELLS);
+    t.checkExpect(world.view.row, Viewport.PAN_CELLS);
+    world.onMouseClicked(new Posn(35, 5), "RightButton");
+    t.checkExpect(world.engine.visible(Viewport.PAN_CELLS, Viewport.PAN_CELLS + 1),
+        MSEngine.FLAGGED);
+    world.onKeyEvent("-");
+    t.checkExpect(world.view.cellPixels, 15);
+    world.onKeyEvent("+");
+    t.checkExpect(world.view.cellPixels, 30);
+    for (int k = 0; k < 12; k++) {
+      world.onKeyEvent("-");
+    }
+    world.onMouseClicked(new Posn(5, 5), "LeftButton");
+    t.checkExpect(world.started, false);
+  }
+}
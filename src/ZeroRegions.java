@@ -0,0 +1,357 @@
+import java.util.stream.IntStream;
+import tester.*;
+
+// to represent the connected empty regions of a laid-out flat board, found once so that a
+// reveal on an empty cell opens its region from a stored list instead of flooding.
+// an empty cell is a safe cell with no adjacent mines; two are connected if they touch,
+// diagonals included, which is exactly how a flood spreads. regions are found with
+// union-find: each horizontal band of rows is joined on its own, in parallel on large
+// boards, and then the seams between bands are joined. the regions are stored as spans
+// of one array (compressed sparse rows): span r is cells[start[r], start[r + 1]), its
+// empty cells first and then the numbered cells bordering it.
+// the labels describe the mines at the time they were built; after mines move, build new
+// ones.
+class ZeroRegions {
+  static final int BAND_CELLS = 1 << 16; // about this many cells per parallel band
+
+  FlatBoard board;
+  int[] label; // region of each empty cell, -1 for every other cell
+  int[] start; // span r starts at start[r]; start[regions] is the end of the last span
+  int[] empties; // number of empty cells at the front of each span
+  int[] cells;
+  int regions;
+  long spanReveals; // reveals served from a span
+  long floodReveals; // reveals that fell back to a flood
+
+  // labels board's regions, in bands of about BAND_CELLS cells
+  ZeroRegions(FlatBoard board) {
+    this(board, Math.max(1, BAND_CELLS / Math.max(1, board.columns)));
+  }
+
+  // labels board's regions in bands of bandRows rows
+  ZeroRegions(FlatBoard board, int bandRows) {
+    board.topology.requireSquare("Region labeling");
+    this.board = board;
+    this.label = new int[board.size()];
+    int[] parent = new int[board.size()];
+    int bands = (board.rows + bandRows - 1) / bandRows;
+    IntStream work = IntStream.range(0, bands);
+    (bands > 1 ? work.parallel() : work).forEach(b ->
+        this.joinBand(parent, b * bandRows, Math.min(board.rows, (b + 1) * bandRows)));
+    for (int row = bandRows; row < board.rows; row += bandRows) {
+      this.joinSeam(parent, row);
+    }
+    this.compact(parent);
+  }
+
+  // is the cell at index safe with no adjacent mines?
+  boolean isEmpty(int index) {
+    return (this.board.cells[index] & (FlatBoard.MINE | ~FlatBoard.STATE_MASK)) == 0;
+  }
+
+  // returns the root of index's set, halving the path on the way
+  static int find(int[] parent, int index) {
+    while (parent[index] != index) {
+      parent[index] = parent[parent[index]];
+      index = parent[index];
+    }
+    return index;
+  }
+
+  // EFFECT: joins the sets of a and b, keeping the smaller root so a set's root is always
+  // its first cell
+  static void union(int[] parent, int a, int b) {
+    int rootA = ZeroRegions.find(parent, a);
+    int rootB = ZeroRegions.find(parent, b);
+    if (rootA < rootB) {
+      parent[rootB] = rootA;
+    } else if (rootB < rootA) {
+      parent[rootA] = rootB;
+    }
+  }
+
+  // EFFECT: joins every empty cell in rows [from, to) with the empty cells before it in the
+  // band: west, north west, north and north east. touches only parent entries in the band.
+  void joinBand(int[] parent, int from, int to) {
+    int columns = this.board.columns;
+    for (int row = from; row < to; row++) {
+      for (int col = 0; col < columns; col++) {
+        int i = row * columns + col;
+        parent[i] = i;
+        if (!this.isEmpty(i)) {
+          continue;
+        }
+        if (col > 0 && this.isEmpty(i - 1)) {
+          ZeroRegions.union(parent, i, i - 1);
+        }
+        if (row > from) {
+          for (int c = Math.max(0, col - 1); c <= Math.min(columns - 1, col + 1); c++) {
+            if (this.isEmpty(i - columns - col + c)) {
+              ZeroRegions.union(parent, i, i - columns - col + c);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // EFFECT: joins the empty cells of the first row of a band with those touching them in
+  // the last row of the band above
+  void joinSeam(int[] parent, int row) {
+    int columns = this.board.columns;
+    for (int col = 0; col < columns; col++) {
+      int i = row * columns + col;
+      if (!this.isEmpty(i)) {
+        continue;
+      }
+      for (int c = Math.max(0, col - 1); c <= Math.min(columns - 1, col + 1); c++) {
+        if (this.isEmpty(i - columns - col + c)) {
+          ZeroRegions.union(parent, i, i - columns - col + c);
+        }
+      }
+    }
+  }
+
+  // EFFECT: numbers the regions in order of their first cell, then lays out their spans:
+  // one pass counts each span, a second fills them in. a numbered cell bordering several
+  // regions is listed in each of them once.
+  void compact(int[] parent) {
+    int size = this.board.size();
+    this.regions = 0;
+    for (int i = 0; i < size; i++) {
+      if (!this.isEmpty(i)) {
+        this.label[i] = -1;
+      } else if (ZeroRegions.find(parent, i) == i) {
+        this.label[i] = this.regions;
+        this.regions++;
+      } else {
+        this.label[i] = this.label[ZeroRegions.find(parent, i)];
+      }
+    }
+    this.start = new int[this.regions + 1];
+    this.empties = new int[this.regions];
+    int[] around = new int[this.board.topology.maxNeighbors()];
+    for (int pass = 0; pass < 2; pass++) {
+      int[] fill = pass == 0 ? null : new int[2 * this.regions];
+      for (int i = 0; i < size; i++) {
+        if (this.label[i] >= 0) {
+          this.add(fill, this.label[i], i, true);
+        } else if (!this.board.hasMine(i)) {
+          int n = this.bordered(i, around);
+          for (int k = 0; k < n; k++) {
+            this.add(fill, around[k], i, false);
+          }
+        }
+      }
+      if (pass == 0) {
+        for (int r = 0; r < this.regions; r++) {
+          this.start[r + 1] = this.start[r] + this.start[r + 1];
+        }
+        this.cells = new int[this.start[this.regions]];
+      }
+    }
+  }
+
+  // EFFECT: counts cell into region's span (fill is null), or stores it at the next free
+  // place of the span: empty cells from the front, border cells after all the empty ones.
+  // fill[2 * region] and fill[2 * region + 1] hold how many of each are stored so far.
+  void add(int[] fill, int region, int cell, boolean empty) {
+    if (fill == null) {
+      this.start[region + 1]++;
+      if (empty) {
+        this.empties[region]++;
+      }
+    } else if (empty) {
+      this.cells[this.start[region] + fill[2 * region]] = cell;
+      fill[2 * region]++;
+    } else {
+      this.cells[this.start[region] + this.empties[region] + fill[2 * region + 1]] = cell;
+      fill[2 * region + 1]++;
+    }
+  }
+
+  // EFFECT: writes the distinct regions touching the numbered cell at index into out, and
+  // returns how many were written
+  int bordered(int index, int[] out) {
+    int columns = this.board.columns;
+    int row = index / columns;
+    int col = index - row * columns;
+    int n = 0;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.board.rows - 1, row + 1); r++) {
+      for (int c = Math.max(0, col - 1); c <= Math.min(columns - 1, col + 1); c++) {
+        int region = this.label[r * columns + c];
+        boolean seen = region < 0;
+        for (int k = 0; k < n && !seen; k++) {
+          seen = out[k] == region;
+        }
+        if (!seen) {
+          out[n] = region;
+          n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  // returns the number of cells in region's span, its border included
+  int spanSize(int region) {
+    return this.start[region + 1] - this.start[region];
+  }
+
+  // returns the size of the largest span, or 0 if there are no regions
+  int largestSpan() {
+    int largest = 0;
+    for (int r = 0; r < this.regions; r++) {
+      largest = Math.max(largest, this.spanSize(r));
+    }
+    return largest;
+  }
+
+  // EFFECT: reveals the cell at index as FlatBoard.reveal does, leaving the opened indices
+  // in board.queue[0, n), and returns n. an empty cell opens its region's span; the flood
+  // is only used when an empty cell of the region is already revealed or flagged, since
+  // the flood would then stop where the span does not.
+  int reveal(int index) {
+    int region = this.label[index];
+    if (region < 0 || (this.board.cells[index] & (FlatBoard.REVEALED | FlatBoard.FLAGGED)) != 0) {
+      return this.board.reveal(index);
+    }
+    int from = this.start[region];
+    int to = this.start[region + 1];
+    byte[] cells = this.board.cells;
+    for (int k = from; k < from + this.empties[region]; k++) {
+      if ((cells[this.cells[k]] & (FlatBoard.REVEALED | FlatBoard.FLAGGED)) != 0) {
+        this.floodReveals++;
+        return this.board.reveal(index);
+      }
+    }
+    if (this.board.queue.length < to - from) {
+      this.board.queue = new int[Integer.highestOneBit(to - from) << 1];
+    }
+    int n = 0;
+    for (int k = from; k < to; k++) {
+      int cell = this.cells[k];
+      if ((cells[cell] & (FlatBoard.REVEALED | FlatBoard.FLAGGED)) == 0) {
+        cells[cell] |= FlatBoard.REVEALED;
+        this.board.queue[n] = cell;
+        n++;
+      }
+    }
+    this.board.safeHidden -= n;
+    this.spanReveals++;
+    return n;
+  }
+}
+
+//examples and tests for zero-region labeling
+class ExamplesZeroRegions {
+  ExamplesZeroRegions() {}
+
+  // returns whether revealing every cell of a fresh copy of board, one at a time in the
+  // order given by step, opens the same cells through the regions as through the flood
+  boolean sameAsFlood(FlatBoard board, int step) {
+    FlatBoard flooded = board.copy();
+    FlatBoard spanned = board.copy();
+    ZeroRegions regions = new ZeroRegions(spanned);
+    boolean same = true;
+    for (int k = 0; k < board.size(); k++) {
+      int i = (int) ((long) k * step % board.size());
+      if (flooded.hasMine(i)) {
+        continue;
+      }
+      same = same && flooded.reveal(i) == regions.reveal(i)
+          && java.util.Arrays.equals(flooded.cells, spanned.cells)
+          && flooded.safeHidden == spanned.safeHidden;
+    }
+    return same;
+  }
+
+  // to test labeling a small board by hand
+  void testLabels(Tester t) {
+    FlatBoard board = new FlatBoard(5, 3);
+    board.placeMine(2);
+    board.placeMine(12);
+    // . 1 * 1 .
+    // . 2 2 2 .
+    // . 1 * 1 .
+    ZeroRegions regions = new ZeroRegions(board);
+    t.checkExpect(regions.regions, 2);
+    t.checkExpect(regions.label, new int[] {
+        0, -1, -1, -1, 1, 0, -1, -1, -1, 1, 0, -1, -1, -1, 1});
+    t.checkExpect(regions.empties, new int[] {3, 3});
+    t.checkExpect(regions.start, new int[] {0, 6, 12});
+    t.checkExpect(regions.cells, new int[] {0, 5, 10, 1, 6, 11, 4, 9, 14, 3, 8, 13});
+    t.checkExpect(regions.largestSpan(), 6);
+    t.checkExpect(regions.reveal(5), 6);
+    t.checkExpect(board.queue[5], 11);
+    t.checkExpect(board.safeHidden, 13 - 6);
+    t.checkExpect(regions.reveal(0), 0);
+    t.checkExpect(regions.spanReveals, 1L);
+  }
+
+  // to test that parallel bands give the same labels as one band, seams included
+  void testBands(Tester t) {
+    MSEngine engine = new MSEngine(97, 61, 400, 5L);
+    ZeroRegions whole = new ZeroRegions(engine.board, 61);
+    boolean same = true;
+    for (int bandRows : new int[] {1, 2, 7, 30}) {
+      ZeroRegions banded = new ZeroRegions(engine.board, bandRows);
+      same = same && java.util.Arrays.equals(whole.label, banded.label)
+          && java.util.Arrays.equals(whole.cells, banded.cells);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(whole.regions > 1, true);
+  }
+
+  // to test that span reveals open exactly what the flood opens
+  void testReveal(Tester t) {
+    boolean same = true;
+    for (long s = 0; s < 6; s++) {
+      MSEngine engine = new MSEngine(40, 30, 60 + 40 * (int) s, s);
+      same = same && this.sameAsFlood(engine.board, 7) && this.sameAsFlood(engine.board, 1);
+    }
+    t.checkExpect(same, true);
+  }
+
+  // to test that flags in a region fall back to the flood
+  void testFlags(Tester t) {
+    FlatBoard board = new FlatBoard(6, 1);
+    board.placeMine(5);
+    ZeroRegions regions = new ZeroRegions(board);
+    board.toggleFlag(2);
+    t.checkExpect(regions.reveal(0), 2);
+    t.checkExpect(regions.floodReveals, 1L);
+    board.toggleFlag(2);
+    t.checkExpect(regions.reveal(3), 3);
+    t.checkExpect(board.isRevealed(2), true);
+    t.checkExpect(regions.floodReveals, 2L);
+    FlatBoard fresh = new FlatBoard(6, 1);
+    fresh.placeMine(5);
+    fresh.toggleFlag(4);
+    regions = new ZeroRegions(fresh);
+    t.checkExpect(regions.reveal(0), 4);
+    t.checkExpect(fresh.isRevealed(4), false);
+    t.checkExpect(regions.spanReveals, 1L);
+  }
+
+  // to test an engine that reveals through its regions, relabeled after the first click
+  void testEngine(Tester t) {
+    MSEngine plain = new MSEngine(30, 16, 60, 9L);
+    plain.firstClickSafe = true;
+    MSEngine labeled = new MSEngine(30, 16, 60, 9L);
+    labeled.firstClickSafe = true;
+    labeled.labelRegions();
+    MSSolver a = new MSSolver(plain);
+    MSSolver b = new MSSolver(labeled);
+    t.checkExpect(a.play(8, 15), true);
+    t.checkExpect(b.play(8, 15), true);
+    boolean same = true;
+    for (int i = 0; i < plain.board.size(); i++) {
+      // the solvers open cells in different orders, so they may stop at different flags
+      same = same && (plain.board.cells[i] | FlatBoard.FLAGGED)
+          == (labeled.board.cells[i] | FlatBoard.FLAGGED);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(labeled.regions.spanReveals > 0, true);
+  }
+}